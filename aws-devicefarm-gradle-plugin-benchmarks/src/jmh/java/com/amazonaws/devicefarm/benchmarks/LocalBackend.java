@@ -0,0 +1,76 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.benchmarks;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.Project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * In-process Device Farm and S3 endpoint the benchmarks run against, without latency or failures
+ * so scores only reflect the plugin code.
+ */
+final class LocalBackend {
+
+    final LocalDeviceFarm deviceFarm;
+    final AWSDeviceFarm api;
+    final Project project;
+
+    /**
+     * @param processingMillis time an upload takes to be processed once uploaded
+     */
+    LocalBackend(final long processingMillis) throws IOException {
+        deviceFarm = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, processingMillis, 0, 1, 1));
+
+        final AWSDeviceFarmClient client = new AWSDeviceFarmClient(
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local")),
+                new ClientConfiguration().withMaxErrorRetry(0));
+        client.setServiceNameIntern("devicefarm");
+        client.setEndpoint(deviceFarm.getEndpoint());
+        api = client;
+
+        project = new Project().withName("benchmark").withArn(deviceFarm.seedProject("benchmark"));
+    }
+
+    void stop() {
+        api.shutdown();
+        deviceFarm.stop();
+    }
+
+    /**
+     * @param size size in bytes
+     * @return a temporary file of random content
+     */
+    static File randomFile(final int size, final long seed) throws IOException {
+        final File file = Files.createTempFile("devicefarm-benchmark", ".apk").toFile();
+        file.deleteOnExit();
+        final byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(content);
+        }
+        return file;
+    }
+}
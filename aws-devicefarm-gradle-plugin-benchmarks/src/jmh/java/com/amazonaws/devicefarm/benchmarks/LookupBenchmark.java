@@ -0,0 +1,86 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.benchmarks;
+
+import com.amazonaws.devicefarm.DeviceFarmUtils;
+import com.amazonaws.devicefarm.MetadataCache;
+import com.amazonaws.services.devicefarm.model.DevicePool;
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.Upload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paging through large project, upload and device pool lists, 50 entries per page.
+ * The metadata cache is disabled so every lookup goes to the API, the name searched for is on the last page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LookupBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int size;
+
+    private LocalBackend backend;
+    private DeviceFarmUtils utils;
+    private String lastProjectName;
+    private String lastDevicePoolName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        backend = new LocalBackend(0);
+        utils = new DeviceFarmUtils(backend.api, null, new MetadataCache("benchmark", 0, null, false));
+
+        for (int i = 0; i < size; i++) {
+            lastProjectName = "project-" + i;
+            backend.deviceFarm.seedProject(lastProjectName);
+            lastDevicePoolName = "pool-" + i;
+            backend.deviceFarm.seedDevicePool(backend.project.getArn(), lastDevicePoolName);
+            backend.deviceFarm.seedUpload(backend.project.getArn(), "app-" + i + ".apk", "ANDROID_APP");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        backend.stop();
+    }
+
+    @Benchmark
+    public Project findProjectByName() {
+        return utils.findProjectByName(lastProjectName);
+    }
+
+    @Benchmark
+    public List<Upload> getUploads() {
+        return utils.getUploads(backend.project);
+    }
+
+    @Benchmark
+    public DevicePool findDevicePoolByName() {
+        return utils.findDevicePoolByName(backend.project, lastDevicePoolName);
+    }
+}
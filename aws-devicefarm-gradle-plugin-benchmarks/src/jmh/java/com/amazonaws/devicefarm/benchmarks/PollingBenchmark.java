@@ -0,0 +1,76 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.benchmarks;
+
+import com.amazonaws.devicefarm.DeviceFarmUploader;
+import com.amazonaws.devicefarm.PollStrategy;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent waiting for a tiny upload to be processed. Anything above processingMillis is polling overhead:
+ * requests made while the upload is processing and sleep past the moment it succeeded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PollingBenchmark {
+
+    @Param({"0", "250", "1000"})
+    long processingMillis;
+
+    @Param({"10", "100", "1000"})
+    long initialDelayMillis;
+
+    private LocalBackend backend;
+    private DeviceFarmUploader uploader;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        backend = new LocalBackend(processingMillis);
+        uploader = new DeviceFarmUploader(backend.api, Logging.getLogger(PollingBenchmark.class), null,
+                new PollStrategy(initialDelayMillis, 1.5, 10 * initialDelayMillis, 0, TimeUnit.MINUTES.toMillis(1)),
+                DeviceFarmUploader.newHttpClient(1, 10000, 60000),
+                DeviceFarmUploader.newExecutor(1, 1));
+        file = LocalBackend.randomFile(1024, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        uploader.close();
+        backend.stop();
+        file.delete();
+    }
+
+    @Benchmark
+    public Upload waitForUpload() {
+        return uploader.upload(file, backend.project, UploadType.ANDROID_APP);
+    }
+}
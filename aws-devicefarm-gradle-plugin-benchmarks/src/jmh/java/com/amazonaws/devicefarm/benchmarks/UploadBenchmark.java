@@ -0,0 +1,94 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.benchmarks;
+
+import com.amazonaws.devicefarm.DeviceFarmUploader;
+import com.amazonaws.devicefarm.PollStrategy;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import com.google.common.collect.Lists;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of artifact uploads, one after the other and in a batch, for several file sizes and counts.
+ * Uploads are processed instantly so the score is the create, transfer and first poll of every artifact.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UploadBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    int fileSize;
+
+    @Param({"1", "8"})
+    int fileCount;
+
+    private LocalBackend backend;
+    private DeviceFarmUploader uploader;
+    private List<File> files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        backend = new LocalBackend(0);
+        uploader = new DeviceFarmUploader(backend.api, Logging.getLogger(UploadBenchmark.class), null,
+                new PollStrategy(1, 1.0, 1, 0, TimeUnit.MINUTES.toMillis(1)),
+                DeviceFarmUploader.newHttpClient(8, 10000, 60000),
+                DeviceFarmUploader.newExecutor(8, 64));
+
+        files = Lists.newArrayList();
+        for (int i = 0; i < fileCount; i++) {
+            files.add(LocalBackend.randomFile(fileSize, i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        uploader.close();
+        backend.stop();
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public List<Upload> upload() {
+        final List<Upload> uploads = Lists.newArrayList();
+        for (File file : files) {
+            uploads.add(uploader.upload(file, backend.project, UploadType.ANDROID_APP));
+        }
+        return uploads;
+    }
+
+    @Benchmark
+    public Collection<Upload> batchUpload() {
+        return uploader.batchUpload(files, backend.project, UploadType.ANDROID_APP);
+    }
+}
@@ -0,0 +1,168 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per operation counts and latencies of the Device Farm API calls of a build, written as JSON to the build reports.
+ */
+public class ApiCallMetrics {
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+
+    /**
+     * @param name name of the operation
+     * @return its metrics, created on first use
+     */
+    public Operation operation(final String name) {
+        Operation operation = operations.get(name);
+        if (operation == null) {
+            operations.putIfAbsent(name, new Operation());
+            operation = operations.get(name);
+        }
+        return operation;
+    }
+
+    /**
+     * @return metrics of every operation called, by name
+     */
+    public Map<String, Operation> getOperations() {
+        return new TreeMap<String, Operation>(operations);
+    }
+
+    /**
+     * @return true if no call was made
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Log one line per operation, at lifecycle level if some calls were throttled or failed.
+     *
+     * @param logger the logger
+     */
+    public void log(final Logger logger) {
+        for (Map.Entry<String, Operation> entry : getOperations().entrySet()) {
+            final Operation operation = entry.getValue();
+            final String line = String.format("Device Farm %s: %d calls, %d retries, %d throttled, %d failed, "
+                            + "%d ms average, %d ms rate limited", entry.getKey(), operation.getCalls(),
+                    operation.getAttempts() - operation.getCalls(), operation.getThrottles(), operation.getFailures(),
+                    operation.getAverageMillis(), operation.getRateLimitedMillis());
+            if (operation.getThrottles() > 0 || operation.getFailures() > 0) {
+                logger.lifecycle(line);
+            } else {
+                logger.info(line);
+            }
+        }
+    }
+
+    /**
+     * Write the metrics, replacing any previous ones.
+     *
+     * @param file the report file
+     */
+    public void writeTo(final File file) {
+
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DeviceFarmException(String.format("Unable to create report directory %s", directory));
+        }
+
+        try {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, getOperations());
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write API call metrics %s", file), e);
+        }
+    }
+
+    /**
+     * Metrics of a single operation.
+     */
+    public static class Operation {
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong throttles = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private final AtomicLong rateLimitedMillis = new AtomicLong();
+
+        void attempted(final long rateLimitedMillis) {
+            attempts.incrementAndGet();
+            this.rateLimitedMillis.addAndGet(rateLimitedMillis);
+        }
+
+        void throttled() {
+            throttles.incrementAndGet();
+        }
+
+        /**
+         * @param millis time of the call, retries included
+         * @param failed true if the call failed after its last attempt
+         */
+        void completed(final long millis, final boolean failed) {
+            calls.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            totalMillis.addAndGet(millis);
+            long max;
+            while ((max = maxMillis.get()) < millis && !maxMillis.compareAndSet(max, millis)) {
+                // Lost the race against another call, try again
+            }
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getThrottles() {
+            return throttles.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getAverageMillis() {
+            return calls.get() == 0 ? 0 : totalMillis.get() / calls.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        public long getRateLimitedMillis() {
+            return rateLimitedMillis.get();
+        }
+    }
+}
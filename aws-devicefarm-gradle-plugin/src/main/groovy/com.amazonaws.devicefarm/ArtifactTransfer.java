@@ -0,0 +1,265 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.gradle.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the bytes of an artifact to its upload url.
+ * Small artifacts, and urls only taking whole files like presigned S3 urls, get a single PUT retried as a whole.
+ * Large artifacts sent to urls accepting ranges are split in MD5 checked ranges, sent in parallel,
+ * retried one by one and journaled so a later build sends only the ranges still missing.
+ * Only the local stand-in accepts ranges, without a threshold every artifact is sent whole without probing the url.
+ */
+public class ArtifactTransfer implements Closeable {
+
+    public static final long MEGABYTE = 1024 * 1024;
+
+    /**
+     * Range threshold sending every artifact as a whole
+     */
+    public static final long NO_RANGES = Long.MAX_VALUE;
+
+    private static final long DEFAULT_RANGE_SIZE = 16 * MEGABYTE;
+    private static final int DEFAULT_RANGE_CONCURRENCY = 4;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final String THREAD_NAME = "devicefarm-upload-range";
+
+    private final UploadTransport transport;
+    private final UploadJournal journal;
+    private final long rangeThreshold;
+    private final long rangeSize;
+    private final int maxAttempts;
+    private final PollStrategy retryStrategy;
+    private final ExecutorService rangeExecutor;
+    private final Logger logger;
+
+    /**
+     * @param transport        sends the bytes
+     * @param journal          journal of the ranged uploads, or null to never resume
+     * @param rangeThreshold   artifacts larger than this are sent in ranges when the url accepts them
+     * @param rangeSize        size of the ranges
+     * @param rangeConcurrency maximum number of ranges of an artifact sent at once
+     * @param maxAttempts      times a PUT is tried before giving up
+     * @param retryStrategy    delays between the attempts
+     * @param logger           logger
+     */
+    public ArtifactTransfer(final UploadTransport transport, final UploadJournal journal, final long rangeThreshold,
+                            final long rangeSize, final int rangeConcurrency, final int maxAttempts,
+                            final PollStrategy retryStrategy, final Logger logger) {
+        this.transport = transport;
+        this.journal = journal;
+        this.rangeThreshold = rangeThreshold;
+        this.rangeSize = Math.max(1, rangeSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryStrategy = retryStrategy;
+        this.rangeExecutor = DeviceFarmExecutors.newBoundedExecutor(THREAD_NAME, rangeConcurrency,
+                rangeConcurrency * 4);
+        this.logger = logger;
+    }
+
+    /**
+     * @param httpClient client sending the requests
+     * @param logger     logger
+     * @return transfer used when nothing is configured, sending whole artifacts without journal
+     */
+    public static ArtifactTransfer defaults(final CloseableHttpClient httpClient, final Logger logger) {
+        return new ArtifactTransfer(new HttpUploadTransport(httpClient), null, NO_RANGES,
+                DEFAULT_RANGE_SIZE, DEFAULT_RANGE_CONCURRENCY, DEFAULT_MAX_ATTEMPTS, defaultRetryStrategy(), logger);
+    }
+
+    /**
+     * @return delays between two attempts of a PUT, 1 second growing to 30
+     */
+    public static PollStrategy defaultRetryStrategy() {
+        return new PollStrategy(1000, 2.0, 30000, 0.5, TimeUnit.MINUTES.toMillis(30));
+    }
+
+    /**
+     * @param key  key of the artifact, or null if it is not journaled
+     * @param file the artifact
+     * @return the journaled upload of this artifact still missing ranges, or null if none
+     */
+    public UploadJournal.Entry resumable(final String key, final File file) {
+
+        if (journal == null || key == null) {
+            return null;
+        }
+
+        final UploadJournal.Entry entry = journal.get(key);
+        if (entry != null && (entry.getLength() != file.length() || entry.getRangeSize() != rangeSize)) {
+            journal.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Forget the journaled upload of an artifact.
+     *
+     * @param key key of the artifact, or null
+     */
+    public void forget(final String key) {
+        if (journal != null && key != null) {
+            journal.remove(key);
+        }
+    }
+
+    /**
+     * Send an artifact, as ranges when it is large and the url accepts them.
+     *
+     * @param file        the artifact
+     * @param arn         arn of its upload
+     * @param url         url receiving the bytes
+     * @param contentType content type of the upload
+     * @param key         key of the artifact in the journal, or null not to journal it
+     * @param progress    notified of the bytes sent
+     */
+    public void send(final File file, final String arn, final String url, final String contentType,
+                     final String key, final TransferProgress progress) {
+
+        if (file.length() <= rangeThreshold || !transport.acceptsRanges(url)) {
+            put(url, contentType, new ProgressFileEntity(file, contentType, progress), null, file.getName());
+        } else {
+            sendRanges(file, arn, url, contentType, key, progress);
+        }
+        forget(key);
+    }
+
+    private void sendRanges(final File file, final String arn, final String url, final String contentType,
+                            final String key, final TransferProgress progress) {
+
+        final int ranges = (int) ((file.length() + rangeSize - 1) / rangeSize);
+
+        final UploadJournal.Entry entry = resumable(key, file);
+        final boolean journaled = journal != null && key != null;
+        if (entry != null && entry.getArn().equals(arn)) {
+            logger.lifecycle(String.format("Resuming upload of %s, %d of %d ranges already sent",
+                    file.getName(), entry.getCompleted().size(), ranges));
+        } else if (journaled) {
+            journal.start(key, arn, url, file.length(), rangeSize);
+        }
+
+        final List<Future<Boolean>> futures = Lists.newArrayList();
+        for (int i = 0; i < ranges; i++) {
+            if (entry != null && entry.getArn().equals(arn) && entry.getCompleted().contains(i)) {
+                continue;
+            }
+            final int range = i;
+            final long offset = range * rangeSize;
+            final ProgressFileEntity entity = new ProgressFileEntity(file, offset,
+                    Math.min(rangeSize, file.length() - offset), contentType, progress);
+            futures.add(rangeExecutor.submit(Tracer.propagate(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final boolean complete = put(url, contentType, entity, md5Of(entity),
+                            String.format("%s range %d/%d", file.getName(), range + 1, ranges));
+                    if (journaled) {
+                        journal.completed(key, range);
+                    }
+                    return complete;
+                }
+            })));
+        }
+
+        if (futures.isEmpty()) {
+            // The url acknowledged every range, the build stopped before the journal entry was removed
+            logger.lifecycle(String.format("Every range of %s was already sent", file.getName()));
+            return;
+        }
+
+        boolean complete = false;
+        try {
+            for (Future<Boolean> future : futures) {
+                complete |= future.get();
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof DeviceFarmException) {
+                throw (DeviceFarmException) e.getCause();
+            }
+            throw new DeviceFarmException(e.getCause());
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new DeviceFarmException(String.format("Interrupted while uploading %s", file.getName()), e);
+        }
+
+        if (!complete) {
+            forget(key);
+            throw new DeviceFarmException(String.format("Upload of %s is incomplete after sending every range",
+                    file.getName()));
+        }
+    }
+
+    /**
+     * PUT with retries of the errors that may go away.
+     *
+     * @return true once the url holds the whole file
+     */
+    private boolean put(final String url, final String contentType, final ProgressFileEntity entity,
+                        final String md5, final String description) {
+
+        final PollStrategy.Session retry = retryStrategy.start(description);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transport.put(url, contentType, entity, md5);
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw new DeviceFarmException(String.format("Error uploading artifact %s", description), e);
+                }
+                logger.lifecycle(String.format("Error uploading %s, attempt %d of %d: %s",
+                        description, attempt, maxAttempts, e.getMessage()));
+                Tracer.current().add("retries", 1);
+                retry.sleep();
+            }
+        }
+    }
+
+    private static String md5Of(final ProgressFileEntity entity) throws IOException {
+        try (InputStream in = entity.getContent()) {
+            return Base64.encodeBase64String(DigestUtils.md5(in));
+        }
+    }
+
+    private static void cancel(final List<Future<Boolean>> futures) {
+        for (Future<Boolean> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Stop the range threads.
+     */
+    @Override
+    public void close() {
+        rangeExecutor.shutdownNow();
+    }
+}
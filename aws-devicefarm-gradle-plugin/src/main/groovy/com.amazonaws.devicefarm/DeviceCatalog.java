@@ -0,0 +1,431 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import com.amazonaws.devicefarm.extension.DeviceSelectionRules;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.model.Device;
+import com.amazonaws.services.devicefarm.model.DeviceAvailability;
+import com.amazonaws.services.devicefarm.model.DeviceFilter;
+import com.amazonaws.services.devicefarm.model.DeviceFilterAttribute;
+import com.amazonaws.services.devicefarm.model.ListDevicesRequest;
+import com.amazonaws.services.devicefarm.model.ListDevicesResult;
+import com.amazonaws.services.devicefarm.model.RuleOperator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The devices of the account, cached so selection rules resolve without listing every device each build.
+ * Catalogs are shared by every build running in the same Gradle daemon and snapshotted under the Gradle user home.
+ * The device list is refreshed after a long TTL. Availability changes by the minute, so only the availability of
+ * the devices a selection matches is refreshed after a short one.
+ */
+public class DeviceCatalog {
+
+    private static final ConcurrentMap<String, Snapshot> SHARED = new ConcurrentHashMap<String, Snapshot>();
+    private static final int MAX_FILTER_VALUES = 100;
+
+    private static final List<String> AVAILABILITY_RANK = Lists.newArrayList(
+            DeviceAvailability.HIGHLY_AVAILABLE.toString(), DeviceAvailability.AVAILABLE.toString(),
+            null, DeviceAvailability.BUSY.toString());
+
+    private final AWSDeviceFarm api;
+    private final String scope;
+    private final long ttlMillis;
+    private final long availabilityTtlMillis;
+    private final File snapshotFile;
+    private final boolean refresh;
+
+    /**
+     * @param api                   Device Farm client
+     * @param scope                 identifies the account, usually credentials and endpoint
+     * @param ttlMillis             how long the device list stays valid
+     * @param availabilityTtlMillis how long the availability of a device stays valid
+     * @param snapshotFile          file the catalog is persisted to, or null to keep it in memory only
+     * @param refresh               ignore the cached catalog, the new one is still cached
+     */
+    public DeviceCatalog(final AWSDeviceFarm api, final String scope, final long ttlMillis,
+                         final long availabilityTtlMillis, final File snapshotFile, final boolean refresh) {
+        this.api = api;
+        this.scope = scope;
+        this.ttlMillis = ttlMillis;
+        this.availabilityTtlMillis = availabilityTtlMillis;
+        this.snapshotFile = snapshotFile;
+        this.refresh = refresh;
+    }
+
+    /**
+     * @param api       Device Farm client
+     * @param extension the plugin configuration
+     * @return catalog of the configured credentials and endpoint
+     */
+    public static DeviceCatalog forExtension(final AWSDeviceFarm api, final DeviceFarmExtension extension) {
+
+        final String scope = MetadataCache.scopeOf(extension);
+
+        // The devices of the local stand-in are cheap to list and only live as long as its daemon
+        if (extension.isLocalMode()) {
+            return new DeviceCatalog(api, scope, 0, 0, null, false);
+        }
+
+        return new DeviceCatalog(api, scope,
+                TimeUnit.HOURS.toMillis(extension.getMetadata().getDeviceCatalogTtlHours()),
+                TimeUnit.MINUTES.toMillis(extension.getMetadata().getDeviceAvailabilityTtlMinutes()),
+                new File(extension.getDeviceCatalogDir(),
+                        Hashing.sha1().hashString(scope, StandardCharsets.UTF_8).toString() + ".json"),
+                extension.isRefreshMetadata());
+    }
+
+    /**
+     * Pick the devices matching the rules, highly available devices first.
+     *
+     * @param rules the selection rules
+     * @return at most rules.maxDevices devices
+     * @throws DeviceFarmException if no device matches
+     */
+    public List<Device> select(final DeviceSelectionRules rules) {
+
+        final long startedAtMillis = System.currentTimeMillis();
+        final Snapshot snapshot = snapshot();
+        synchronized (snapshot) {
+            List<Device> candidates = matching(snapshot.devices.values(), rules);
+
+            // A catalog listed just now is as fresh as it gets
+            final List<String> stale = Lists.newArrayList();
+            for (Device device : candidates) {
+                if (snapshot.listedAtMillis < startedAtMillis
+                        && snapshot.isAvailabilityExpired(device.getArn(), availabilityTtlMillis)) {
+                    stale.add(device.getArn());
+                }
+            }
+            if (!stale.isEmpty()) {
+                refreshAvailability(snapshot, stale);
+                candidates = matching(snapshot.devices.values(), rules);
+            }
+
+            final List<Device> selected = rank(candidates, rules.getMaxDevices());
+            if (selected.isEmpty()) {
+                throw new DeviceFarmException(String.format("No device matches %s among the %d devices of the account",
+                        rules, snapshot.devices.size()));
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * @return the catalog of the account, listed again when missing or expired
+     */
+    private Snapshot snapshot() {
+
+        Snapshot snapshot = SHARED.get(scope);
+        if (snapshot == null && !refresh) {
+            snapshot = Snapshot.readFrom(snapshotFile);
+            if (snapshot != null) {
+                final Snapshot existing = SHARED.putIfAbsent(scope, snapshot);
+                snapshot = existing != null ? existing : snapshot;
+            }
+        }
+
+        if (snapshot != null && !refresh && !snapshot.isExpired(ttlMillis)) {
+            return snapshot;
+        }
+
+        final Snapshot listed = new Snapshot(System.currentTimeMillis());
+        for (Device device : listDevices(Collections.<DeviceFilter>emptyList())) {
+            listed.put(device);
+        }
+        listed.writeTo(snapshotFile);
+        SHARED.put(scope, listed);
+        return listed;
+    }
+
+    private void refreshAvailability(final Snapshot snapshot, final List<String> arns) {
+
+        for (List<String> chunk : Lists.partition(arns, MAX_FILTER_VALUES)) {
+            final long refreshedAtMillis = System.currentTimeMillis();
+            final List<Device> devices = listDevices(Collections.singletonList(new DeviceFilter()
+                    .withAttribute(DeviceFilterAttribute.ARN).withOperator(RuleOperator.IN).withValues(chunk)));
+            for (Device device : devices) {
+                snapshot.put(device);
+            }
+            // Devices no longer listed were retired
+            for (String arn : chunk) {
+                if (snapshot.isAvailabilityOlderThan(arn, refreshedAtMillis)) {
+                    snapshot.remove(arn);
+                }
+            }
+        }
+        snapshot.writeTo(snapshotFile);
+    }
+
+    private List<Device> listDevices(final List<DeviceFilter> filters) {
+
+        final List<Device> devices = Lists.newArrayList();
+        String nextToken = null;
+        do {
+            final ListDevicesRequest request = new ListDevicesRequest().withNextToken(nextToken);
+            if (!filters.isEmpty()) {
+                request.setFilters(filters);
+            }
+            final ListDevicesResult result = api.listDevices(request);
+            devices.addAll(result.getDevices());
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        return devices;
+    }
+
+    /**
+     * @param devices the catalog
+     * @param rules   the selection rules
+     * @return the devices matching the rules, whatever their availability unless they cannot run tests
+     */
+    static List<Device> matching(final Iterable<Device> devices, final DeviceSelectionRules rules) {
+
+        final List<Device> matching = Lists.newArrayList();
+        for (Device device : devices) {
+            if (matches(device, rules)) {
+                matching.add(device);
+            }
+        }
+        return matching;
+    }
+
+    private static boolean matches(final Device device, final DeviceSelectionRules rules) {
+
+        if (DeviceAvailability.TEMPORARY_NOT_AVAILABLE.toString().equals(device.getAvailability())) {
+            return false;
+        }
+        if (!rules.getAllowBusy() && DeviceAvailability.BUSY.toString().equals(device.getAvailability())) {
+            return false;
+        }
+        if (rules.getPlatform() != null && !rules.getPlatform().equalsIgnoreCase(device.getPlatform())) {
+            return false;
+        }
+        if (rules.getFormFactor() != null && !rules.getFormFactor().equalsIgnoreCase(device.getFormFactor())) {
+            return false;
+        }
+        if (!rules.getManufacturers().isEmpty() && !containsIgnoreCase(rules.getManufacturers(), device.getManufacturer())) {
+            return false;
+        }
+        if (rules.getMinOsVersion() != null
+                && (device.getOs() == null || compareVersions(device.getOs(), rules.getMinOsVersion(), false) < 0)) {
+            return false;
+        }
+        return rules.getMaxOsVersion() == null
+                || (device.getOs() != null && compareVersions(device.getOs(), rules.getMaxOsVersion(), true) <= 0);
+    }
+
+    /**
+     * Order the devices by availability, then newest OS first, and keep the first ones.
+     *
+     * @param devices    the matching devices
+     * @param maxDevices number of devices to keep
+     * @return the selected devices
+     */
+    static List<Device> rank(final List<Device> devices, final int maxDevices) {
+
+        final List<Device> ranked = Lists.newArrayList(devices);
+        Collections.sort(ranked, new Comparator<Device>() {
+            @Override
+            public int compare(final Device a, final Device b) {
+                final int availability = availabilityRank(a) - availabilityRank(b);
+                if (availability != 0) {
+                    return availability;
+                }
+                final int os = compareVersions(StringUtils.defaultString(b.getOs()),
+                        StringUtils.defaultString(a.getOs()), false);
+                if (os != 0) {
+                    return os;
+                }
+                return StringUtils.defaultString(a.getArn()).compareTo(StringUtils.defaultString(b.getArn()));
+            }
+        });
+        return ranked.subList(0, Math.min(Math.max(maxDevices, 0), ranked.size()));
+    }
+
+    private static int availabilityRank(final Device device) {
+        final int rank = AVAILABILITY_RANK.indexOf(device.getAvailability());
+        return rank < 0 ? AVAILABILITY_RANK.indexOf(null) : rank;
+    }
+
+    /**
+     * Compare dotted versions numerically, ex: 9 &lt; 10 and 8.1.0 &gt; 8.
+     *
+     * @param version  the version of a device
+     * @param bound    the version it is compared to
+     * @param asPrefix compare only the parts the bound has, so that 10.0.1 equals 10
+     * @return negative, zero or positive like {@link Comparable#compareTo(Object)}
+     */
+    static int compareVersions(final String version, final String bound, final boolean asPrefix) {
+
+        final String[] versionParts = version.split("\\.");
+        final String[] boundParts = bound.split("\\.");
+        final int length = asPrefix ? boundParts.length : Math.max(versionParts.length, boundParts.length);
+
+        for (int i = 0; i < length; i++) {
+            final int compared = Long.compare(part(versionParts, i), part(boundParts, i));
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return 0;
+    }
+
+    private static long part(final String[] parts, final int index) {
+        if (index >= parts.length) {
+            return 0;
+        }
+        final String digits = parts[index].replaceAll("\\D.*$", "");
+        return digits.isEmpty() ? 0 : Long.parseLong(digits);
+    }
+
+    private static boolean containsIgnoreCase(final List<String> values, final String value) {
+        for (String candidate : values) {
+            if (candidate.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The devices of an account and when they were listed.
+     */
+    private static class Snapshot {
+
+        private static final String[] FIELDS = {"arn", "name", "manufacturer", "model", "platform", "os",
+                "formFactor", "availability"};
+
+        private final long listedAtMillis;
+        private final Map<String, Device> devices = Maps.newLinkedHashMap();
+        private final Map<String, Long> availabilityAtMillis = Maps.newHashMap();
+
+        Snapshot(final long listedAtMillis) {
+            this.listedAtMillis = listedAtMillis;
+        }
+
+        void put(final Device device) {
+            devices.put(device.getArn(), device);
+            availabilityAtMillis.put(device.getArn(), System.currentTimeMillis());
+        }
+
+        void remove(final String arn) {
+            devices.remove(arn);
+            availabilityAtMillis.remove(arn);
+        }
+
+        boolean isExpired(final long ttlMillis) {
+            return System.currentTimeMillis() - listedAtMillis >= ttlMillis;
+        }
+
+        boolean isAvailabilityExpired(final String arn, final long ttlMillis) {
+            return isAvailabilityOlderThan(arn, System.currentTimeMillis() - ttlMillis + 1);
+        }
+
+        boolean isAvailabilityOlderThan(final String arn, final long millis) {
+            final Long at = availabilityAtMillis.get(arn);
+            return at == null || at < millis;
+        }
+
+        static Snapshot readFrom(final File file) {
+
+            if (file == null || !file.isFile()) {
+                return null;
+            }
+
+            final Map<String, Object> json;
+            try {
+                json = new ObjectMapper().readValue(file, new TypeReference<Map<String, Object>>() {
+                });
+            } catch (IOException e) {
+                // A corrupt snapshot only costs a listing
+                return null;
+            }
+
+            final Snapshot snapshot = new Snapshot(((Number) json.get("listedAt")).longValue());
+            @SuppressWarnings("unchecked")
+            final List<Map<String, Object>> devices = (List<Map<String, Object>>) json.get("devices");
+            for (Map<String, Object> device : devices) {
+                final String arn = (String) device.get("arn");
+                snapshot.devices.put(arn, new Device()
+                        .withArn(arn)
+                        .withName((String) device.get("name"))
+                        .withManufacturer((String) device.get("manufacturer"))
+                        .withModel((String) device.get("model"))
+                        .withPlatform((String) device.get("platform"))
+                        .withOs((String) device.get("os"))
+                        .withFormFactor((String) device.get("formFactor"))
+                        .withAvailability((String) device.get("availability")));
+                snapshot.availabilityAtMillis.put(arn, ((Number) device.get("availabilityAt")).longValue());
+            }
+            return snapshot;
+        }
+
+        void writeTo(final File file) {
+
+            if (file == null) {
+                return;
+            }
+
+            final List<Map<String, Object>> json = Lists.newArrayList();
+            for (Device device : devices.values()) {
+                final Map<String, Object> entry = Maps.newLinkedHashMap();
+                final String[] values = {device.getArn(), device.getName(), device.getManufacturer(),
+                        device.getModel(), device.getPlatform(), device.getOs(), device.getFormFactor(),
+                        device.getAvailability()};
+                for (int i = 0; i < FIELDS.length; i++) {
+                    entry.put(FIELDS[i], values[i]);
+                }
+                entry.put("availabilityAt", availabilityAtMillis.get(device.getArn()));
+                json.add(entry);
+            }
+
+            final Map<String, Object> content = Maps.newLinkedHashMap();
+            content.put("listedAt", listedAtMillis);
+            content.put("devices", json);
+
+            final File directory = file.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+
+            // Write then rename so concurrent builds never read a partial file
+            final File tmp = new File(directory, file.getName() + ".tmp");
+            try {
+                new ObjectMapper().writeValue(tmp, content);
+            } catch (IOException e) {
+                return;
+            }
+            file.delete();
+            tmp.renameTo(file);
+        }
+    }
+}
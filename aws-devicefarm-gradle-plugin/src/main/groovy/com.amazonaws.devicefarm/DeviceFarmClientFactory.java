@@ -15,65 +15,209 @@
 package com.amazonaws.devicefarm;
 
 import com.amazonaws.ClientConfiguration;
-import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.devicefarm.extension.ApiConfiguration;
 import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import com.amazonaws.devicefarm.extension.LocalConfiguration;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
 import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.logging.Logger;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Returns an initialized AWS Device Farm Client
+ * Returns an initialized AWS Device Farm Client.
+ * Clients are created on first use and shared by every build of the Gradle daemon using the same credentials.
  */
 public class DeviceFarmClientFactory {
 
-    final String pluginVersion;
+    private static final ConcurrentMap<String, AWSDeviceFarmClient> CLIENTS =
+            new ConcurrentHashMap<String, AWSDeviceFarmClient>();
+
+    /**
+     * One rate limiter per account, shared by every build of the daemon
+     */
+    private static final ConcurrentMap<String, TokenBucket> RATE_LIMITERS =
+            new ConcurrentHashMap<String, TokenBucket>();
+
+    private final Logger logger;
 
     public DeviceFarmClientFactory(final Logger logger) {
-        this.pluginVersion = readPluginVersion();
-        logger.lifecycle("AWS Device Farm Plugin version " + pluginVersion);
+        this.logger = logger;
     }
 
-    public AWSDeviceFarmClient initializeApiClient(final DeviceFarmExtension extension) {
+    /**
+     * A client that is only created, and its credentials only resolved, when one of its methods is called.
+     * Applying the plugin therefore costs nothing to builds that do not use Device Farm.
+     * Calls are rate limited and retried, see {@link RetryingDeviceFarm}.
+     *
+     * @param extension the plugin configuration, read on first use
+     * @param metrics   receives the metrics of every call
+     * @return the client
+     */
+    public AWSDeviceFarm lazyApiClient(final DeviceFarmExtension extension, final ApiCallMetrics metrics) {
+
+        return (AWSDeviceFarm) Proxy.newProxyInstance(AWSDeviceFarm.class.getClassLoader(),
+                new Class<?>[]{AWSDeviceFarm.class}, new InvocationHandler() {
+
+                    private volatile AWSDeviceFarm client;
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+
+                        if (client == null) {
+                            synchronized (this) {
+                                if (client == null) {
+                                    client = RetryingDeviceFarm.wrap(initializeApiClient(extension),
+                                            RetryPolicy.from(extension.getApi()), rateLimiterFor(extension),
+                                            metrics, logger);
+                                }
+                            }
+                        }
+
+                        try {
+                            return method.invoke(client, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
 
-        final String roleArn = extension.getAuthentication().getRoleArn();
+    /**
+     * @param extension the plugin configuration
+     * @return the client of the configured credentials, endpoint and user agent, created on first call
+     */
+    public AWSDeviceFarmClient initializeApiClient(final DeviceFarmExtension extension) {
 
-        AWSCredentials credentials = extension.getAuthentication();
+        final String endpoint = extension.isLocalMode() ? startLocalDeviceFarm(extension)
+                : extension.getEndpointOverride();
+
+        final String key = StringUtils.join(Arrays.asList(MetadataCache.scopeOf(extension), endpoint,
+                DigestUtils.sha256Hex(StringUtils.defaultString(extension.getAuthentication().getSecretKey())),
+                extension.getUserAgent()), "|");
+
+        AWSDeviceFarmClient apiClient = CLIENTS.get(key);
+        if (apiClient == null) {
+            apiClient = newApiClient(extension, endpoint);
+            final AWSDeviceFarmClient existing = CLIENTS.putIfAbsent(key, apiClient);
+            if (existing != null) {
+                apiClient.shutdown();
+                apiClient = existing;
+            }
+        }
+        return apiClient;
+    }
 
-        if (roleArn != null) {
-            final STSAssumeRoleSessionCredentialsProvider sts = new STSAssumeRoleSessionCredentialsProvider
-                    .Builder(roleArn, RandomStringUtils.randomAlphanumeric(8))
-                    .build();
-            credentials = sts.getCredentials();
+    private static TokenBucket rateLimiterFor(final DeviceFarmExtension extension) {
+        final String scope = MetadataCache.scopeOf(extension);
+        TokenBucket rateLimiter = RATE_LIMITERS.get(scope);
+        if (rateLimiter == null) {
+            final ApiConfiguration api = extension.getApi();
+            RATE_LIMITERS.putIfAbsent(scope, new TokenBucket(api.getRequestsPerSecond(), api.getBurst()));
+            rateLimiter = RATE_LIMITERS.get(scope);
         }
+        return rateLimiter;
+    }
+
+    private AWSDeviceFarmClient newApiClient(final DeviceFarmExtension extension, final String endpoint) {
+
+        final String pluginVersion = PluginVersion.VALUE;
+        logger.lifecycle("AWS Device Farm Plugin version " + pluginVersion);
 
         final ClientConfiguration clientConfiguration = new ClientConfiguration()
-                .withUserAgent(String.format(extension.getUserAgent(), pluginVersion));
+                .withUserAgent(String.format(extension.getUserAgent(), pluginVersion))
+                // Retries are made by RetryingDeviceFarm, which also backs off the other callers when throttled
+                .withMaxErrorRetry(0);
+
+        final AWSCredentialsProvider credentials = extension.isLocalMode()
+                ? new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local"))
+                : credentialsProvider(extension);
 
         AWSDeviceFarmClient apiClient = new AWSDeviceFarmClient(credentials, clientConfiguration);
         apiClient.setServiceNameIntern("devicefarm");
-        if (extension.getEndpointOverride() != null) {
-            apiClient.setEndpoint(extension.getEndpointOverride());
+        if (endpoint != null) {
+            apiClient.setEndpoint(endpoint);
         }
 
         return apiClient;
 
     }
 
-    private static String readPluginVersion() {
-        try {
+    /**
+     * Start, once per daemon and settings, the local stand-in with the project and device pools of the build.
+     *
+     * @return its endpoint
+     */
+    private String startLocalDeviceFarm(final DeviceFarmExtension extension) {
+
+        final LocalConfiguration local = extension.getLocal();
+        final LocalDeviceFarm.Settings settings = new LocalDeviceFarm.Settings(
+                local.getLatencyMillis(), local.getFailureRate(), local.getThrottleRate(), local.getUploadFailureRate(),
+                local.getProcessingMillis(), TimeUnit.SECONDS.toMillis(local.getRunSeconds()),
+                local.getDevices(), local.getTests());
+        final LocalDeviceFarm localDeviceFarm = LocalDeviceFarm.shared(extension.getProjectDir().getAbsolutePath(),
+                settings);
+        localDeviceFarm.seed(extension.getProjectName(), extension.getDevicePoolNames());
+
+        logger.lifecycle(String.format("Using the local Device Farm at %s", localDeviceFarm.getEndpoint()));
+        return localDeviceFarm.getEndpoint();
+    }
+
+    /**
+     * Assumed role credentials are refreshed by the provider before they expire, so a client shared
+     * by several builds never uses stale credentials.
+     */
+    private static AWSCredentialsProvider credentialsProvider(final DeviceFarmExtension extension) {
 
-            final Properties props = new Properties();
-            props.load(DeviceFarmServer.class.getResourceAsStream("/META-INF/gradle-plugins/version.properties"));
-            return props.getProperty("version");
+        final String roleArn = extension.getAuthentication().getRoleArn();
 
-        } catch (IOException e) {
-            throw new DeviceFarmException("Unable to read version", e);
+        if (roleArn != null) {
+            return new STSAssumeRoleSessionCredentialsProvider
+                    .Builder(roleArn, RandomStringUtils.randomAlphanumeric(8))
+                    .build();
         }
+
+        return new AWSStaticCredentialsProvider(extension.getAuthentication());
     }
 
+    /**
+     * Read once, on first use.
+     */
+    private static final class PluginVersion {
+
+        static final String VALUE = readPluginVersion();
+
+        private static String readPluginVersion() {
+            try {
 
+                final Properties props = new Properties();
+                props.load(DeviceFarmServer.class.getResourceAsStream("/META-INF/gradle-plugins/version.properties"));
+                return props.getProperty("version");
+
+            } catch (IOException e) {
+                throw new DeviceFarmException("Unable to read version", e);
+            }
+        }
+    }
 }
@@ -0,0 +1,90 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools used by the plugin.
+ * Threads are named and daemon so they never keep a Gradle daemon busy or alive.
+ */
+public final class DeviceFarmExecutors {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private DeviceFarmExecutors() {
+    }
+
+    /**
+     * Create an executor running at most parallelism tasks at once.
+     * Once queueCapacity tasks are waiting, the submitting thread waits for room in the queue,
+     * which slows submission down to the pace of the pool without running tasks on the submitting thread.
+     *
+     * @param name          prefix of the thread names
+     * @param parallelism   maximum number of threads
+     * @param queueCapacity maximum number of tasks waiting for a thread
+     * @return the executor, shut it down when done
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(final String name, final int parallelism,
+                                                        final int queueCapacity) {
+
+        final int threads = Math.max(1, parallelism);
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+                new WaitForQueueUnlessShutdown());
+
+        // Idle pools do not hold threads between builds
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * Waits for room in the queue of a saturated executor. Fails instead of silently dropping tasks
+     * submitted after shutdown, which would leave their futures pending forever.
+     */
+    private static class WaitForQueueUnlessShutdown implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the queue", e);
+            }
+            // Shut down while waiting, the task would never run
+            if (executor.isShutdown() && executor.remove(task)) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            // Every thread timed out while waiting, start one for the queued task
+            if (executor.getPoolSize() == 0) {
+                executor.prestartCoreThread();
+            }
+        }
+    }
+}
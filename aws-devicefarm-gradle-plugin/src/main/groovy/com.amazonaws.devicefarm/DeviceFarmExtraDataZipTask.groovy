@@ -0,0 +1,67 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileVisitDetails
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Builds the extra data zip from a directory or file collection.
+ * The zip only depends on the relative paths and content of the files, so unchanged content
+ * yields a byte identical zip that is both up to date and found in the upload cache.
+ */
+class DeviceFarmExtraDataZipTask extends DefaultTask {
+
+    /**
+     * Files to zip, directories contribute their content under relative paths
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    FileCollection source
+
+    /**
+     * Zip to write, anything {@code project.file} accepts, closures are only called when the zip location is read
+     */
+    private Object zipFile
+
+    @OutputFile
+    File getZipFile() {
+        project.file(zipFile)
+    }
+
+    void setZipFile(Object zipFile) {
+        this.zipFile = zipFile
+    }
+
+    @TaskAction
+    void zip() {
+
+        SortedMap<String, File> entries = new TreeMap<>()
+        source.asFileTree.visit { FileVisitDetails details ->
+            if (!details.directory) {
+                entries[details.relativePath.pathString] = details.file
+            }
+        }
+
+        ReproducibleZip.write(zipFile, entries)
+        logger.info("Zipped ${entries.size()} extra data file(s) to ${zipFile}")
+    }
+}
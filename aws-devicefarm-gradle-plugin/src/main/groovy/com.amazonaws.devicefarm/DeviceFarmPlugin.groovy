@@ -15,6 +15,7 @@
 package com.amazonaws.devicefarm
 
 import com.amazonaws.devicefarm.extension.DeviceFarmExtension
+import com.amazonaws.services.devicefarm.AWSDeviceFarm
 import org.gradle.api.GradleException
 import org.gradle.api.Plugin
 import org.gradle.api.Project
@@ -23,6 +24,21 @@ class DeviceFarmPlugin implements Plugin<Project> {
 
     public static final String PLUGIN_NAME = 'devicefarm'
 
+    public static final String REPORT_TASK_NAME = 'devicefarmReport'
+
+    public static final String EXTRA_DATA_ZIP_TASK_NAME = 'devicefarmExtraDataZip'
+
+    /**
+     * Prefix of the tasks the Android plugin creates for the test server
+     */
+    static final String UPLOAD_TASK_PREFIX = 'devicefarmUpload'
+
+    static final String UPLOAD_ARTIFACTS_TASK_PREFIX = 'devicefarmUploadArtifacts'
+
+    static final String SCHEDULE_TASK_PREFIX = 'devicefarmSchedule'
+
+    static final String API_METRICS_FILE_NAME = 'api-calls.json'
+
     @Override
     void apply(Project project) {
 
@@ -33,8 +49,85 @@ class DeviceFarmPlugin implements Plugin<Project> {
 
         DeviceFarmExtension extension = project.extensions.create(PLUGIN_NAME, DeviceFarmExtension, project)
 
-        project.android.testServer(
-                new DeviceFarmServer(extension, project.android.logger,
-                        new DeviceFarmClientFactory(project.android.logger).initializeApiClient(extension)))
+        ApiCallMetrics apiMetrics = new ApiCallMetrics()
+        AWSDeviceFarm api = new DeviceFarmClientFactory(project.android.logger).lazyApiClient(extension, apiMetrics)
+
+        DeviceFarmServer server = new DeviceFarmServer(extension, project.android.logger, api)
+
+        project.android.testServer(server)
+
+        DeviceFarmExtraDataZipTask extraDataZip = project.tasks.create(EXTRA_DATA_ZIP_TASK_NAME, DeviceFarmExtraDataZipTask) {
+            description = 'Zips deviceState.extraData for AWS Device Farm.'
+            source = project.files({ extension.deviceState.extraData ?: [] })
+            // Read lazily, so a build directory set later in the build script is used
+            zipFile = { extension.builtExtraDataZipFile }
+            onlyIf { extension.deviceState.extraData != null && extension.deviceState.extraDataZipFile == null }
+        }
+
+        project.tasks.matching { it.name.startsWith(UPLOAD_TASK_PREFIX) }.all { it.dependsOn extraDataZip }
+
+        project.android.testVariants.all { testVariant ->
+            createVariantTasks(project, extension, server, testVariant)
+        }
+
+        project.tasks.create(REPORT_TASK_NAME, DeviceFarmReportTask) {
+            group = 'verification'
+            description = 'Waits for the scheduled AWS Device Farm runs, writes their JUnit reports and downloads their artifacts.'
+            it.extension = extension
+            it.api = api
+            it.server = server
+            mustRunAfter project.tasks.matching {
+                it.name.startsWith(UPLOAD_TASK_PREFIX) || it.name.startsWith(SCHEDULE_TASK_PREFIX)
+            }
+        }
+
+        project.gradle.buildFinished {
+            server.close()
+            if (!apiMetrics.empty) {
+                apiMetrics.log(project.android.logger)
+                apiMetrics.writeTo(new File(extension.reportsDir, API_METRICS_FILE_NAME))
+            }
+        }
+    }
+
+    /**
+     * Upload and schedule tasks of a variant, with declared inputs and outputs so unchanged
+     * artifacts are not uploaded again.
+     */
+    private static void createVariantTasks(Project project, DeviceFarmExtension extension,
+                                           DeviceFarmServer server, def testVariant) {
+
+        def testedVariant = testVariant.testedVariant
+        File testPackage = testVariant.outputs.first().outputFile
+        File testedOutput = testedVariant.outputs.first().outputFile
+        // Library variants are tested through their test package alone
+        File testedApk = testedOutput.name.endsWith('.apk') ? testedOutput : null
+
+        String suffix = testedVariant.name.capitalize()
+
+        DeviceFarmUploadTask upload = project.tasks.create("${UPLOAD_ARTIFACTS_TASK_PREFIX}${suffix}", DeviceFarmUploadTask) {
+            group = 'verification'
+            description = "Uploads the ${testedVariant.name} artifacts to AWS Device Farm."
+            it.extension = extension
+            it.server = server
+            it.testPackage = testPackage
+            it.testedApk = testedApk
+            it.arnsFile = new File(project.buildDir, "${PLUGIN_NAME}/uploads/${testedVariant.name}.properties")
+            dependsOn testVariant.assemble
+            if (testedApk != null) {
+                dependsOn testedVariant.assemble
+            }
+        }
+
+        project.tasks.create("${SCHEDULE_TASK_PREFIX}${suffix}", DeviceFarmScheduleTask) {
+            group = 'verification'
+            description = "Schedules AWS Device Farm runs of the ${testedVariant.name} uploads."
+            it.server = server
+            it.variantName = testedVariant.name
+            it.testPackage = testPackage
+            it.testedApk = testedApk
+            it.arnsFile = upload.arnsFile
+            dependsOn upload
+        }
     }
-}
\ No newline at end of file
+}
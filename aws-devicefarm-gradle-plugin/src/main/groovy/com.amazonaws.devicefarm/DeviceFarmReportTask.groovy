@@ -0,0 +1,62 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm
+
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension
+import com.amazonaws.devicefarm.extension.ResultsConfiguration
+import com.amazonaws.services.devicefarm.AWSDeviceFarm
+import com.amazonaws.services.devicefarm.model.Run
+import org.gradle.api.DefaultTask
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Waits for the runs scheduled by the build, then writes their JUnit XML reports and downloads their artifacts.
+ */
+class DeviceFarmReportTask extends DefaultTask {
+
+    DeviceFarmExtension extension
+
+    AWSDeviceFarm api
+
+    DeviceFarmServer server
+
+    @TaskAction
+    void report() {
+
+        List<String> arns = ScheduledRuns.read(extension.scheduledRunsDir, server.scheduledVariants)
+        if (arns.isEmpty()) {
+            logger.lifecycle("No AWS Device Farm runs were scheduled by this build, nothing to report")
+            return
+        }
+
+        ResultsConfiguration results = extension.results
+
+        new RunWatcher(api, logger, PollStrategy.from(results.polling))
+                .watch(arns.collect { new Run().withArn(it) })
+
+        RunReporter reporter = new RunReporter(api, logger,
+                DeviceFarmUploader.newHttpClient(results.downloadConcurrency,
+                        extension.uploads.connectTimeoutMillis, extension.uploads.socketTimeoutMillis),
+                results.downloadConcurrency,
+                extension.history.enabled
+                        ? DurationHistory.load(extension.durationHistoryFile, extension.history.maxSamples) : null)
+        try {
+            reporter.report(arns, extension.testResultsDir, new File(extension.reportsDir, 'artifacts'),
+                    results.downloadArtifacts)
+        } finally {
+            reporter.close()
+        }
+    }
+}
@@ -0,0 +1,53 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Schedules runs of the uploads saved by a {@link DeviceFarmUploadTask}.
+ * Scheduling is a side effect, so this task has no outputs and always runs.
+ */
+class DeviceFarmScheduleTask extends DefaultTask {
+
+    @Internal
+    DeviceFarmServer server
+
+    @Internal
+    String variantName
+
+    @InputFile
+    File arnsFile
+
+    /**
+     * Read when sharding instrumentation tests, uploaded again with the tested apk if the saved uploads are gone
+     */
+    @Internal
+    File testPackage
+
+    /**
+     * The application apk, or null to test the test package itself
+     */
+    @Internal
+    File testedApk
+
+    @TaskAction
+    void schedule() {
+        server.scheduleUploaded(variantName, ResolvedUploads.readFrom(arnsFile), testPackage, testedApk)
+    }
+}
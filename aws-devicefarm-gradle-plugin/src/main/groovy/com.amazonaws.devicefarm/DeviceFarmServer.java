@@ -14,28 +14,52 @@
 //
 package com.amazonaws.devicefarm;
 
+import com.amazonaws.devicefarm.extension.ConfiguredTest;
 import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import com.amazonaws.devicefarm.extension.DeviceSelectionRules;
+import com.amazonaws.devicefarm.extension.HistoryConfiguration;
+import com.amazonaws.devicefarm.extension.SchedulingConfiguration;
 import com.amazonaws.devicefarm.extension.TestPackageProvider;
+import com.amazonaws.devicefarm.extension.UploadConfiguration;
 import com.amazonaws.services.devicefarm.AWSDeviceFarm;
-import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
 import com.amazonaws.services.devicefarm.model.BillingMethod;
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.Device;
+import com.amazonaws.services.devicefarm.model.DeviceFilter;
+import com.amazonaws.services.devicefarm.model.DeviceFilterAttribute;
 import com.amazonaws.services.devicefarm.model.DevicePool;
+import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
 import com.amazonaws.services.devicefarm.model.ExecutionConfiguration;
+import com.amazonaws.services.devicefarm.model.GetUploadRequest;
+import com.amazonaws.services.devicefarm.model.NotFoundException;
 import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.RuleOperator;
+import com.amazonaws.services.devicefarm.model.Run;
 import com.amazonaws.services.devicefarm.model.ScheduleRunConfiguration;
 import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
 import com.amazonaws.services.devicefarm.model.ScheduleRunResult;
 import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
 import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadStatus;
 import com.amazonaws.services.devicefarm.model.UploadType;
 import com.android.builder.testing.api.TestServer;
 import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.gradle.api.logging.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sends a test run request to AWS Device Farm.
@@ -44,21 +68,41 @@ import java.util.List;
 public class DeviceFarmServer extends TestServer {
 
     private static final String RUNPARAM_APP_PERF_MONITORING = "app_performance_monitoring";
+    private static final String UPLOAD_REPORT_FILE_NAME = "uploads.json";
+    private static final String TRACE_FILE_NAME = "trace.json";
+    private static final String METRICS_FILE_NAME = "metrics.prom";
+    private static final String UPLOAD_JOURNAL_DIR_NAME = "upload-journal";
+    private static final String SCHEDULE_THREAD_NAME = "devicefarm-schedule";
+    private static final int MAX_CONCURRENT_SCHEDULES = 8;
+    private static final int MAX_FILTER_LENGTH = 8192;
+    private static final int MIN_JOB_TIMEOUT_MINUTES = 5;
 
     private final DeviceFarmExtension extension;
     private final Logger logger;
     private final AWSDeviceFarm api;
-    private final DeviceFarmUploader uploader;
-    private final DeviceFarmUtils utils;
+    private DeviceFarmUploader uploader;
+    private DeviceFarmUtils utils;
+    private final Tracer tracer = new Tracer();
+    /**
+     * Runs of the same supersede key created later belong to a newer build
+     */
+    private final long startedMillis = System.currentTimeMillis();
+    private DeviceCatalog deviceCatalog;
+    private final Set<String> scheduledVariants = Collections.synchronizedSet(new TreeSet<String>());
 
     public DeviceFarmServer(final DeviceFarmExtension extension,
-                            final Logger logger, final AWSDeviceFarmClient deviceFarmClient) throws IOException {
+                            final Logger logger, final AWSDeviceFarm deviceFarmClient) throws IOException {
 
-        this(extension, logger, deviceFarmClient,
-                new DeviceFarmUploader(deviceFarmClient, logger),
-                new DeviceFarmUtils(deviceFarmClient, extension));
+        this(extension, logger, deviceFarmClient, null, null);
     }
 
+    /**
+     * @param extension        plugin configuration
+     * @param logger           logger
+     * @param deviceFarmClient Device Farm client
+     * @param uploader         the uploader, or null to build it from the extension on first upload
+     * @param utils            lookups, or null to build them from the extension on first use
+     */
     public DeviceFarmServer(final DeviceFarmExtension extension,
                             final Logger logger, final AWSDeviceFarm deviceFarmClient,
                             final DeviceFarmUploader uploader,
@@ -71,6 +115,110 @@ public class DeviceFarmServer extends TestServer {
         this.utils = utils;
     }
 
+    /**
+     * The server is created when the plugin is applied, before the build script configures the extension,
+     * so the uploader is only built from the extension when the first upload starts.
+     *
+     * @return the uploader
+     */
+    synchronized DeviceFarmUploader getUploader() {
+        if (uploader == null) {
+            uploader = newUploader(extension, logger, api);
+        }
+        return uploader;
+    }
+
+    private synchronized DeviceFarmUtils getUtils() {
+        if (utils == null) {
+            utils = new DeviceFarmUtils(api, extension);
+        }
+        return utils;
+    }
+
+    private static DeviceFarmUploader newUploader(final DeviceFarmExtension extension, final Logger logger,
+                                                  final AWSDeviceFarm deviceFarmClient) {
+
+        final UploadConfiguration uploads = extension.getUploads();
+
+        final CloseableHttpClient httpClient = DeviceFarmUploader.newHttpClient(uploads.getMaxConnections(),
+                uploads.getConnectTimeoutMillis(), uploads.getSocketTimeoutMillis());
+
+        // Only the local stand-in takes ranges, the presigned S3 urls of the service are not even probed
+        final boolean ranges = uploads.getRanges() || extension.isLocalMode();
+
+        // Resuming relies on the content digest computed for the upload cache
+        final ArtifactTransfer transfer = new ArtifactTransfer(new HttpUploadTransport(httpClient),
+                ranges && uploads.getCache() && uploads.getResume()
+                        ? new UploadJournal(new File(extension.getUploadCacheDir(), UPLOAD_JOURNAL_DIR_NAME)) : null,
+                ranges ? uploads.getRangeThresholdMegabytes() * ArtifactTransfer.MEGABYTE : ArtifactTransfer.NO_RANGES,
+                uploads.getRangeSizeMegabytes() * ArtifactTransfer.MEGABYTE,
+                uploads.getRangeConcurrency(), uploads.getMaxAttempts(), ArtifactTransfer.defaultRetryStrategy(), logger);
+
+        return new DeviceFarmUploader(deviceFarmClient, logger,
+                uploads.getCache() ? new UploadCache(extension.getUploadCacheDir()) : null,
+                PollStrategy.from(uploads.getPolling()), httpClient, transfer);
+    }
+
+    private void writeUploadReport() {
+
+        final UploadReport report = getUploader().getReport();
+        if (report == null) {
+            return;
+        }
+
+        final File reportFile = new File(extension.getReportsDir(), UPLOAD_REPORT_FILE_NAME);
+        try {
+            report.writeTo(reportFile);
+            logger.info(String.format("Upload report written to %s", reportFile));
+        } catch (DeviceFarmException e) {
+            // The report must never hide the outcome of the uploads
+            logger.warn(e.getMessage());
+        }
+    }
+
+    private void writeTrace() {
+
+        if (!extension.getTracing().getEnabled() || tracer.getSpans().isEmpty()) {
+            return;
+        }
+
+        try {
+            tracer.writeTrace(new File(extension.getReportsDir(), TRACE_FILE_NAME));
+            tracer.writePrometheus(new File(extension.getReportsDir(), METRICS_FILE_NAME));
+            logger.info(String.format("Trace and metrics written to %s", extension.getReportsDir()));
+        } catch (DeviceFarmException e) {
+            // Tracing must never fail the build
+            logger.warn(e.getMessage());
+        }
+
+        if (extension.getTracing().getSummary()) {
+            tracer.logSummary(logger);
+        }
+    }
+
+    /**
+     * Write the trace and release the resources held by the uploader, called when the build finishes.
+     */
+    public void close() {
+        try {
+            writeTrace();
+        } finally {
+            synchronized (this) {
+                // Nothing to release if nothing was uploaded
+                if (uploader != null) {
+                    uploader.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the spans of the phases run so far
+     */
+    public Tracer getTracer() {
+        return tracer;
+    }
+
 
     /**
      * Name of the gradle plugin.
@@ -91,139 +239,770 @@ public class DeviceFarmServer extends TestServer {
      */
     @Override
     public void uploadApks(final String variantName, final File testPackage, final File testedApk) {
-        final Project project = utils.findProjectByName(extension.getProjectName());
+        try (Tracer.Span ignored = tracer.span("uploadApks").set("variant", variantName)) {
+            final Project project = findProject();
+            final Targets targets = resolveTargets(project);
+            schedule(variantName, uploadArtifacts(project, testPackage, testedApk), testPackage, targets);
+        }
+    }
+
+    /**
+     * Upload the app, test package, auxiliary apps and extra data, and resolve the test spec.
+     * The device pools are resolved first, so a misconfigured pool fails before anything is uploaded.
+     *
+     * @param testPackage the APK which contains tests
+     * @param testedApk   the application APK, or null to test the test package itself
+     * @return arns of the uploads
+     */
+    public ResolvedUploads uploadArtifacts(final File testPackage, final File testedApk) {
+        final Project project;
+        try (Tracer.Span ignored = tracer.span("resolveTargets")) {
+            project = findProject();
+            resolveTargets(project);
+        }
+        return uploadArtifacts(project, testPackage, testedApk);
+    }
+
+    private ResolvedUploads uploadArtifacts(final Project project, final File testPackage, final File testedApk) {
+        try (Tracer.Span span = tracer.span("uploadArtifacts")) {
+            try {
+                return uploadArtifactsTraced(project, testPackage, testedApk);
+            } catch (RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    private Project findProject() {
+        final Project project;
+        try (Tracer.Span ignored = Tracer.child("findProject")) {
+            project = getUtils().findProjectByName(extension.getProjectName());
+        }
         logger.lifecycle(String.format("Using Project \"%s\", \"%s\"", project.getName(), project.getArn()));
+        return project;
+    }
 
-        final DevicePool devicePool = utils.findDevicePoolByName(project, extension.getDevicePool());
-        logger.lifecycle(String.format("Using Device Pool \"%s\", \"%s\"", devicePool.getName(), devicePool.getArn()));
+    private ResolvedUploads uploadArtifactsTraced(final Project project, final File testPackage,
+                                                  final File testedApk) {
+        final File app = testedApk == null ? testPackage : testedApk;
+
+        // Submit every artifact at once, then wait for all of them together
+        final UploadStage uploads = new UploadStage(getUploader(), project,
+                extension.getUploads().getConcurrency(), extension.getUploads().getQueueCapacity());
+        final Future<Upload> appUpload;
+        final List<Future<Upload>> auxAppUploads;
+        final Future<Upload> extraDataUpload;
+        final Future<Upload> testPackageUpload;
+        final Upload testSpec;
+        try {
+            appUpload = uploads.submit(app, UploadType.ANDROID_APP);
+            auxAppUploads = submitAuxApps(uploads);
+            extraDataUpload = submitExtraDataZip(uploads);
+            testPackageUpload = submitTestPackageIfNeeded(uploads, testPackage);
+
+            // For few frameworks , you can specify a testSpec
+            try (Tracer.Span ignored = Tracer.child("findTestSpec")) {
+                testSpec = findTestSpec(project);
+            }
+            if (testSpec != null) {
+                logger.lifecycle(String.format("Using  TestSpec \"%s\", \"%s\"", testSpec.getName(), testSpec.getArn()));
+            }
+
+            try (Tracer.Span ignored = Tracer.child("awaitUploads")) {
+                uploads.await();
+            } finally {
+                writeUploadReport();
+            }
+        } finally {
+            // Nothing keeps uploading once a submit, the testSpec lookup or an upload failed
+            uploads.cancel();
+        }
+
+        final String appArn = uploads.get(appUpload).getArn();
+        logger.lifecycle(String.format("Will test app in  \"%s\", \"%s\"", app.getName(), appArn));
 
-        final String appArn = uploader.upload(testedApk == null ? testPackage : testedApk, project, UploadType.ANDROID_APP).getArn();
-        logger.lifecycle(String.format("Will test app in  \"%s\", \"%s\"", testedApk == null ? testPackage.getName() : testedApk.getName(), appArn));
+        final List<String> auxAppArns = getAuxAppArns(uploads, auxAppUploads);
 
-        final Collection<Upload> auxApps = uploadAuxApps(project);
+        final String extraDataArn = getExtraDataArn(uploads, extraDataUpload);
 
-        final String extraDataArn = uploadExtraDataZip(project);
+        final String testPackageArn = getTestPackageArn(uploads, testPackageUpload);
+
+        return new ResolvedUploads(project, app.getName(), appArn, testPackageArn,
+                testSpec == null ? null : testSpec.getArn(), extraDataArn, auxAppArns);
+    }
 
-        // For few frameworks , you can specify a testSpec
-        final Upload testSpec = utils.findTestSpecByName(extension.getTest().getTestSpecName(), project);
-        if (testSpec != null) {
-            logger.lifecycle(String.format("Using  TestSpec \"%s\", \"%s\"", testSpec.getName(), testSpec.getArn()));
+    /**
+     * Schedule runs of uploads made by an earlier task or build, uploading again if they are no longer usable.
+     *
+     * @param variantName variant of the build
+     * @param uploads     arns of the uploads
+     * @param testPackage the APK which contains tests, read when sharding
+     * @param testedApk   the application APK, or null to test the test package itself
+     * @return the scheduled runs
+     */
+    public List<Run> scheduleUploaded(final String variantName, final ResolvedUploads uploads, final File testPackage,
+                                      final File testedApk) {
+        try (Tracer.Span span = tracer.span("scheduleUploaded").set("variant", variantName)) {
+            // A misconfigured pool fails before any upload is verified or made again
+            final Targets targets = resolveTargets(uploads.getProject());
+            if (verifyUploads(uploads)) {
+                return schedule(variantName, uploads, testPackage, targets);
+            }
+            span.set("uploadedAgain", 1);
+            return schedule(variantName, uploadArtifacts(uploads.getProject(), testPackage, testedApk), testPackage,
+                    targets);
         }
+    }
 
-        final ScheduleRunTest runTest = new ScheduleRunTest()
-                .withParameters(extension.getTest().getTestParameters())
-                .withType(extension.getTest().getTestType())
-                .withFilter(extension.getTest().getFilter())
-                .withTestPackageArn(uploadTestPackageIfNeeded(project, testPackage))
-                .withTestSpecArn(testSpec == null ? null: testSpec.getArn());
+    /**
+     * @param uploads arns of the uploads
+     * @return true if every upload and the test spec still exist and succeeded
+     */
+    private boolean verifyUploads(final ResolvedUploads uploads) {
 
+        final List<String> arns = Lists.newArrayList(uploads.getUploadArns());
+        if (uploads.getTestSpecArn() != null) {
+            arns.add(uploads.getTestSpecArn());
+        }
 
-        runTest.addParametersEntry(RUNPARAM_APP_PERF_MONITORING, Boolean.toString(extension.getPerformanceMonitoring()));
+        for (String arn : arns) {
+            final Upload upload;
+            try {
+                upload = api.getUpload(new GetUploadRequest().withArn(arn)).getUpload();
+            } catch (NotFoundException e) {
+                logger.lifecycle(String.format("Upload %s no longer exists, uploading again", arn));
+                return false;
+            }
+            if (!UploadStatus.SUCCEEDED.toString().equals(upload.getStatus())) {
+                logger.lifecycle(String.format("Upload %s is %s, uploading again", upload.getName(), upload.getStatus()));
+                return false;
+            }
+        }
+        return true;
+    }
 
-        final ExecutionConfiguration executionConfiguration = new ExecutionConfiguration()
-                .withJobTimeoutMinutes(extension.getExecutionTimeoutMinutes())
-                .withVideoCapture(extension.getVideoRecording());
+    /**
+     * Schedule one run per device pool and shard.
+     *
+     * @param variantName variant of the build
+     * @param uploads     arns of the uploads
+     * @param testPackage the APK which contains tests, read when sharding
+     * @return the scheduled runs
+     */
+    public List<Run> schedule(final String variantName, final ResolvedUploads uploads, final File testPackage) {
+        return schedule(variantName, uploads, testPackage, resolveTargets(uploads.getProject()));
+    }
+
+    private List<Run> schedule(final String variantName, final ResolvedUploads uploads, final File testPackage,
+                               final Targets targets) {
+        try (Tracer.Span span = tracer.span("schedule")) {
+            try {
+                return scheduleTraced(variantName, uploads, testPackage, targets, span);
+            } catch (RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    private List<Run> scheduleTraced(final String variantName, final ResolvedUploads uploads, final File testPackage,
+                                     final Targets targets, final Tracer.Span span) {
+        final Project project = uploads.getProject();
+        final DeviceSelectionConfiguration deviceSelection = targets.deviceSelection;
+        final List<DevicePool> devicePools = targets.devicePools;
+
+        final DurationHistory history = loadHistory();
+
+        final List<String> filters;
+        try (Tracer.Span planSpan = Tracer.child("planShards")) {
+            filters = planShards(testPackage, history);
+            planSpan.set("shards", filters.size());
+        }
 
         final ScheduleRunConfiguration configuration = new ScheduleRunConfiguration()
-                .withAuxiliaryApps(getAuxAppArns(auxApps))
-                .withExtraDataPackageArn(extraDataArn)
+                .withAuxiliaryApps(uploads.getAuxAppArns())
+                .withExtraDataPackageArn(uploads.getExtraDataArn())
                 .withLocale(extension.getDeviceState().getLocale().toString())
                 .withLocation(extension.getDeviceState().getLocation())
                 .withBillingMethod(extension.isMetered() ? BillingMethod.METERED : BillingMethod.UNMETERED)
                 .withRadios(extension.getDeviceState().getRadios());
 
-        final ScheduleRunRequest request = new ScheduleRunRequest()
-                .withAppArn(appArn)
-                .withConfiguration(configuration)
-                .withDevicePoolArn(devicePool.getArn())
-                .withProjectArn(project.getArn())
-                .withTest(runTest)
-                .withExecutionConfiguration(executionConfiguration)
-                .withName(String.format("%s (Gradle)", testedApk == null ? testPackage.getName() : testedApk.getName()));
+        // One run per device pool and shard, all sharing the same uploads
+        final List<ScheduleRunRequest> requests = Lists.newArrayList();
+        for (DevicePool devicePool : devicePools) {
+            for (int shard = 0; shard < filters.size(); shard++) {
+                String name = devicePools.size() == 1
+                        ? String.format("%s (Gradle)", uploads.getAppName())
+                        : String.format("%s (Gradle) - %s", uploads.getAppName(), devicePool.getName());
+                if (filters.size() > 1) {
+                    name = String.format("%s [shard %d/%d]", name, shard + 1, filters.size());
+                }
+
+                final ExecutionConfiguration executionConfiguration = new ExecutionConfiguration()
+                        .withJobTimeoutMinutes(jobTimeoutMinutes(history, name))
+                        .withVideoCapture(extension.getVideoRecording());
+
+                name = SupersededRuns.nameWithKey(name, extension.getSupersede().getKey());
+
+                requests.add(new ScheduleRunRequest()
+                        .withAppArn(uploads.getAppArn())
+                        .withConfiguration(configuration)
+                        .withDevicePoolArn(devicePool.getArn())
+                        .withDeviceSelectionConfiguration(deviceSelection)
+                        .withProjectArn(project.getArn())
+                        .withTest(newRunTest(uploads.getTestPackageArn(), uploads.getTestSpecArn(), filters.get(shard)))
+                        .withExecutionConfiguration(executionConfiguration)
+                        .withName(name));
+            }
+        }
+
+        final List<Run> runs = scheduleRuns(requests, extension.getTest().getTestType().toString());
+        span.set("runs", runs.size());
+        recordScheduledRuns(variantName, runs);
+        stopSupersededRuns(project, uploads.getAppName(), runs);
 
-        final ScheduleRunResult response = api.scheduleRun(request);
+        if (extension.getResults().getWaitForCompletion()) {
+            try (Tracer.Span ignored = Tracer.child("waitForResults")) {
+                waitForResults(runs);
+            }
+        }
 
-        logger.lifecycle(String.format("View the %s run in the AWS Device Farm Console: %s",
-                runTest.getType(), utils.getRunUrlFromArn(response.getRun().getArn())));
+        return runs;
+    }
+
+    /**
+     * Devices the runs are scheduled on, either selected devices or device pools.
+     */
+    private static final class Targets {
+        private final DeviceSelectionConfiguration deviceSelection;
+        private final List<DevicePool> devicePools;
+
+        private Targets(final DeviceSelectionConfiguration deviceSelection, final List<DevicePool> devicePools) {
+            this.deviceSelection = deviceSelection;
+            this.devicePools = devicePools;
+        }
     }
 
     /**
-     * If the tests requires it upload the test package and return the arn.
+     * Resolve the device selection rules or the device pools, failing if a pool does not exist.
      *
-     * @param project     the Device Farm project
-     * @param testPackage the test package
-     * @return test package arn, or null if test does not require a test package
+     * @param project the project the pools belong to
+     * @return the devices to schedule the runs on
      */
-    private String uploadTestPackageIfNeeded(final Project project, final File testPackage) {
+    private Targets resolveTargets(final Project project) {
 
-        String testArtifactsArn = null;
-        if (extension.getTest() instanceof TestPackageProvider) {
+        // Selected devices replace the device pools, in a single run
+        final DeviceSelectionConfiguration deviceSelection = selectDevices();
+        final List<DevicePool> devicePools = deviceSelection == null
+                ? findDevicePools(project) : Collections.singletonList(new DevicePool().withName("Selected devices"));
+        return new Targets(deviceSelection, devicePools);
+    }
 
-            final TestPackageProvider testPackageProvider = (TestPackageProvider) extension.getTest();
+    private List<DevicePool> findDevicePools(final Project project) {
+
+        final List<DevicePool> devicePools = Lists.newArrayList();
+        for (String devicePoolName : extension.getDevicePoolNames()) {
+            final DevicePool devicePool;
+            try (Tracer.Span ignored = Tracer.child("findDevicePool")) {
+                devicePool = getUtils().findDevicePoolByName(project, devicePoolName);
+            }
+            logger.lifecycle(String.format("Using Device Pool \"%s\", \"%s\"", devicePool.getName(), devicePool.getArn()));
+            devicePools.add(devicePool);
+        }
+        return devicePools;
+    }
+
+    /**
+     * Resolve the device selection rules against the device catalog.
+     *
+     * @return the selected devices, or null if the device pools are used
+     */
+    private DeviceSelectionConfiguration selectDevices() {
 
-            final File testArtifacts = testPackageProvider.resolveTestPackage(testPackage);
+        final DeviceSelectionRules rules = extension.getDeviceSelection();
+        if (rules == null) {
+            return null;
+        }
 
-            testArtifactsArn = uploader.upload(testArtifacts,
-                    project, testPackageProvider.getTestPackageUploadType()).getArn();
+        if (deviceCatalog == null) {
+            deviceCatalog = DeviceCatalog.forExtension(api, extension);
+        }
 
-            logger.lifecycle(String.format("Will run tests in %s, %s",
-                    testArtifacts.getName(), testArtifactsArn));
+        final List<Device> devices;
+        try (Tracer.Span span = Tracer.child("selectDevices")) {
+            devices = deviceCatalog.select(rules);
+            span.set("devices", devices.size());
+        }
 
+        final List<String> arns = Lists.newArrayList();
+        for (Device device : devices) {
+            logger.lifecycle(String.format("Using Device \"%s\" (%s %s, %s), \"%s\"", device.getName(),
+                    device.getPlatform(), device.getOs(), device.getAvailability(), device.getArn()));
+            arns.add(device.getArn());
+        }
+        if (devices.size() < rules.getMaxDevices()) {
+            logger.lifecycle(String.format("Only %d devices match %s", devices.size(), rules));
         }
 
-        return testArtifactsArn;
+        return new DeviceSelectionConfiguration()
+                .withFilters(new DeviceFilter()
+                        .withAttribute(DeviceFilterAttribute.ARN)
+                        .withOperator(RuleOperator.IN)
+                        .withValues(arns))
+                .withMaxDevices(arns.size());
     }
 
-    private Collection<Upload> uploadAuxApps(final Project project) {
+    private ScheduleRunTest newRunTest(final String testPackageArn, final String testSpecArn, final String filter) {
 
-        final Collection<Upload> auxApps = uploader.batchUpload(extension.getDeviceState().getAuxiliaryApps(),
-                project, UploadType.ANDROID_APP);
+        final ScheduleRunTest runTest = new ScheduleRunTest()
+                .withParameters(extension.getTest().getTestParameters())
+                .withType(extension.getTest().getTestType())
+                .withFilter(filter)
+                .withTestPackageArn(testPackageArn)
+                .withTestSpecArn(testSpecArn);
+
+        runTest.addParametersEntry(RUNPARAM_APP_PERF_MONITORING, Boolean.toString(extension.getPerformanceMonitoring()));
 
-        if (auxApps == null || auxApps.size() == 0) {
+        return runTest;
+    }
+
+    private DurationHistory loadHistory() {
+
+        final HistoryConfiguration configuration = extension.getHistory();
+        if (!configuration.getEnabled()) {
             return null;
         }
 
-        for (Upload auxApp : auxApps) {
-            logger.lifecycle(String.format("Will install additional app %s, %s",
-                    auxApp.getName(), auxApp.getArn()));
+        try {
+            return DurationHistory.load(extension.getDurationHistoryFile(), configuration.getMaxSamples());
+        } catch (DeviceFarmException e) {
+            // Scheduling never depends on the history
+            logger.warn(e.getMessage());
+            return null;
         }
+    }
 
-        return auxApps;
+    /**
+     * The configured job timeout, or the p99 recorded job duration with a margin when enough jobs were recorded
+     * and the automatic timeout is enabled. The configured timeout is always the upper bound.
+     *
+     * @param history recorded job durations, or null
+     * @return job timeout in minutes
+     */
+    /**
+     * @param history durations of previous runs, or null
+     * @param runName name of the run without supersede key, its previous jobs are the samples
+     * @return the job timeout of the run
+     */
+    private int jobTimeoutMinutes(final DurationHistory history, final String runName) {
+
+        final int configured = extension.getExecutionTimeoutMinutes();
+        final HistoryConfiguration configuration = extension.getHistory();
+
+        if (history == null || history.count(DurationHistory.JOB, runName) < Math.max(1, configuration.getMinSamples())) {
+            return configured;
+        }
+
+        final Long p99 = history.percentile(DurationHistory.JOB, runName, 0.99);
+        if (p99 == null) {
+            return configured;
+        }
+        final int suggested = (int) Math.min(configured, Math.max(MIN_JOB_TIMEOUT_MINUTES,
+                Math.ceil(p99 * configuration.getTimeoutMargin() / TimeUnit.MINUTES.toMillis(1))));
+
+        if (configuration.getAutoTimeout()) {
+            logger.lifecycle(String.format("Using a job timeout of %d minutes for %s, p99 job duration is %d seconds",
+                    suggested, runName, TimeUnit.MILLISECONDS.toSeconds(p99)));
+            return suggested;
+        }
+
+        if (suggested < configured) {
+            logger.lifecycle(String.format("p99 job duration of %s is %d seconds, a job timeout of %d minutes would do "
+                            + "(executionTimeoutMinutes is %d, set history.autoTimeout to apply it)",
+                    runName, TimeUnit.MILLISECONDS.toSeconds(p99), suggested, configured));
+        }
+        return configured;
     }
 
-    private String uploadExtraDataZip(final Project project) {
+    /**
+     * Split the tests into shards, each one scheduled as its own run.
+     * The filter lists the test classes or packages to split, when it is not set the test classes are
+     * read from the test package.
+     *
+     * @param testPackage the test package
+     * @param history     recorded suite durations, or null
+     * @return the filter of every shard, a single filter when the tests are not sharded
+     */
+    private List<String> planShards(final File testPackage, final DurationHistory history) {
+
+        final ConfiguredTest test = extension.getTest();
+        final String filter = test.getFilter();
+        final int shards = test.getShards();
 
-        final File extraDataZip = extension.getDeviceState().getExtraDataZipFile();
+        if (shards <= 1) {
+            return Collections.singletonList(filter);
+        }
 
-        String extraDataArn = null;
+        final List<String> tests = Lists.newArrayList();
+        if (filter != null) {
+            for (String entry : StringUtils.split(filter, ',')) {
+                if (!entry.trim().isEmpty()) {
+                    tests.add(entry.trim());
+                }
+            }
+        } else {
+            tests.addAll(DexTestClassScanner.findTestClasses(testPackage, test.getShardPackages()));
+        }
 
-        if (extraDataZip != null) {
+        if (tests.size() < 2) {
+            logger.warn(String.format("Found %d test class(es) to shard, running every test in a single run",
+                    tests.size()));
+            return Collections.singletonList(filter);
+        }
+        if (filter == null) {
+            logger.lifecycle(String.format("Sharding the %d test classes found in %s", tests.size(),
+                    testPackage.getName()));
+        }
 
-            extraDataArn = uploader.upload(
-                    extraDataZip,
-                    project, UploadType.EXTERNAL_DATA).getArn();
+        final Map<String, Long> durations = history == null
+                ? Collections.<String, Long>emptyMap() : history.estimate(DurationHistory.SUITE, tests);
+        if (!durations.isEmpty()) {
+            logger.info(String.format("Balancing shards with the recorded durations of %d of %d test classes or packages",
+                    durations.size(), tests.size()));
+        }
 
-            logger.lifecycle(String.format("Will copy data from zip %s, %s",
-                    extraDataZip, extraDataArn));
+        final List<String> filters = Lists.newArrayList();
+        for (List<String> shard : ShardPlanner.plan(tests, shards, durations)) {
+            final String shardFilter = StringUtils.join(shard, ",");
+            if (shardFilter.length() > MAX_FILTER_LENGTH) {
+                throw new DeviceFarmException(String.format(
+                        "Shard filter is %d characters long, the limit is %d. Use more shards or shard by package with the filter",
+                        shardFilter.length(), MAX_FILTER_LENGTH));
+            }
+            filters.add(shardFilter);
         }
 
-        return extraDataArn;
+        logger.lifecycle(String.format("Splitting %d test classes or packages across %d shards", tests.size(), filters.size()));
+        return filters;
     }
 
-    private List<String> getAuxAppArns(Collection<Upload> auxUploads) {
-        List<String> auxAppArns = Lists.newArrayList();
+    /**
+     * @return the variants this build scheduled runs of, in name order
+     */
+    public List<String> getScheduledVariants() {
+        synchronized (scheduledVariants) {
+            return Lists.newArrayList(scheduledVariants);
+        }
+    }
 
-        if (auxUploads == null || auxUploads.size() == 0) {
-            return auxAppArns;
+    /**
+     * Remember the runs so the report task can collect their results.
+     *
+     * @param variantName the variant
+     * @param runs        the scheduled runs
+     */
+    private void recordScheduledRuns(final String variantName, final List<Run> runs) {
+        scheduledVariants.add(variantName);
+        try {
+            ScheduledRuns.record(extension.getScheduledRunsDir(), variantName, runs);
+        } catch (DeviceFarmException e) {
+            logger.warn(String.format("Unable to record scheduled runs: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Stop the older runs of the same app and supersede key, once the new runs are scheduled.
+     *
+     * @param project the project
+     * @param appName file name of the app
+     * @param runs    the runs just scheduled
+     */
+    private void stopSupersededRuns(final Project project, final String appName, final List<Run> runs) {
+
+        final String key = extension.getSupersede().getKey();
+        if (key == null || key.isEmpty()) {
+            return;
         }
 
-        for (Upload auxApp : auxUploads) {
+        try (Tracer.Span span = Tracer.child("stopSupersededRuns")) {
+            final List<Run> stopped = new SupersededRuns(api, logger).stop(project, appName, key, runs, startedMillis);
+            span.set("runs", stopped.size());
+        }
+    }
+
+    /**
+     * Follow the runs until they complete, failing if any of them did not pass.
+     *
+     * @param runs the scheduled runs
+     */
+    private void waitForResults(final List<Run> runs) {
+
+        final RunWatcher watcher = new RunWatcher(api, logger, PollStrategy.from(extension.getResults().getPolling()));
+
+        final List<Run> completed = watcher.watch(runs);
+        if (completed.size() > 1) {
+            logMergedCounters(completed);
+        }
+
+        for (Run run : completed) {
+            logger.lifecycle(String.format("Run %s completed with result %s", run.getName(), run.getResult()));
+        }
+
+        final String failure = failureMessage(completed, getUtils());
+        if (failure != null) {
+            throw new DeviceFarmException(failure);
+        }
+    }
+
+    /**
+     * @param runs  the completed runs
+     * @param utils used to link the console page of the runs
+     * @return why the build fails, listing the runs that did not pass, or null if they all passed
+     */
+    static String failureMessage(final List<Run> runs, final DeviceFarmUtils utils) {
+
+        final List<String> failures = Lists.newArrayList();
+        for (Run run : runs) {
+            if (!RunWatcher.isSuccessful(run)) {
+                failures.add(String.format("%s (%s): %s", run.getName(), run.getResult(),
+                        utils.getRunUrlFromArn(run.getArn())));
+            }
+        }
+
+        return failures.isEmpty() ? null
+                : String.format("AWS Device Farm run(s) did not pass: %s", StringUtils.join(failures, ", "));
+    }
+
+    private void logMergedCounters(final List<Run> runs) {
+
+        int passed = 0, failed = 0, errored = 0, skipped = 0, total = 0;
+        for (Run run : runs) {
+            final Counters counters = run.getCounters();
+            if (counters != null) {
+                passed += counters.getPassed() == null ? 0 : counters.getPassed();
+                failed += counters.getFailed() == null ? 0 : counters.getFailed();
+                errored += counters.getErrored() == null ? 0 : counters.getErrored();
+                skipped += counters.getSkipped() == null ? 0 : counters.getSkipped();
+                total += counters.getTotal() == null ? 0 : counters.getTotal();
+            }
+        }
+
+        logger.lifecycle(String.format("All %d runs: %d passed, %d failed, %d errored, %d skipped of %d tests",
+                runs.size(), passed, failed, errored, skipped, total));
+    }
+
+    /**
+     * Schedule all runs concurrently and print their console urls.
+     *
+     * @param requests the runs to schedule
+     * @param testType type of the tests, used in messages
+     * @return the scheduled runs
+     */
+    private List<Run> scheduleRuns(final List<ScheduleRunRequest> requests, final String testType) {
+
+        final List<Run> runs = Lists.newArrayList();
+
+        if (requests.size() == 1) {
+            final ScheduleRunResult response = scheduleRun(requests.get(0));
+            logRunUrl(response.getRun(), testType);
+            runs.add(response.getRun());
+            return runs;
+        }
+
+        final ExecutorService executor = DeviceFarmExecutors.newBoundedExecutor(SCHEDULE_THREAD_NAME,
+                Math.min(requests.size(), MAX_CONCURRENT_SCHEDULES), requests.size());
+
+        try {
+            final List<Future<ScheduleRunResult>> responses = Lists.newArrayList();
+            for (final ScheduleRunRequest request : requests) {
+                responses.add(executor.submit(Tracer.propagate(new Callable<ScheduleRunResult>() {
+                    @Override
+                    public ScheduleRunResult call() throws Exception {
+                        return scheduleRun(request);
+                    }
+                })));
+            }
+
+            // Report every run that made it before failing on the others
+            DeviceFarmException failure = null;
+            for (int i = 0; i < responses.size(); i++) {
+                try {
+                    final Run run = responses.get(i).get().getRun();
+                    logRunUrl(run, testType);
+                    runs.add(run);
+                } catch (ExecutionException e) {
+                    logger.error(String.format("Unable to schedule run %s: %s",
+                            requests.get(i).getName(), e.getCause().getMessage()));
+                    if (failure == null) {
+                        failure = new DeviceFarmException(String.format("Unable to schedule run %s",
+                                requests.get(i).getName()), e.getCause());
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeviceFarmException("Interrupted while scheduling runs", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return runs;
+    }
+
+    private ScheduleRunResult scheduleRun(final ScheduleRunRequest request) {
+
+        if (!extension.getScheduling().getSlotAware()) {
+            try (Tracer.Span ignored = Tracer.child("scheduleRun")) {
+                return api.scheduleRun(request);
+            }
+        }
+
+        try (RunScheduler.Ticket ticket = admit(request); Tracer.Span ignored = Tracer.child("scheduleRun")) {
+            final ScheduleRunResult result = api.scheduleRun(request);
+            ticket.started(result.getRun().getArn());
+            return result;
+        }
+    }
+
+    /**
+     * Wait for enough free device slots, shared with the other modules of the build.
+     *
+     * @param request the run to schedule
+     * @return the admission of the run
+     */
+    private RunScheduler.Ticket admit(final ScheduleRunRequest request) {
+
+        final SchedulingConfiguration scheduling = extension.getScheduling();
+        final String platform = extension.getDeviceSelection() == null
+                ? "ANDROID" : extension.getDeviceSelection().getPlatform().toUpperCase();
+        final RunScheduler scheduler = RunScheduler.shared(MetadataCache.scopeOf(extension), platform);
+
+        final int slots = scheduling.getMaxSlots() > 0 ? scheduling.getMaxSlots() : scheduler.accountSlots(api, platform);
+        final int weight = scheduling.getSlotsPerRun() > 0 ? scheduling.getSlotsPerRun() : scheduler.weightOf(api, request);
+
+        final RunScheduler.Ticket ticket;
+        try (Tracer.Span span = Tracer.child("awaitSlots")) {
+            ticket = scheduler.admit(api, slots, weight, scheduling.getPriority(), request.getName(),
+                    PollStrategy.from(scheduling.getPolling()), logger);
+            span.set("queuedMillis", ticket.getQueuedMillis());
+        }
+
+        logger.lifecycle(String.format("Run %s admitted after %d ms in queue, %d of %s device slots in use",
+                request.getName(), ticket.getQueuedMillis(), scheduler.getUsedSlots(),
+                slots == Integer.MAX_VALUE ? "unlimited" : Integer.toString(slots)));
+        return ticket;
+    }
+
+    private void logRunUrl(final Run run, final String testType) {
+        logger.lifecycle(String.format("View the %s run in the AWS Device Farm Console: %s",
+                testType, getUtils().getRunUrlFromArn(run.getArn())));
+    }
+
+    /**
+     * Resolve the testSpec of the test, by arn when one is configured.
+     *
+     * @param project the Device Farm project
+     * @return the testSpec, or null if the test does not use one
+     */
+    private Upload findTestSpec(final Project project) {
+
+        final String testSpecArn = extension.getTest().getTestSpecArn();
+        if (testSpecArn != null) {
+            return new Upload().withArn(testSpecArn).withName(testSpecArn);
+        }
+
+        return getUtils().findTestSpecByName(extension.getTest().getTestSpecName(), project,
+                extension.getTest().getTestSpecUploadType());
+    }
+
+    /**
+     * If the tests requires it submit the test package for upload.
+     *
+     * @param uploads     the upload stage
+     * @param testPackage the test package
+     * @return pending test package upload, or null if test does not require a test package
+     */
+    private Future<Upload> submitTestPackageIfNeeded(final UploadStage uploads, final File testPackage) {
+
+        if (extension.getTest() instanceof TestPackageProvider) {
+
+            final TestPackageProvider testPackageProvider = (TestPackageProvider) extension.getTest();
+
+            return uploads.submit(testPackageProvider.resolveTestPackage(testPackage),
+                    testPackageProvider.getTestPackageUploadType());
+        }
+
+        return null;
+    }
+
+    private String getTestPackageArn(final UploadStage uploads, final Future<Upload> testPackageUpload) {
+
+        final Upload testArtifacts = uploads.get(testPackageUpload);
+
+        if (testArtifacts == null) {
+            return null;
+        }
+
+        logger.lifecycle(String.format("Will run tests in %s, %s",
+                testArtifacts.getName(), testArtifacts.getArn()));
+
+        return testArtifacts.getArn();
+    }
+
+    private List<Future<Upload>> submitAuxApps(final UploadStage uploads) {
+
+        final List<Future<Upload>> auxApps = Lists.newArrayList();
+
+        for (File auxApp : extension.getDeviceState().getAuxiliaryApps()) {
+            auxApps.add(uploads.submit(auxApp, UploadType.ANDROID_APP));
+        }
+
+        return auxApps;
+    }
+
+    private List<String> getAuxAppArns(final UploadStage uploads, final List<Future<Upload>> auxAppUploads) {
+        List<String> auxAppArns = Lists.newArrayList();
+
+        for (Future<Upload> auxAppUpload : auxAppUploads) {
+            final Upload auxApp = uploads.get(auxAppUpload);
+            logger.lifecycle(String.format("Will install additional app %s, %s",
+                    auxApp.getName(), auxApp.getArn()));
             auxAppArns.add(auxApp.getArn());
         }
 
         return auxAppArns;
     }
 
+    private Future<Upload> submitExtraDataZip(final UploadStage uploads) {
+
+        final File extraDataZip = extension.getExtraDataZipFile();
+
+        if (extraDataZip == null) {
+            return null;
+        }
+
+        return uploads.submit(extraDataZip, UploadType.EXTERNAL_DATA);
+    }
+
+    private String getExtraDataArn(final UploadStage uploads, final Future<Upload> extraDataUpload) {
+
+        final Upload extraData = uploads.get(extraDataUpload);
+
+        if (extraData == null) {
+            return null;
+        }
+
+        logger.lifecycle(String.format("Will copy data from zip %s, %s",
+                extension.getExtraDataZipFile(), extraData.getArn()));
+
+        return extraData.getArn();
+    }
+
     /**
      * Verify the Device Farm extension is properly configured.
      *
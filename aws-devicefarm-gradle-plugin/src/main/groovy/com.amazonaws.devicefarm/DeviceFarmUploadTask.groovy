@@ -0,0 +1,118 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm
+
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension
+import com.amazonaws.devicefarm.extension.TestPackageProvider
+import org.apache.commons.codec.digest.DigestUtils
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Uploads the artifacts of a variant and saves their arns.
+ * Unchanged artifacts and configuration leave the task up to date.
+ * The arns are only valid in the account they were uploaded to, so they are never shared through the build cache.
+ */
+class DeviceFarmUploadTask extends DefaultTask {
+
+    @Internal
+    DeviceFarmExtension extension
+
+    @Internal
+    DeviceFarmServer server
+
+    /**
+     * The application apk, or null to test the test package itself
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    File testedApk
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    File testPackage
+
+    @OutputFile
+    File arnsFile
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    FileCollection getAuxiliaryApps() {
+        project.files(extension.deviceState.auxiliaryApps)
+    }
+
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    File getExtraDataZipFile() {
+        extension.extraDataZipFile
+    }
+
+    /**
+     * The test package set in the DSL, like an Appium or Calabash zip, uploaded instead of the instrumentation apk
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    File getConfiguredTestPackage() {
+        extension.test instanceof TestPackageProvider ? ((TestPackageProvider) extension.test).testPackage : null
+    }
+
+    @Input
+    @Optional
+    String getTestPackageUploadType() {
+        extension.test instanceof TestPackageProvider ?
+                ((TestPackageProvider) extension.test).testPackageUploadType?.toString() : null
+    }
+
+    @Input
+    String getProjectName() {
+        extension.projectName
+    }
+
+    /**
+     * Hash of the credentials and endpoint, arns are only valid in their account
+     */
+    @Input
+    String getAccount() {
+        DigestUtils.sha256Hex(MetadataCache.scopeOf(extension))
+    }
+
+    @Input
+    String getTestType() {
+        extension.test.testType.toString()
+    }
+
+    @Input
+    @Optional
+    String getTestSpec() {
+        extension.test.testSpecArn ?: extension.test.testSpecName
+    }
+
+    @TaskAction
+    void upload() {
+        server.uploadArtifacts(testPackage, testedApk).writeTo(arnsFile)
+    }
+}
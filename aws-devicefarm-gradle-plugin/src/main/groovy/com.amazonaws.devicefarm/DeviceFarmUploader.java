@@ -14,49 +14,114 @@
 //
 package com.amazonaws.devicefarm;
 
-import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
 import com.amazonaws.services.devicefarm.model.CreateUploadRequest;
 import com.amazonaws.services.devicefarm.model.GetUploadRequest;
 import com.amazonaws.services.devicefarm.model.GetUploadResult;
+import com.amazonaws.services.devicefarm.model.NotFoundException;
 import com.amazonaws.services.devicefarm.model.Project;
 import com.amazonaws.services.devicefarm.model.Upload;
 import com.amazonaws.services.devicefarm.model.UploadType;
-import com.google.common.collect.Lists;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.FileEntity;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.gradle.api.logging.Logger;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 
 /**
- * Artifact uploader for AWS Device Farm
+ * Artifact uploader for AWS Device Farm.
+ * Owns a pooled HTTP client for the S3 transfers, close it when done.
  */
-public class DeviceFarmUploader {
+public class DeviceFarmUploader implements Closeable {
 
-    private final AWSDeviceFarmClient api;
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 60000;
+
+    private final AWSDeviceFarm api;
     private final Logger logger;
-    private final ExecutorService uploadExecutor;
+    private final UploadCache cache;
+    private final PollStrategy pollStrategy;
+    private final CloseableHttpClient httpClient;
+    private final ArtifactTransfer transfer;
+    private final UploadReport report = new UploadReport();
+
+    public DeviceFarmUploader(final AWSDeviceFarm api, final Logger logger) {
+        this(api, logger, null, PollStrategy.defaults(),
+                newHttpClient(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS));
+    }
 
-    public DeviceFarmUploader(final AWSDeviceFarmClient api, final Logger logger) {
+    /**
+     * @param api          Device Farm client
+     * @param logger       logger
+     * @param cache        cache of previous uploads, or null to always upload
+     * @param pollStrategy how to poll the upload processing status
+     * @param httpClient   client used to transfer artifacts, closed with this uploader
+     */
+    public DeviceFarmUploader(final AWSDeviceFarm api, final Logger logger, final UploadCache cache,
+                              final PollStrategy pollStrategy, final CloseableHttpClient httpClient) {
+        this(api, logger, cache, pollStrategy, httpClient, ArtifactTransfer.defaults(httpClient, logger));
+    }
+
+    /**
+     * @param api          Device Farm client
+     * @param logger       logger
+     * @param cache        cache of previous uploads, or null to always upload
+     * @param pollStrategy how to poll the upload processing status
+     * @param httpClient   client used to transfer artifacts, closed with this uploader
+     * @param transfer     sends the artifact bytes, closed with this uploader
+     */
+    public DeviceFarmUploader(final AWSDeviceFarm api, final Logger logger, final UploadCache cache,
+                              final PollStrategy pollStrategy, final CloseableHttpClient httpClient,
+                              final ArtifactTransfer transfer) {
         this.api = api;
         this.logger = logger;
-        this.uploadExecutor = Executors.newCachedThreadPool();
+        this.cache = cache;
+        this.pollStrategy = pollStrategy;
+        this.httpClient = httpClient;
+        this.transfer = transfer;
+    }
+
+    /**
+     * Create a keep-alive HTTP client whose connections are shared by all uploads.
+     *
+     * @param maxConnections       maximum number of open connections
+     * @param connectTimeoutMillis connection timeout
+     * @param socketTimeoutMillis  timeout between two packets
+     * @return the client
+     */
+    public static CloseableHttpClient newHttpClient(final int maxConnections, final int connectTimeoutMillis,
+                                                    final int socketTimeoutMillis) {
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        // Every presigned url points at the same S3 endpoint
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
     }
 
 
     /**
      * Upload a single file, waits for upload to complete.
+     * If an identical artifact was already uploaded to the project and is still usable it is reused.
      *
      * @param file       the file
      * @param project    the project
@@ -70,91 +135,206 @@ public class DeviceFarmUploader {
             throw new DeviceFarmException(String.format("File %s does not exist or is not readable", file));
         }
 
-        final CreateUploadRequest appUploadRequest = new CreateUploadRequest()
-                .withName(file.getName())
-                .withProjectArn(project.getArn())
-                .withContentType("application/octet-stream")
-                .withType(uploadType.toString());
-        final Upload upload = api.createUpload(appUploadRequest).getUpload();
+        try (Tracer.Span span = Tracer.child("upload").set("artifact", file.getName())
+                .set("type", uploadType.toString()).set("bytes", file.length())) {
+            try {
+                return upload(file, project, uploadType, span);
+            } catch (RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    private Upload upload(final File file, final Project project, final UploadType uploadType,
+                          final Tracer.Span span) {
+
+        // The content digest is only computed for the cache, a full read of the artifact
+        final String cacheKey = cache == null ? null : cache.keyFor(file, project, uploadType);
+
+        // Other modules and variants of the daemon may be uploading the same artifact right now
+        final UploadCoordinator.Flight flight = UploadCoordinator.shared().join(
+                cacheKey != null ? cacheKey : UploadCache.fileKey(file, project, uploadType),
+                new Callable<Upload>() {
+                    @Override
+                    public Upload call() {
+                        return uploadOnce(file, project, uploadType, cacheKey);
+                    }
+                });
+
+        if (flight.isLeader()) {
+            return flight.await();
+        }
+
+        logger.lifecycle(String.format("Waiting for the upload of %s started by another module", file.getName()));
+        final Upload shared = flight.await();
+        if (!flight.isLeader()) {
+            span.set("source", "shared");
+            report.add(new UploadReport.Entry(file.getName(), uploadType.toString(), file.length(), true,
+                    0, 0, 0, 0));
+        }
+        return shared;
+    }
+
+    private Upload uploadOnce(final File file, final Project project, final UploadType uploadType,
+                              final String cacheKey) {
 
-        final CloseableHttpClient httpClient = HttpClients.createDefault();
-        final HttpPut httpPut = new HttpPut(upload.getUrl());
-        httpPut.setHeader("Content-Type", upload.getContentType());
+        if (cacheKey != null) {
+            final Upload cached = findCachedUpload(cacheKey, file);
+            if (cached != null) {
+                report.add(new UploadReport.Entry(file.getName(), uploadType.toString(), file.length(), true,
+                        0, 0, 0, 0));
+                Tracer.current().set("source", "cache");
+                return cached;
+            }
+        }
+
+        final Upload upload = resumeOrCreateUpload(cacheKey, file, project, uploadType);
 
-        final FileEntity entity = new FileEntity(file);
-        httpPut.setEntity(entity);
+        final TransferProgress progress = new TransferProgress(file.getName(), file.length(), logger);
 
         writeToLog(String.format("Uploading %s to S3", file.getName()));
 
-        final HttpResponse response;
-        try {
-            response = httpClient.execute(httpPut);
-        } catch (IOException e) {
-            throw new DeviceFarmException(String.format("Error uploading artifact %s", file), e);
+        try (Tracer.Span span = Tracer.child("transfer")) {
+            transfer.send(file, upload.getArn(), upload.getUrl(), upload.getContentType(), cacheKey, progress);
+            span.set("bytes", progress.getTransferredBytes());
         }
 
-        if (response.getStatusLine().getStatusCode() != 200) {
-            throw new DeviceFarmException(String.format("Upload returned non-200 responses: %s", response.getStatusLine().getStatusCode()));
+        writeToLog(String.format("Uploaded %s (%s) in %d ms at %s/s", file.getName(),
+                TransferProgress.formatBytes(progress.getTransferredBytes()), progress.getElapsedMillis(),
+                TransferProgress.formatBytes((long) progress.getBytesPerSecond())));
+
+        final PollStrategy.Session poll;
+        try (Tracer.Span span = Tracer.child("processing")) {
+            poll = waitForUpload(file, upload);
+            span.set("polls", poll.getPolls()).set("throttles", poll.getThrottles());
         }
 
-        waitForUpload(file, upload);
+        report.add(new UploadReport.Entry(file.getName(), uploadType.toString(), file.length(), false,
+                progress.getElapsedMillis(), progress.getBytesPerSecond(),
+                poll.getPolls(), poll.getElapsedMillis()));
+
+        if (cacheKey != null) {
+            cache.put(cacheKey, upload.getArn());
+        }
 
         return upload;
     }
 
-    public Collection<Upload> batchUpload(final List<File> artifacts, final Project project, final UploadType uploadType) {
-
-        List<Future<Upload>> futures = Lists.newArrayList();
+    /**
+     * Continue the interrupted upload of the same artifact if it still waits for its bytes, else create one.
+     */
+    private Upload resumeOrCreateUpload(final String cacheKey, final File file, final Project project,
+                                        final UploadType uploadType) {
 
-        // Upload each artifact and create a future for it.
-        for (final File file : artifacts) {
-            futures.add(uploadExecutor.submit(
-                    new Callable<Upload>() {
-                        @Override
-                        public Upload call() throws Exception {
-                            return upload(file, project, uploadType);
-                        }
-                    }
-            ));
+        final UploadJournal.Entry journaled = transfer.resumable(cacheKey, file);
+        if (journaled != null) {
+            try {
+                final Upload upload = api.getUpload(new GetUploadRequest().withArn(journaled.getArn())).getUpload();
+                if ("INITIALIZED".equalsIgnoreCase(upload.getStatus())) {
+                    logger.lifecycle(String.format("Resuming interrupted upload %s of %s",
+                            journaled.getArn(), file.getName()));
+                    return upload.getUrl() == null ? upload.withUrl(journaled.getUrl()) : upload;
+                }
+            } catch (NotFoundException e) {
+                // Upload was deleted from the project
+            }
+            transfer.forget(cacheKey);
         }
 
-        List<Upload> uploads = Lists.newArrayList();
+        final CreateUploadRequest appUploadRequest = new CreateUploadRequest()
+                .withName(file.getName())
+                .withProjectArn(project.getArn())
+                .withContentType("application/octet-stream")
+                .withType(uploadType.toString());
+        return api.createUpload(appUploadRequest).getUpload();
+    }
 
-        // Check future results and append the upload results to a list.
-        for (Future<Upload> f : futures) {
-            try {
-                uploads.add(f.get());
-            } catch (Exception e) {
-                throw new DeviceFarmException(e);
+    /**
+     * Look up a previous upload of the same artifact, verifying it can still be used.
+     *
+     * @param cacheKey the cache key of the artifact
+     * @param file     the artifact
+     * @return the previous upload, or null if it must be uploaded again
+     */
+    private Upload findCachedUpload(final String cacheKey, final File file) {
+
+        final String uploadArn = cache.get(cacheKey);
+        if (uploadArn == null) {
+            logger.lifecycle(String.format("Upload cache miss for %s", file.getName()));
+            return null;
+        }
+
+        try {
+            final Upload upload = api.getUpload(new GetUploadRequest().withArn(uploadArn)).getUpload();
+            if ("SUCCEEDED".equalsIgnoreCase(upload.getStatus())) {
+                logger.lifecycle(String.format("Upload cache hit for %s, reusing %s", file.getName(), uploadArn));
+                return upload;
             }
+        } catch (NotFoundException e) {
+            // Upload was deleted from the project
         }
 
-        return uploads;
+        cache.remove(cacheKey);
+        logger.lifecycle(String.format("Upload cache miss for %s, previous upload %s is no longer available",
+                file.getName(), uploadArn));
+        return null;
     }
 
-    private void waitForUpload(final File file, final Upload upload) {
+    private PollStrategy.Session waitForUpload(final File file, final Upload upload) {
+
+        final PollStrategy.Session poll = pollStrategy.start(String.format("upload %s", file.getName()));
 
         while (true) {
-            GetUploadRequest describeUploadRequest = new GetUploadRequest()
-                    .withArn(upload.getArn());
-            GetUploadResult describeUploadResult = api.getUpload(describeUploadRequest);
-            String status = describeUploadResult.getUpload().getStatus();
+            final String status;
+            try {
+                GetUploadRequest describeUploadRequest = new GetUploadRequest()
+                        .withArn(upload.getArn());
+                GetUploadResult describeUploadResult = api.getUpload(describeUploadRequest);
+                status = describeUploadResult.getUpload().getStatus();
+            } catch (AmazonServiceException e) {
+                if (!RetryUtils.isThrottlingException(e)) {
+                    throw e;
+                }
+                writeToLog(String.format("Throttled while checking upload %s, backing off", file.getName()));
+                poll.throttled();
+                poll.sleep();
+                continue;
+            }
 
             if ("SUCCEEDED".equalsIgnoreCase(status)) {
-                break;
+                writeToLog(String.format("Upload %s ready after %d polls in %d ms (%d throttled)",
+                        file.getName(), poll.getPolls(), poll.getElapsedMillis(), poll.getThrottles()));
+                return poll;
             } else if ("FAILED".equalsIgnoreCase(status)) {
                 throw new DeviceFarmException(String.format("Upload %s failed!", upload.getName()));
             } else {
-                try {
-                    writeToLog(String.format("Waiting for upload %s to be ready (current status: %s)", file.getName(), status));
-                    Thread.sleep(5000);
-                } catch (InterruptedException e) {
-                    break;
-                }
+                writeToLog(String.format("Waiting for upload %s to be ready (current status: %s)", file.getName(), status));
+                poll.sleep();
             }
         }
     }
 
+    /**
+     * @return transfer statistics of every artifact handled by this uploader
+     */
+    public UploadReport getReport() {
+        return report;
+    }
+
+    /**
+     * Release the HTTP connections and range threads.
+     */
+    @Override
+    public void close() {
+        transfer.close();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            writeToLog(String.format("Error closing upload HTTP client: %s", e.getMessage()));
+        }
+    }
+
     private void writeToLog(final String msg) {
         logger.info(msg);
     }
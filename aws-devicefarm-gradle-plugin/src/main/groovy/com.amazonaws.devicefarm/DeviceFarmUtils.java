@@ -39,10 +39,34 @@ public class DeviceFarmUtils {
 
     private final DeviceFarmExtension extension;
     private final AWSDeviceFarm api;
+    private MetadataCache metadataCache;
 
     public DeviceFarmUtils(final AWSDeviceFarm api, final DeviceFarmExtension extension) {
+        this(api, extension, null);
+    }
+
+    /**
+     * @param api           Device Farm client
+     * @param extension     plugin configuration
+     * @param metadataCache cache of name lookups, or null to build it from the extension on the first lookup
+     */
+    public DeviceFarmUtils(final AWSDeviceFarm api, final DeviceFarmExtension extension,
+                           final MetadataCache metadataCache) {
         this.extension = extension;
         this.api = api;
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Scope and settings are only read once the build script configured the credentials, endpoint and local mode.
+     *
+     * @return cache of name lookups
+     */
+    private synchronized MetadataCache metadataCache() {
+        if (metadataCache == null) {
+            metadataCache = MetadataCache.forExtension(extension);
+        }
+        return metadataCache;
     }
 
     /**
@@ -77,7 +101,7 @@ public class DeviceFarmUtils {
         ListUploadsResult result = api.listUploads(new ListUploadsRequest().withArn(project.getArn()));
         uploads.addAll(result.getUploads());
         while (result.getNextToken() != null) {
-            ListUploadsRequest request = new ListUploadsRequest();
+            ListUploadsRequest request = new ListUploadsRequest().withArn(project.getArn());
             request.setNextToken(result.getNextToken());
             result = api.listUploads(request);
             uploads.addAll(result.getUploads());
@@ -95,8 +119,7 @@ public class DeviceFarmUtils {
         List<Upload> allUploads = getUploads(project);
         List<Upload> testSpecUploads = new ArrayList<Upload>();
         for (Upload upload : allUploads) {
-            if (upload.getType().contains("TEST_SPEC")
-                    && UploadStatus.SUCCEEDED.toString().equals(upload.getStatus())) {
+            if (isTestSpec(upload)) {
                 testSpecUploads.add(upload);
 
             }
@@ -112,33 +135,78 @@ public class DeviceFarmUtils {
      * @return The Device Farm project.
      */
     public Upload findTestSpecByName(final String testSpecName, Project project) {
+        return findTestSpecByName(testSpecName, project, null);
+    }
+
+    /**
+     * Get Device Farm testSpec by name.
+     * Only uploads of the given type are listed, and listing stops as soon as the name is found.
+     *
+     * @param testSpecName String name of the Device Farm testSpec.
+     * @param project Device Farm project
+     * @param testSpecType upload type of the testSpec, or null to look at every testSpec type
+     * @return The Device Farm testSpec.
+     */
+    public Upload findTestSpecByName(final String testSpecName, final Project project, final String testSpecType) {
 
         if (StringUtils.isBlank(testSpecName)) {
             return null;
         }
-        for (Upload upload : getTestSpecs(project)) {
-            if (upload.getName().equals(testSpecName)) {
-                return upload;
-            }
+
+        final MetadataCache.Entry cached = metadataCache().get(MetadataCache.TEST_SPEC, project.getArn(), testSpecName);
+        if (cached != null) {
+            return new Upload().withName(cached.getName()).withArn(cached.getArn());
         }
 
+        ListUploadsRequest request = new ListUploadsRequest().withArn(project.getArn()).withType(testSpecType);
+        do {
+            final ListUploadsResult result = api.listUploads(request);
+            for (Upload upload : result.getUploads()) {
+                if (isTestSpec(upload) && upload.getName().equals(testSpecName)) {
+                    metadataCache().put(MetadataCache.TEST_SPEC, project.getArn(), testSpecName, upload.getArn());
+                    return upload;
+                }
+            }
+            request = result.getNextToken() == null ? null : new ListUploadsRequest()
+                    .withArn(project.getArn())
+                    .withType(testSpecType)
+                    .withNextToken(result.getNextToken());
+        } while (request != null);
+
         throw new DeviceFarmException(String.format("testSpec '%s' not found.", testSpecName));
     }
 
+    private static boolean isTestSpec(final Upload upload) {
+        return upload.getType().contains("TEST_SPEC")
+                && UploadStatus.SUCCEEDED.toString().equals(upload.getStatus());
+    }
+
     /**
      * Get Device Farm project by name.
+     * Stops listing projects as soon as the name is found.
      *
      * @param projectName String name of the Device Farm project.
      * @return The Device Farm project.
      */
     public Project findProjectByName(final String projectName) {
 
-        for (Project p : getProjects()) {
-            if (p.getName().equals(projectName)) {
-                return p;
-            }
+        final MetadataCache.Entry cached = metadataCache().get(MetadataCache.PROJECT, "", projectName);
+        if (cached != null) {
+            return new Project().withName(cached.getName()).withArn(cached.getArn());
         }
 
+        ListProjectsRequest request = new ListProjectsRequest();
+        do {
+            final ListProjectsResult result = api.listProjects(request);
+            for (Project p : result.getProjects()) {
+                if (p.getName().equals(projectName)) {
+                    metadataCache().put(MetadataCache.PROJECT, "", projectName, p.getArn());
+                    return p;
+                }
+            }
+            request = result.getNextToken() == null ? null : new ListProjectsRequest().withNextToken(result.getNextToken());
+        } while (request != null);
+
         throw new DeviceFarmException(String.format("Project '%s' not found.", projectName));
     }
 
@@ -150,9 +218,15 @@ public class DeviceFarmUtils {
      */
     public List<DevicePool> getDevicePools(final Project project) {
 
-        final ListDevicePoolsResult poolsResult = api.listDevicePools(new ListDevicePoolsRequest().withArn(project.getArn()));
-
-        return poolsResult.getDevicePools();
+        final List<DevicePool> pools = new ArrayList<DevicePool>();
+        ListDevicePoolsResult result = api.listDevicePools(new ListDevicePoolsRequest().withArn(project.getArn()));
+        pools.addAll(result.getDevicePools());
+        while (result.getNextToken() != null) {
+            result = api.listDevicePools(new ListDevicePoolsRequest().withArn(project.getArn())
+                    .withNextToken(result.getNextToken()));
+            pools.addAll(result.getDevicePools());
+        }
+        return pools;
     }
 
     /**
@@ -164,10 +238,16 @@ public class DeviceFarmUtils {
      */
     public DevicePool findDevicePoolByName(final Project project, final String devicePoolName) {
 
+        final MetadataCache.Entry cached = metadataCache().get(MetadataCache.DEVICE_POOL, project.getArn(), devicePoolName);
+        if (cached != null) {
+            return new DevicePool().withName(cached.getName()).withArn(cached.getArn());
+        }
+
         final List<DevicePool> pools = getDevicePools(project);
 
         for (DevicePool dp : pools) {
             if (dp.getName().equals(devicePoolName)) {
+                metadataCache().put(MetadataCache.DEVICE_POOL, project.getArn(), devicePoolName, dp.getArn());
                 return dp;
             }
         }
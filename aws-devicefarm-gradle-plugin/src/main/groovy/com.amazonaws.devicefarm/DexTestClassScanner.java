@@ -0,0 +1,274 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Lists the test classes of an instrumentation test package by reading the class definitions of its dex files.
+ * A test class is a concrete, top level class annotated with JUnit 4 {@code @RunWith}, with {@code @Test} methods,
+ * or extending {@code junit.framework.TestCase}, directly or through its superclasses.
+ */
+public final class DexTestClassScanner {
+
+    private static final int ACC_INTERFACE = 0x200;
+    private static final int ACC_ABSTRACT = 0x400;
+
+    private static final int TYPE_IDS_OFFSET = 0x44;
+    private static final int STRING_IDS_OFFSET = 0x3C;
+    private static final int CLASS_DEFS_SIZE = 0x60;
+    private static final int CLASS_DEFS_OFFSET = 0x64;
+    private static final int CLASS_DEF_ITEM_SIZE = 32;
+    private static final int NO_INDEX = -1;
+
+    private static final String RUN_WITH = "Lorg/junit/runner/RunWith;";
+    private static final String TEST = "Lorg/junit/Test;";
+
+    /**
+     * Superclasses are followed at most this deep, guarding against malformed dex files.
+     */
+    private static final int MAX_SUPERCLASSES = 32;
+
+    /**
+     * Packages of the test runner and common test libraries, never sharded when no package is configured.
+     * Only the test libraries of com.google are listed, apps under com.google keep their tests.
+     */
+    private static final List<String> LIBRARY_PACKAGES = Collections.unmodifiableList(Lists.newArrayList(
+            "android.", "androidx.", "com.android.", "com.google.android.apps.common.testing.",
+            "com.google.common.", "com.google.testing.", "junit.", "org.junit.", "org.hamcrest.",
+            "org.mockito.", "kotlin.", "kotlinx."));
+
+    private DexTestClassScanner() {
+    }
+
+    /**
+     * @param testPackage the instrumentation test apk
+     * @param packages    packages the classes must belong to, empty for any application package
+     * @return fully qualified names of the test classes, sorted
+     */
+    public static List<String> findTestClasses(final File testPackage, final List<String> packages) {
+
+        // Every dex is read first, a test class may extend a base class of another dex
+        final Map<String, DexClass> definitions = Maps.newHashMap();
+
+        try (ZipFile apk = new ZipFile(testPackage)) {
+            final Enumeration<? extends ZipEntry> entries = apk.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.getName().matches("classes\\d*\\.dex")) {
+                    continue;
+                }
+                try (InputStream in = apk.getInputStream(entry)) {
+                    readClasses(ByteBuffer.wrap(ByteStreams.toByteArray(in)), definitions);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new DeviceFarmException(String.format("Unable to list the test classes of %s", testPackage), e);
+        }
+
+        final Set<String> classes = new TreeSet<>();
+        for (Map.Entry<String, DexClass> definition : definitions.entrySet()) {
+            if (definition.getValue().concrete && isIncluded(definition.getKey(), packages)
+                    && isTestClass(definition.getKey(), definitions)) {
+                classes.add(definition.getKey());
+            }
+        }
+
+        return Lists.newArrayList(classes);
+    }
+
+    private static void readClasses(final ByteBuffer dex, final Map<String, DexClass> definitions) {
+
+        dex.order(ByteOrder.LITTLE_ENDIAN);
+
+        final int classDefsSize = dex.getInt(CLASS_DEFS_SIZE);
+        final int classDefs = dex.getInt(CLASS_DEFS_OFFSET);
+
+        for (int i = 0; i < classDefsSize; i++) {
+            final int classDef = classDefs + i * CLASS_DEF_ITEM_SIZE;
+            final int accessFlags = dex.getInt(classDef + 4);
+            final int superclassIndex = dex.getInt(classDef + 8);
+
+            definitions.put(typeName(dex, dex.getInt(classDef)), new DexClass(
+                    (accessFlags & (ACC_INTERFACE | ACC_ABSTRACT)) == 0,
+                    superclassIndex == NO_INDEX ? null : typeName(dex, superclassIndex),
+                    hasTestAnnotations(dex, dex.getInt(classDef + 20))));
+        }
+    }
+
+    /**
+     * @param annotationsOffset offset of the annotations directory of a class, 0 if it has none
+     * @return true if the class is annotated with {@code @RunWith} or one of its methods with {@code @Test}
+     */
+    private static boolean hasTestAnnotations(final ByteBuffer dex, final int annotationsOffset) {
+
+        if (annotationsOffset == 0) {
+            return false;
+        }
+
+        if (containsAnnotation(dex, dex.getInt(annotationsOffset), RUN_WITH)) {
+            return true;
+        }
+
+        final int fieldsSize = dex.getInt(annotationsOffset + 4);
+        final int methodsSize = dex.getInt(annotationsOffset + 8);
+        final int methodAnnotations = annotationsOffset + 16 + fieldsSize * 8;
+        for (int i = 0; i < methodsSize; i++) {
+            if (containsAnnotation(dex, dex.getInt(methodAnnotations + i * 8 + 4), TEST)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAnnotation(final ByteBuffer dex, final int annotationSet, final String type) {
+
+        if (annotationSet == 0) {
+            return false;
+        }
+
+        final int size = dex.getInt(annotationSet);
+        for (int i = 0; i < size; i++) {
+            // annotation_item: a visibility byte, then the encoded annotation starting with its uleb128 type index
+            final int annotation = dex.getInt(annotationSet + 4 + i * 4);
+            if (type.equals(typeDescriptor(dex, readUleb128(dex, annotation + 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTestClass(final String className, final Map<String, DexClass> definitions) {
+
+        String name = className;
+        for (int depth = 0; name != null && depth < MAX_SUPERCLASSES; depth++) {
+            // TestCase and the android.test base classes extending it are not part of the test package
+            if ("junit.framework.TestCase".equals(name)
+                    || name.startsWith("android.test.") && name.contains("TestCase")) {
+                return true;
+            }
+
+            final DexClass definition = definitions.get(name);
+            if (definition == null) {
+                return false;
+            }
+            if (definition.annotated) {
+                return true;
+            }
+            name = definition.superclass;
+        }
+        return false;
+    }
+
+    private static String typeDescriptor(final ByteBuffer dex, final int typeIndex) {
+        final int descriptorIndex = dex.getInt(dex.getInt(TYPE_IDS_OFFSET) + typeIndex * 4);
+        return readString(dex, dex.getInt(dex.getInt(STRING_IDS_OFFSET) + descriptorIndex * 4));
+    }
+
+    private static String typeName(final ByteBuffer dex, final int typeIndex) {
+        final String descriptor = typeDescriptor(dex, typeIndex);
+        // Lcom/example/MyTest; -> com.example.MyTest
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    private static int readUleb128(final ByteBuffer dex, final int offset) {
+
+        int result = 0;
+        int shift = 0;
+        int position = offset;
+        byte current;
+        do {
+            current = dex.get(position++);
+            result |= (current & 0x7f) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0 && shift < 35);
+        return result;
+    }
+
+    private static String readString(final ByteBuffer dex, final int offset) {
+
+        // Skip the uleb128 utf16 length, the modified UTF-8 data is null terminated
+        int position = offset;
+        while ((dex.get(position) & 0x80) != 0) {
+            position++;
+        }
+        position++;
+
+        int end = position;
+        while (dex.get(end) != 0) {
+            end++;
+        }
+
+        final byte[] bytes = new byte[end - position];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = dex.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static boolean isIncluded(final String className, final List<String> packages) {
+
+        final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        if (simpleName.contains("$")) {
+            return false;
+        }
+
+        if (packages.isEmpty()) {
+            for (String library : LIBRARY_PACKAGES) {
+                if (className.startsWith(library)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        for (String testPackage : packages) {
+            if (className.startsWith(testPackage + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class DexClass {
+
+        private final boolean concrete;
+        private final String superclass;
+        private final boolean annotated;
+
+        private DexClass(final boolean concrete, final String superclass, final boolean annotated) {
+            this.concrete = concrete;
+            this.superclass = superclass;
+            this.annotated = annotated;
+        }
+    }
+}
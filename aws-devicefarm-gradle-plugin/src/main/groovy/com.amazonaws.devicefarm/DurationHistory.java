@@ -0,0 +1,344 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of runs, jobs (by device), suites and tests recorded from finished runs.
+ * Samples are appended to a tab separated file, one per line, and indexed in memory by name
+ * when loaded; only the most recent samples of every name are kept.
+ * The arns of the runs already recorded are kept in the same file, so a run is only recorded once.
+ */
+public class DurationHistory {
+
+    public static final String RUN = "run";
+    public static final String JOB = "job";
+    public static final String SUITE = "suite";
+    public static final String TEST = "test";
+
+    /**
+     * Lines of this kind hold the arn of a run whose durations were recorded
+     */
+    private static final String RECORDED_RUN = "recordedRun";
+
+    /**
+     * Recorded run arns are dropped by compaction after this long, their runs are no longer reported
+     */
+    private static final long RECORDED_RUN_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private static final String SEPARATOR = "\t";
+    private static final String KEY_SEPARATOR = "|";
+
+    /**
+     * The file is rewritten with only the kept samples once it holds this many times more lines.
+     */
+    private static final int COMPACTION_FACTOR = 4;
+    private static final int MIN_LINES_BEFORE_COMPACTION = 1000;
+
+    private final File file;
+    private final int maxSamples;
+    private final Map<String, Deque<Long>> samples = Maps.newHashMap();
+    private final Map<String, Long> recordedRuns = Maps.newHashMap();
+    private final List<String> pending = Lists.newArrayList();
+    private int lines = 0;
+
+    /**
+     * @param file       the history file, created on first flush
+     * @param maxSamples most recent samples kept per name
+     */
+    public DurationHistory(final File file, final int maxSamples) {
+        this.file = file;
+        this.maxSamples = Math.max(1, maxSamples);
+    }
+
+    /**
+     * Load the samples recorded so far.
+     *
+     * @param file       the history file, may not exist yet
+     * @param maxSamples most recent samples kept per name
+     * @return the history
+     */
+    public static DurationHistory load(final File file, final int maxSamples) {
+
+        final DurationHistory history = new DurationHistory(file, maxSamples);
+        if (!file.isFile()) {
+            return history;
+        }
+
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                // timestamp, kind, millis, name
+                final String[] fields = line.split(SEPARATOR, 4);
+                if (fields.length != 4) {
+                    continue;
+                }
+                try {
+                    if (RECORDED_RUN.equals(fields[1])) {
+                        history.recordedRuns.put(fields[3], Long.parseLong(fields[0]));
+                    } else {
+                        history.add(fields[1], fields[3], Long.parseLong(fields[2]));
+                    }
+                    history.lines++;
+                } catch (NumberFormatException e) {
+                    // Skip lines torn by a crash
+                }
+            }
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to read duration history %s", file), e);
+        }
+
+        return history;
+    }
+
+    /**
+     * Record a duration, written on the next {@link #flush()}.
+     *
+     * @param kind   {@link #RUN}, {@link #JOB}, {@link #SUITE} or {@link #TEST}
+     * @param name   name of the run, device, suite or test
+     * @param millis the duration
+     */
+    public synchronized void record(final String kind, final String name, final long millis) {
+        final String cleanName = name.replaceAll("[\\t\\r\\n]", " ");
+        add(kind, cleanName, millis);
+        pending.add(System.currentTimeMillis() + SEPARATOR + kind + SEPARATOR + millis + SEPARATOR + cleanName + "\n");
+    }
+
+    /**
+     * @param runArn a run
+     * @return true if the durations of the run were already recorded
+     */
+    public synchronized boolean isRecorded(final String runArn) {
+        return recordedRuns.containsKey(runArn);
+    }
+
+    /**
+     * Remember that the durations of a run were recorded, written on the next {@link #flush()}.
+     *
+     * @param runArn the run
+     */
+    public synchronized void markRecorded(final String runArn) {
+        final long now = System.currentTimeMillis();
+        recordedRuns.put(runArn, now);
+        pending.add(now + SEPARATOR + RECORDED_RUN + SEPARATOR + 0 + SEPARATOR + runArn + "\n");
+    }
+
+    /**
+     * Append the recorded durations to the file.
+     */
+    public synchronized void flush() {
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder content = new StringBuilder();
+        for (String line : pending) {
+            content.append(line);
+        }
+
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            // Several builds may report at the same time, they append and compact under the same lock.
+            // The lock is held on a file of its own, as compaction replaces the history file
+            try (SharedFileLock ignored = SharedFileLock.acquire(
+                    new File(file.getParentFile(), file.getName() + ".lock"))) {
+                Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+                lines += pending.size();
+                pending.clear();
+
+                if (lines > MIN_LINES_BEFORE_COMPACTION && lines > samples.size() * maxSamples * COMPACTION_FACTOR) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write duration history %s", file), e);
+        }
+    }
+
+    /**
+     * Rewrite the file with only the kept samples, called with the lock held.
+     * Starts from the file rather than from memory, other builds may have appended since it was loaded.
+     */
+    private void compact() {
+
+        final DurationHistory current;
+        try {
+            current = load(file, maxSamples);
+        } catch (DeviceFarmException e) {
+            // Compaction only saves space, the appended file is still valid
+            return;
+        }
+
+        final StringBuilder content = new StringBuilder();
+        int kept = 0;
+        final long retainedSince = System.currentTimeMillis() - RECORDED_RUN_RETENTION_MILLIS;
+        for (Map.Entry<String, Long> recordedRun : current.recordedRuns.entrySet()) {
+            if (recordedRun.getValue() >= retainedSince) {
+                content.append(recordedRun.getValue()).append(SEPARATOR).append(RECORDED_RUN).append(SEPARATOR)
+                        .append(0).append(SEPARATOR).append(recordedRun.getKey()).append('\n');
+                kept++;
+            }
+        }
+        for (Map.Entry<String, Deque<Long>> entry : current.samples.entrySet()) {
+            final int separator = entry.getKey().indexOf(KEY_SEPARATOR);
+            final String kind = entry.getKey().substring(0, separator);
+            final String name = entry.getKey().substring(separator + 1);
+            for (Long millis : entry.getValue()) {
+                content.append(0).append(SEPARATOR).append(kind).append(SEPARATOR)
+                        .append(millis).append(SEPARATOR).append(name).append('\n');
+                kept++;
+            }
+        }
+
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            lines = kept;
+        } catch (IOException e) {
+            // Compaction only saves space, the appended file is still valid
+            tmp.delete();
+        }
+    }
+
+    private void add(final String kind, final String name, final long millis) {
+        final String key = kind + KEY_SEPARATOR + name;
+        Deque<Long> values = samples.get(key);
+        if (values == null) {
+            values = new ArrayDeque<>();
+            samples.put(key, values);
+        }
+        values.addLast(millis);
+        while (values.size() > maxSamples) {
+            values.removeFirst();
+        }
+    }
+
+    /**
+     * @param kind {@link #RUN}, {@link #JOB}, {@link #SUITE} or {@link #TEST}
+     * @param name name of the run, device, suite or test
+     * @return number of samples kept for the name
+     */
+    public synchronized int count(final String kind, final String name) {
+        final Deque<Long> values = samples.get(kind + KEY_SEPARATOR + name);
+        return values == null ? 0 : values.size();
+    }
+
+    /**
+     * @param kind       {@link #RUN}, {@link #JOB}, {@link #SUITE} or {@link #TEST}
+     * @param name       name of the run, device, suite or test
+     * @param percentile between 0 and 1
+     * @return the duration, or null if nothing was recorded for the name
+     */
+    public synchronized Long percentile(final String kind, final String name, final double percentile) {
+        final Deque<Long> values = samples.get(kind + KEY_SEPARATOR + name);
+        return values == null ? null : percentile(Lists.newArrayList(values), percentile);
+    }
+
+    /**
+     * @param kind       {@link #RUN}, {@link #JOB}, {@link #SUITE} or {@link #TEST}
+     * @param percentile between 0 and 1
+     * @return the duration over every name of the kind, or null if nothing was recorded
+     */
+    public synchronized Long percentile(final String kind, final double percentile) {
+        return percentile(allSamples(kind), percentile);
+    }
+
+    /**
+     * @param kind {@link #RUN}, {@link #JOB}, {@link #SUITE} or {@link #TEST}
+     * @return number of samples kept over every name of the kind
+     */
+    public synchronized int count(final String kind) {
+        return allSamples(kind).size();
+    }
+
+    /**
+     * Estimate the duration of suites or packages of suites, from their median durations.
+     *
+     * @param kind  usually {@link #SUITE}
+     * @param names names, or prefixes followed by '.' that sum every matching name
+     * @return estimated durations, names without history are absent
+     */
+    public synchronized Map<String, Long> estimate(final String kind, final List<String> names) {
+
+        final Map<String, Long> medians = Maps.newHashMap();
+        final String prefix = kind + KEY_SEPARATOR;
+        for (Map.Entry<String, Deque<Long>> entry : samples.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                medians.put(entry.getKey().substring(prefix.length()),
+                        percentile(Lists.newArrayList(entry.getValue()), 0.5));
+            }
+        }
+
+        final Map<String, Long> estimates = Maps.newHashMap();
+        for (String name : names) {
+            if (medians.containsKey(name)) {
+                estimates.put(name, medians.get(name));
+                continue;
+            }
+
+            long total = 0;
+            boolean found = false;
+            for (Map.Entry<String, Long> median : medians.entrySet()) {
+                if (median.getKey().startsWith(name + ".")) {
+                    total += median.getValue();
+                    found = true;
+                }
+            }
+            if (found) {
+                estimates.put(name, total);
+            }
+        }
+        return estimates;
+    }
+
+    private List<Long> allSamples(final String kind) {
+        final List<Long> values = Lists.newArrayList();
+        final String prefix = kind + KEY_SEPARATOR;
+        for (Map.Entry<String, Deque<Long>> entry : samples.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                values.addAll(entry.getValue());
+            }
+        }
+        return values;
+    }
+
+    private static Long percentile(final List<Long> values, final double percentile) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        Collections.sort(values);
+        // Nearest rank
+        final int rank = (int) Math.ceil(percentile * values.size());
+        return values.get(Math.min(values.size(), Math.max(1, rank)) - 1);
+    }
+}
@@ -0,0 +1,94 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+
+/**
+ * Sends artifacts with HTTP PUT requests.
+ * Ranges are sent with a Content-Range header to urls answering HEAD requests with "Accept-Ranges: bytes",
+ * the receiver answers 308 until it holds the whole file. Presigned S3 urls only take whole files.
+ */
+public class HttpUploadTransport implements UploadTransport {
+
+    private static final int RESUME_INCOMPLETE = 308;
+    private static final String BAD_DIGEST = "BadDigest";
+
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * @param httpClient client sending the requests, owned by the caller
+     */
+    public HttpUploadTransport(final CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public boolean acceptsRanges(final String url) {
+
+        try (CloseableHttpResponse response = httpClient.execute(new HttpHead(url))) {
+            EntityUtils.consume(response.getEntity());
+            final Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+            return response.getStatusLine().getStatusCode() == 200
+                    && acceptRanges != null && "bytes".equalsIgnoreCase(acceptRanges.getValue());
+        } catch (IOException e) {
+            // A url that can't be probed still takes whole files
+            return false;
+        }
+    }
+
+    @Override
+    public boolean put(final String url, final String contentType, final ProgressFileEntity entity,
+                       final String md5) throws IOException {
+
+        final HttpPut httpPut = new HttpPut(url);
+        if (contentType != null) {
+            httpPut.setHeader("Content-Type", contentType);
+        }
+        if (entity.isRange()) {
+            httpPut.setHeader("Content-Range", String.format("bytes %d-%d/%d", entity.getOffset(),
+                    entity.getOffset() + entity.getContentLength() - 1, entity.getFileLength()));
+        }
+        if (md5 != null) {
+            httpPut.setHeader("Content-MD5", md5);
+        }
+        httpPut.setEntity(entity);
+
+        final int statusCode;
+        final String body;
+        try (CloseableHttpResponse response = httpClient.execute(httpPut)) {
+            statusCode = response.getStatusLine().getStatusCode();
+            // Reading the body also puts the connection back in the pool
+            body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+        }
+
+        if (statusCode == 200 || statusCode == 201) {
+            return true;
+        } else if (statusCode == RESUME_INCOMPLETE && entity.isRange()) {
+            return false;
+        } else if (statusCode >= 500 || statusCode == 408 || statusCode == 429 || body.contains(BAD_DIGEST)) {
+            // Bytes corrupted on the way fail the MD5 check and are sent again
+            throw new IOException(String.format("Upload returned retryable status %s", statusCode));
+        }
+        throw new DeviceFarmException(String.format("Upload returned non-200 responses: %s", statusCode));
+    }
+}
@@ -0,0 +1,147 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the tests of a job (one device) as a JUnit XML report that CI servers and Gradle understand.
+ */
+public final class JUnitReportWriter {
+
+    private JUnitReportWriter() {
+    }
+
+    /**
+     * @param file   the report file
+     * @param device name of the device, prefixed to every suite
+     * @param tests  tests of every suite of the job
+     */
+    public static void write(final File file, final String device, final Map<Suite, List<Test>> tests) {
+
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DeviceFarmException(String.format("Unable to create report directory %s", directory));
+        }
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("testsuites");
+            xml.writeAttribute("name", device);
+
+            for (Map.Entry<Suite, List<Test>> suite : tests.entrySet()) {
+                writeSuite(xml, device, suite.getKey(), suite.getValue());
+            }
+
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (IOException | XMLStreamException e) {
+            throw new DeviceFarmException(String.format("Unable to write JUnit report %s", file), e);
+        }
+    }
+
+    private static void writeSuite(final XMLStreamWriter xml, final String device, final Suite suite,
+                                   final List<Test> tests) throws XMLStreamException {
+
+        int failures = 0;
+        int errors = 0;
+        int skipped = 0;
+        double time = 0;
+        for (Test test : tests) {
+            final String result = test.getResult();
+            if (ExecutionResult.FAILED.toString().equals(result)) {
+                failures++;
+            } else if (isError(result)) {
+                errors++;
+            } else if (ExecutionResult.SKIPPED.toString().equals(result)) {
+                skipped++;
+            }
+            time += seconds(test);
+        }
+
+        xml.writeStartElement("testsuite");
+        xml.writeAttribute("name", String.format("%s - %s", device, suite.getName()));
+        xml.writeAttribute("tests", Integer.toString(tests.size()));
+        xml.writeAttribute("failures", Integer.toString(failures));
+        xml.writeAttribute("errors", Integer.toString(errors));
+        xml.writeAttribute("skipped", Integer.toString(skipped));
+        xml.writeAttribute("time", format(time));
+
+        for (Test test : tests) {
+            writeTest(xml, device, suite, test);
+        }
+
+        xml.writeEndElement();
+    }
+
+    private static void writeTest(final XMLStreamWriter xml, final String device, final Suite suite,
+                                  final Test test) throws XMLStreamException {
+
+        xml.writeStartElement("testcase");
+        xml.writeAttribute("classname", String.format("%s.%s", device, suite.getName()));
+        xml.writeAttribute("name", test.getName());
+        xml.writeAttribute("time", format(seconds(test)));
+
+        final String result = test.getResult();
+        final String message = test.getMessage() == null ? "" : test.getMessage();
+        if (ExecutionResult.FAILED.toString().equals(result)) {
+            xml.writeStartElement("failure");
+            xml.writeAttribute("message", message);
+            xml.writeCharacters(message);
+            xml.writeEndElement();
+        } else if (isError(result)) {
+            xml.writeStartElement("error");
+            xml.writeAttribute("message", message);
+            xml.writeAttribute("type", result);
+            xml.writeCharacters(message);
+            xml.writeEndElement();
+        } else if (ExecutionResult.SKIPPED.toString().equals(result)) {
+            xml.writeEmptyElement("skipped");
+        }
+
+        xml.writeEndElement();
+    }
+
+    private static boolean isError(final String result) {
+        return ExecutionResult.ERRORED.toString().equals(result)
+                || ExecutionResult.STOPPED.toString().equals(result);
+    }
+
+    private static double seconds(final Test test) {
+        if (test.getStarted() == null || test.getStopped() == null) {
+            return 0;
+        }
+        return (test.getStopped().getTime() - test.getStarted().getTime()) / 1000.0;
+    }
+
+    private static String format(final double seconds) {
+        return String.format(Locale.ROOT, "%.3f", seconds);
+    }
+}
@@ -0,0 +1,249 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name to arn resolutions of projects, device pools and test specs.
+ * Entries are shared by every build running in the same Gradle daemon and expire after a TTL;
+ * they can optionally be snapshotted to disk so a new daemon starts warm.
+ */
+public class MetadataCache {
+
+    public static final String PROJECT = "project";
+    public static final String DEVICE_POOL = "devicePool";
+    public static final String TEST_SPEC = "testSpec";
+
+    private static final String SEPARATOR = "|";
+    private static final ConcurrentMap<String, Entry> SHARED = new ConcurrentHashMap<String, Entry>();
+    private static final Object SNAPSHOT_LOCK = new Object();
+
+    private final String scope;
+    private final long ttlMillis;
+    private final File snapshotFile;
+    private final boolean refresh;
+    private boolean snapshotLoaded = false;
+
+    /**
+     * @param scope        identifies the account, usually credentials and endpoint
+     * @param ttlMillis    how long an entry stays valid
+     * @param snapshotFile file the entries are persisted to, or null to keep them in memory only
+     * @param refresh      ignore existing entries, new resolutions are still cached
+     */
+    public MetadataCache(final String scope, final long ttlMillis, final File snapshotFile, final boolean refresh) {
+        this.scope = scope;
+        this.ttlMillis = ttlMillis;
+        this.snapshotFile = snapshotFile;
+        this.refresh = refresh;
+    }
+
+    /**
+     * @param extension the plugin configuration
+     * @return cache scoped to the configured credentials and endpoint
+     */
+    public static MetadataCache forExtension(final DeviceFarmExtension extension) {
+
+        // Resources of the local stand-in only live as long as its daemon, and are cheap to look up
+        return new MetadataCache(scopeOf(extension),
+                extension.isLocalMode() ? 0 : TimeUnit.MINUTES.toMillis(extension.getMetadata().getTtlMinutes()),
+                extension.getMetadata().getSnapshot() ? extension.getMetadataSnapshotFile() : null,
+                extension.isRefreshMetadata());
+    }
+
+    /**
+     * @param extension the plugin configuration
+     * @return identifies the account resources are resolved in: the credentials and endpoint
+     */
+    public static String scopeOf(final DeviceFarmExtension extension) {
+
+        if (extension.isLocalMode()) {
+            return "local";
+        }
+
+        final String credentials = StringUtils.defaultIfBlank(extension.getAuthentication().getRoleArn(),
+                StringUtils.defaultIfBlank(extension.getAuthentication().getAccessKey(), "default"));
+        final String endpoint = StringUtils.defaultIfBlank(extension.getEndpointOverride(), "default");
+
+        return credentials + SEPARATOR + endpoint;
+    }
+
+    /**
+     * @param kind   kind of resource, one of the constants of this class
+     * @param parent arn of the owning project, or empty for projects
+     * @param name   name of the resource
+     * @return the cached resolution, or null if absent, expired or refreshing
+     */
+    public Entry get(final String kind, final String parent, final String name) {
+
+        if (refresh || ttlMillis <= 0) {
+            return null;
+        }
+
+        loadSnapshot();
+
+        final String key = key(kind, parent, name);
+        final Entry entry = SHARED.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.isExpired()) {
+            SHARED.remove(key, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * @param kind   kind of resource, one of the constants of this class
+     * @param parent arn of the owning project, or empty for projects
+     * @param name   name of the resource
+     * @param arn    the resolved arn
+     */
+    public void put(final String kind, final String parent, final String name, final String arn) {
+
+        if (ttlMillis <= 0) {
+            return;
+        }
+
+        SHARED.put(key(kind, parent, name), new Entry(name, arn, System.currentTimeMillis() + ttlMillis));
+        storeSnapshot();
+    }
+
+    private String key(final String kind, final String parent, final String name) {
+        return scope + SEPARATOR + kind + SEPARATOR + parent + SEPARATOR + name;
+    }
+
+    private void loadSnapshot() {
+
+        if (snapshotFile == null || snapshotLoaded) {
+            return;
+        }
+        snapshotLoaded = true;
+
+        synchronized (SNAPSHOT_LOCK) {
+            if (!snapshotFile.isFile()) {
+                return;
+            }
+
+            final Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(snapshotFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                // A corrupt snapshot only costs a lookup
+                return;
+            }
+
+            for (String key : properties.stringPropertyNames()) {
+                final Entry entry = Entry.parse(key, properties.getProperty(key));
+                if (entry != null && !entry.isExpired()) {
+                    SHARED.putIfAbsent(key, entry);
+                }
+            }
+        }
+    }
+
+    private void storeSnapshot() {
+
+        if (snapshotFile == null) {
+            return;
+        }
+
+        synchronized (SNAPSHOT_LOCK) {
+            final Properties properties = new Properties();
+            for (Map.Entry<String, Entry> entry : SHARED.entrySet()) {
+                if (!entry.getValue().isExpired()) {
+                    properties.setProperty(entry.getKey(), entry.getValue().format());
+                }
+            }
+
+            final File directory = snapshotFile.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+
+            // Write then rename so concurrent builds never read a partial file
+            final File tmp = new File(directory, snapshotFile.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, "AWS Device Farm metadata cache");
+            } catch (IOException e) {
+                return;
+            }
+            snapshotFile.delete();
+            tmp.renameTo(snapshotFile);
+        }
+    }
+
+    /**
+     * A cached resolution.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final String arn;
+        private final long expiresAtMillis;
+
+        Entry(final String name, final String arn, final long expiresAtMillis) {
+            this.name = name;
+            this.arn = arn;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getArn() {
+            return arn;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAtMillis;
+        }
+
+        String format() {
+            return expiresAtMillis + SEPARATOR + arn;
+        }
+
+        static Entry parse(final String key, final String value) {
+            final int keySeparator = key.lastIndexOf(SEPARATOR);
+            final int valueSeparator = value.indexOf(SEPARATOR);
+            if (keySeparator < 0 || valueSeparator < 0) {
+                return null;
+            }
+            try {
+                return new Entry(key.substring(keySeparator + 1), value.substring(valueSeparator + 1),
+                        Long.parseLong(value.substring(0, valueSeparator)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.devicefarm.extension.PollingConfiguration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with jitter and an overall deadline for status polling.
+ */
+public class PollStrategy {
+
+    private final long initialDelayMillis;
+    private final double multiplier;
+    private final long maxDelayMillis;
+    private final double jitter;
+    private final long timeoutMillis;
+
+    /**
+     * @param initialDelayMillis delay before the second poll
+     * @param multiplier         growth factor applied to the delay after every poll
+     * @param maxDelayMillis     upper bound of the delay
+     * @param jitter             fraction of the delay randomly added or removed, between 0 and 1
+     * @param timeoutMillis      overall time allowed before giving up
+     */
+    public PollStrategy(final long initialDelayMillis, final double multiplier, final long maxDelayMillis,
+                        final double jitter, final long timeoutMillis) {
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.multiplier = Math.max(1.0, multiplier);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param configuration polling DSL configuration
+     * @return the matching strategy
+     */
+    public static PollStrategy from(final PollingConfiguration configuration) {
+        return new PollStrategy(configuration.getInitialDelayMillis(), configuration.getMultiplier(),
+                configuration.getMaxDelayMillis(), configuration.getJitter(),
+                TimeUnit.MINUTES.toMillis(configuration.getTimeoutMinutes()));
+    }
+
+    /**
+     * @return strategy used when nothing is configured
+     */
+    public static PollStrategy defaults() {
+        return from(new PollingConfiguration());
+    }
+
+    /**
+     * Start polling something.
+     *
+     * @param description what is being waited for, used in messages
+     * @return a new polling session, its deadline starts now
+     */
+    public Session start(final String description) {
+        return new Session(description);
+    }
+
+    /**
+     * @param baseDelayMillis delay before jitter
+     * @return the delay with jitter applied
+     */
+    long withJitter(final long baseDelayMillis) {
+        if (jitter == 0.0) {
+            return baseDelayMillis;
+        }
+        final double factor = 1.0 - jitter + ThreadLocalRandom.current().nextDouble() * 2 * jitter;
+        return (long) (baseDelayMillis * factor);
+    }
+
+    /**
+     * The state of a single wait.
+     */
+    public class Session {
+
+        private final String description;
+        private final long startNanos = System.nanoTime();
+        private long nextDelayMillis = initialDelayMillis;
+        private int polls = 0;
+        private int throttles = 0;
+
+        private Session(final String description) {
+            this.description = description;
+        }
+
+        /**
+         * Sleep until the next poll is due, growing the delay for the poll after it.
+         *
+         * @throws DeviceFarmException if the deadline passed or the thread was interrupted
+         */
+        public void sleep() {
+
+            final long delay = nextDelay();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DeviceFarmException(String.format("Interrupted while waiting for %s", description), e);
+            }
+        }
+
+        /**
+         * Like {@link #sleep()}, but waking up early when the monitor is notified.
+         *
+         * @param monitor the monitor, held by the caller
+         * @throws DeviceFarmException if the deadline passed or the thread was interrupted
+         */
+        public void waitOn(final Object monitor) {
+
+            final long delay = nextDelay();
+            try {
+                monitor.wait(Math.max(1, delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DeviceFarmException(String.format("Interrupted while waiting for %s", description), e);
+            }
+        }
+
+        private long nextDelay() {
+
+            final long remainingMillis = timeoutMillis - getElapsedMillis();
+            if (remainingMillis <= 0) {
+                throw new DeviceFarmException(String.format("Timed out after %d ms waiting for %s (%d polls)",
+                        getElapsedMillis(), description, polls));
+            }
+
+            final long delay = Math.min(withJitter(nextDelayMillis), remainingMillis);
+            nextDelayMillis = grow(nextDelayMillis);
+            polls++;
+            return delay;
+        }
+
+        /**
+         * The last poll saw a change, poll again soon since more changes are likely.
+         */
+        public void progressed() {
+            nextDelayMillis = initialDelayMillis;
+        }
+
+        /**
+         * The last poll was throttled, back off one extra step before the next one.
+         */
+        public void throttled() {
+            throttles++;
+            nextDelayMillis = grow(nextDelayMillis);
+        }
+
+        /**
+         * @return number of polls made so far
+         */
+        public int getPolls() {
+            return polls;
+        }
+
+        /**
+         * @return number of polls rejected by throttling
+         */
+        public int getThrottles() {
+            return throttles;
+        }
+
+        /**
+         * @return time since the session started
+         */
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        private long grow(final long delayMillis) {
+            return Math.min(maxDelayMillis, (long) (delayMillis * multiplier));
+        }
+    }
+}
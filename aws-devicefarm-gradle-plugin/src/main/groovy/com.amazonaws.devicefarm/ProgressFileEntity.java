@@ -0,0 +1,140 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.io.ByteStreams;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams a file, or a byte range of it, through a fixed size buffer, reporting every chunk written.
+ */
+public class ProgressFileEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long offset;
+    private final long length;
+    private final TransferProgress progress;
+    private long written;
+
+    /**
+     * @param file        the file to send
+     * @param contentType content type of the request
+     * @param progress    notified of every chunk written
+     */
+    public ProgressFileEntity(final File file, final String contentType, final TransferProgress progress) {
+        this(file, 0, file.length(), contentType, progress);
+    }
+
+    /**
+     * @param file        the file to send
+     * @param offset      first byte sent
+     * @param length      number of bytes sent
+     * @param contentType content type of the request
+     * @param progress    notified of every chunk written, shared by the ranges of the file
+     */
+    public ProgressFileEntity(final File file, final long offset, final long length, final String contentType,
+                              final TransferProgress progress) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.progress = progress;
+        setContentType(contentType);
+    }
+
+    /**
+     * @return first byte sent
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return size of the whole file
+     */
+    public long getFileLength() {
+        return file.length();
+    }
+
+    /**
+     * @return true if only part of the file is sent
+     */
+    public boolean isRange() {
+        return offset != 0 || length != file.length();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final InputStream in = new FileInputStream(file);
+        ByteStreams.skipFully(in, offset);
+        return ByteStreams.limit(in, length);
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+
+        // Restart the counters if the request is retried, a range only takes back its own bytes
+        if (isRange()) {
+            progress.transferred(-written);
+        } else {
+            progress.start();
+        }
+        written = 0;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(offset);
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                final int read = channel.read(buffer);
+                if (read == -1) {
+                    throw new IOException(String.format("%s was truncated while being uploaded", file));
+                }
+                out.write(buffer.array(), 0, read);
+                buffer.clear();
+                remaining -= read;
+                written += read;
+                progress.transferred(read);
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes zips whose bytes only depend on the content of their entries: entries are sorted,
+ * have a fixed timestamp, and already compressed files are stored rather than deflated.
+ */
+public final class ReproducibleZip {
+
+    /**
+     * DOS timestamps hold local date fields, so a local calendar gives the same fields in every time zone.
+     * Same constant as the reproducible archives of Gradle.
+     */
+    private static final long ENTRY_TIME = new GregorianCalendar(1980, 1, 1, 0, 0, 0).getTimeInMillis();
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = ImmutableSet.of(
+            "7z", "aac", "apk", "bz2", "gif", "gz", "jar", "jpeg", "jpg", "m4a", "mkv", "mp3", "mp4",
+            "ogg", "png", "webm", "webp", "xz", "zip");
+
+    private ReproducibleZip() {
+    }
+
+    /**
+     * @param zip     the zip to write, replaced atomically
+     * @param entries files by their path in the zip, in order
+     */
+    public static void write(final File zip, final SortedMap<String, File> entries) {
+
+        final File tmp = new File(zip.getParentFile(), zip.getName() + ".tmp");
+        try {
+            Files.createDirectories(zip.getParentFile().toPath());
+
+            try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                for (Map.Entry<String, File> entry : entries.entrySet()) {
+                    writeEntry(out, entry.getKey(), entry.getValue());
+                }
+            }
+
+            Files.move(tmp.toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new DeviceFarmException(String.format("Unable to write %s", zip), e);
+        }
+    }
+
+    private static void writeEntry(final ZipOutputStream out, final String path, final File file) throws IOException {
+
+        final ZipEntry entry = new ZipEntry(path);
+        entry.setTime(ENTRY_TIME);
+
+        if (isCompressed(file)) {
+            // Stored entries need their size and checksum up front
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(file.length());
+            entry.setCompressedSize(file.length());
+            entry.setCrc(crc(file));
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+        }
+
+        out.putNextEntry(entry);
+        try (InputStream in = new FileInputStream(file)) {
+            ByteStreams.copy(in, out);
+        }
+        out.closeEntry();
+    }
+
+    private static boolean isCompressed(final File file) {
+        final String name = file.getName();
+        return COMPRESSED_EXTENSIONS.contains(name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static long crc(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
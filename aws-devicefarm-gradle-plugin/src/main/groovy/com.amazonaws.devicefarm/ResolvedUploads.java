@@ -0,0 +1,184 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Project;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Arns of everything a run needs, resolved and uploaded before scheduling.
+ * Saved by the upload task so the schedule task, or a later build, can use them.
+ */
+public class ResolvedUploads {
+
+    private static final String PROJECT_NAME = "project.name";
+    private static final String PROJECT_ARN = "project.arn";
+    private static final String APP_NAME = "app.name";
+    private static final String APP_ARN = "app.arn";
+    private static final String TEST_PACKAGE_ARN = "testPackage.arn";
+    private static final String TEST_SPEC_ARN = "testSpec.arn";
+    private static final String EXTRA_DATA_ARN = "extraData.arn";
+    private static final String AUX_APP_ARNS = "auxApps.arns";
+
+    private final Project project;
+    private final String appName;
+    private final String appArn;
+    private final String testPackageArn;
+    private final String testSpecArn;
+    private final String extraDataArn;
+    private final List<String> auxAppArns;
+
+    /**
+     * @param project        the Device Farm project
+     * @param appName        file name of the app, used to name runs
+     * @param appArn         the app
+     * @param testPackageArn the test package, or null
+     * @param testSpecArn    the test spec, or null
+     * @param extraDataArn   the extra data zip, or null
+     * @param auxAppArns     the auxiliary apps
+     */
+    public ResolvedUploads(final Project project, final String appName, final String appArn,
+                           final String testPackageArn, final String testSpecArn, final String extraDataArn,
+                           final List<String> auxAppArns) {
+        this.project = project;
+        this.appName = appName;
+        this.appArn = appArn;
+        this.testPackageArn = testPackageArn;
+        this.testSpecArn = testSpecArn;
+        this.extraDataArn = extraDataArn;
+        this.auxAppArns = Collections.unmodifiableList(Lists.newArrayList(auxAppArns));
+    }
+
+    public Project getProject() {
+        return project;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public String getAppArn() {
+        return appArn;
+    }
+
+    public String getTestPackageArn() {
+        return testPackageArn;
+    }
+
+    public String getTestSpecArn() {
+        return testSpecArn;
+    }
+
+    public String getExtraDataArn() {
+        return extraDataArn;
+    }
+
+    public List<String> getAuxAppArns() {
+        return auxAppArns;
+    }
+
+    /**
+     * @return every uploaded arn: app, test package, extra data and auxiliary apps
+     */
+    public List<String> getUploadArns() {
+        final List<String> arns = Lists.newArrayList();
+        for (String arn : Lists.newArrayList(appArn, testPackageArn, extraDataArn)) {
+            if (arn != null) {
+                arns.add(arn);
+            }
+        }
+        arns.addAll(auxAppArns);
+        return arns;
+    }
+
+    /**
+     * Write the arns, the same arns always give the same bytes.
+     *
+     * @param file the file
+     */
+    public void writeTo(final File file) {
+
+        final Properties properties = new Properties();
+        properties.setProperty(PROJECT_NAME, project.getName());
+        properties.setProperty(PROJECT_ARN, project.getArn());
+        properties.setProperty(APP_NAME, appName);
+        properties.setProperty(APP_ARN, appArn);
+        setIfPresent(properties, TEST_PACKAGE_ARN, testPackageArn);
+        setIfPresent(properties, TEST_SPEC_ARN, testSpecArn);
+        setIfPresent(properties, EXTRA_DATA_ARN, extraDataArn);
+        properties.setProperty(AUX_APP_ARNS, StringUtils.join(auxAppArns, ","));
+
+        try {
+            final StringWriter content = new StringWriter();
+            properties.store(content, null);
+
+            // Drop the timestamp comment and order the keys
+            final List<String> lines = Lists.newArrayList();
+            for (String line : content.toString().split("\\r?\\n")) {
+                if (!line.startsWith("#") && !line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            Collections.sort(lines);
+
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), lines, StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write uploads to %s", file), e);
+        }
+    }
+
+    /**
+     * @param file a file written by {@link #writeTo(File)}
+     * @return the arns
+     */
+    public static ResolvedUploads readFrom(final File file) {
+
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to read uploads from %s", file), e);
+        }
+
+        final String auxAppArns = properties.getProperty(AUX_APP_ARNS, "");
+        return new ResolvedUploads(
+                new Project().withName(properties.getProperty(PROJECT_NAME)).withArn(properties.getProperty(PROJECT_ARN)),
+                properties.getProperty(APP_NAME),
+                properties.getProperty(APP_ARN),
+                properties.getProperty(TEST_PACKAGE_ARN),
+                properties.getProperty(TEST_SPEC_ARN),
+                properties.getProperty(EXTRA_DATA_ARN),
+                auxAppArns.isEmpty() ? Collections.<String>emptyList() : Lists.newArrayList(auxAppArns.split(",")));
+    }
+
+    private static void setIfPresent(final Properties properties, final String key, final String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+}
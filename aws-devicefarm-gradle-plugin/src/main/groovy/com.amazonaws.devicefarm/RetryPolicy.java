@@ -0,0 +1,97 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.devicefarm.extension.ApiConfiguration;
+import com.amazonaws.retry.RetryUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Which failed API calls are tried again, and after how long.
+ * Delays use decorrelated jitter: each one is drawn between the base delay and three times the previous one,
+ * which spreads out the retries of builds throttled at the same moment.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts     times a call is tried
+     * @param baseDelayMillis smallest delay before a retry
+     * @param maxDelayMillis  largest delay before a retry
+     */
+    public RetryPolicy(final int maxAttempts, final long baseDelayMillis, final long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * @param configuration API DSL configuration
+     * @return the matching policy
+     */
+    public static RetryPolicy from(final ApiConfiguration configuration) {
+        return new RetryPolicy(configuration.getMaxAttempts(), configuration.getBaseDelayMillis(),
+                configuration.getMaxDelayMillis());
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param error an error thrown by the client
+     * @return true if the service rejected the call for exceeding a rate
+     */
+    public boolean isThrottling(final Throwable error) {
+        return error instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) error);
+    }
+
+    /**
+     * Throttled calls were not processed and are always safe to try again. Server errors and network failures
+     * may happen after the call took effect, so they are only retried for calls that can safely be repeated.
+     *
+     * @param error      an error thrown by the client
+     * @param idempotent true if making the call twice has the same effect as once
+     * @return true if trying again may succeed
+     */
+    public boolean isRetryable(final Throwable error, final boolean idempotent) {
+        if (isThrottling(error)) {
+            return true;
+        }
+        if (!idempotent) {
+            return false;
+        }
+        if (error instanceof AmazonServiceException) {
+            return RetryUtils.isRetryableServiceException((AmazonServiceException) error)
+                    || ((AmazonServiceException) error).getStatusCode() >= 500;
+        }
+        return error instanceof AmazonClientException && ((AmazonClientException) error).isRetryable();
+    }
+
+    /**
+     * @param previousDelayMillis the previous delay, 0 before the first retry
+     * @return delay before the next attempt
+     */
+    public long nextDelayMillis(final long previousDelayMillis) {
+        final long upper = Math.max(baseDelayMillis, previousDelayMillis * 3);
+        return Math.min(maxDelayMillis, baseDelayMillis + ThreadLocalRandom.current().nextLong(upper - baseDelayMillis + 1));
+    }
+}
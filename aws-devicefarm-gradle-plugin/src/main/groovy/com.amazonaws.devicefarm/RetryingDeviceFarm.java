@@ -0,0 +1,166 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.google.common.collect.ImmutableSet;
+import org.gradle.api.logging.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Central call layer of the Device Farm API: every call waits for the shared rate limiter, failures the
+ * {@link RetryPolicy} deems transient are retried with backoff, and counts and latencies are recorded per operation.
+ */
+public final class RetryingDeviceFarm implements InvocationHandler {
+
+    /**
+     * Client methods that are not calls to the service
+     */
+    private static final Set<String> LOCAL_METHODS = ImmutableSet.of("setEndpoint", "setRegion", "shutdown",
+            "getCachedResponseMetadata", "waiters");
+
+    /**
+     * Prefixes of the operations that create something, made twice they create it twice
+     */
+    private static final Set<String> NOT_IDEMPOTENT_PREFIXES = ImmutableSet.of("create", "schedule", "purchase",
+            "renew", "install");
+
+    private final AWSDeviceFarm client;
+    private final RetryPolicy policy;
+    private final TokenBucket rateLimiter;
+    private final ApiCallMetrics metrics;
+    private final Logger logger;
+
+    private RetryingDeviceFarm(final AWSDeviceFarm client, final RetryPolicy policy, final TokenBucket rateLimiter,
+                               final ApiCallMetrics metrics, final Logger logger) {
+        this.client = client;
+        this.policy = policy;
+        this.rateLimiter = rateLimiter;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * @param client      the client making the calls
+     * @param policy      which failures are retried and when
+     * @param rateLimiter limiter shared by the callers of the same account
+     * @param metrics     receives the metrics of every call
+     * @param logger      logger
+     * @return the wrapped client
+     */
+    public static AWSDeviceFarm wrap(final AWSDeviceFarm client, final RetryPolicy policy,
+                                     final TokenBucket rateLimiter, final ApiCallMetrics metrics, final Logger logger) {
+        return (AWSDeviceFarm) Proxy.newProxyInstance(AWSDeviceFarm.class.getClassLoader(),
+                new Class<?>[]{AWSDeviceFarm.class},
+                new RetryingDeviceFarm(client, policy, rateLimiter, metrics, logger));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        if (LOCAL_METHODS.contains(method.getName())) {
+            return call(method, args);
+        }
+
+        final String operation = method.getName();
+        final ApiCallMetrics.Operation operationMetrics = metrics.operation(operation);
+        final boolean idempotent = isIdempotent(operation);
+        final long startNanos = System.nanoTime();
+
+        // A span per call, its attempts and throttles add up in the metrics of the pipeline phases
+        try (Tracer.Span span = Tracer.child("api." + operation)) {
+            long delayMillis = 0;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    final long waitMillis = rateLimiter.acquire();
+                    operationMetrics.attempted(waitMillis);
+                    span.add("attempts", 1).add("rateLimitedMillis", waitMillis);
+                    final Object result = call(method, args);
+                    operationMetrics.completed(elapsedMillis(startNanos), false);
+                    return result;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    operationMetrics.completed(elapsedMillis(startNanos), true);
+                    throw new DeviceFarmException(String.format("Interrupted while calling %s", operation), e);
+                } catch (RuntimeException e) {
+
+                    final boolean throttled = policy.isThrottling(e);
+                    if (throttled) {
+                        operationMetrics.throttled();
+                        span.add("throttles", 1);
+                        rateLimiter.throttled();
+                    }
+
+                    if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(e, idempotent)) {
+                        operationMetrics.completed(elapsedMillis(startNanos), true);
+                        span.fail(e);
+                        throw e;
+                    }
+
+                    delayMillis = policy.nextDelayMillis(delayMillis);
+                    span.add("retries", 1);
+                    logger.info(String.format("Device Farm %s %s, retrying in %d ms (attempt %d of %d)", operation,
+                            throttled ? "throttled" : "failed: " + e.getMessage(), delayMillis, attempt,
+                            policy.getMaxAttempts()));
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        operationMetrics.completed(elapsedMillis(startNanos), true);
+                        throw new DeviceFarmException(String.format("Interrupted while retrying %s", operation), interrupted);
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean isIdempotent(final String operation) {
+        for (String prefix : NOT_IDEMPOTENT_PREFIXES) {
+            if (operation.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object call(final Method method, final Object[] args) {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new DeviceFarmException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new DeviceFarmException(e);
+        }
+    }
+
+    private static long elapsedMillis(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
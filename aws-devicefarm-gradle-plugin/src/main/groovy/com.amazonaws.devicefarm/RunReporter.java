@@ -0,0 +1,434 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.ArtifactCategory;
+import com.amazonaws.services.devicefarm.model.GetRunRequest;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.ListArtifactsRequest;
+import com.amazonaws.services.devicefarm.model.ListArtifactsResult;
+import com.amazonaws.services.devicefarm.model.ListJobsRequest;
+import com.amazonaws.services.devicefarm.model.ListJobsResult;
+import com.amazonaws.services.devicefarm.model.ListSuitesRequest;
+import com.amazonaws.services.devicefarm.model.ListSuitesResult;
+import com.amazonaws.services.devicefarm.model.ListTestsRequest;
+import com.amazonaws.services.devicefarm.model.ListTestsResult;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.gradle.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the outcome of completed runs: JUnit XML reports and, optionally, every artifact
+ * (logs, screenshots, videos, performance data) of every job, suite and test.
+ */
+public class RunReporter implements Closeable {
+
+    private static final String THREAD_NAME = "devicefarm-report";
+    private static final long TRANSFER_CHUNK_BYTES = 1024 * 1024;
+
+    private final AWSDeviceFarm api;
+    private final Logger logger;
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService executor;
+    private final DurationHistory history;
+
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    /**
+     * @param api         Device Farm client
+     * @param logger      logger
+     * @param httpClient  client used to download artifacts, closed with this reporter
+     * @param concurrency maximum number of jobs listed or artifacts downloaded at once
+     * @param history     where durations of runs, devices, suites and tests are recorded, or null
+     */
+    public RunReporter(final AWSDeviceFarm api, final Logger logger, final CloseableHttpClient httpClient,
+                       final int concurrency, final DurationHistory history) {
+        this.api = api;
+        this.logger = logger;
+        this.httpClient = httpClient;
+        this.history = history;
+        this.executor = DeviceFarmExecutors.newBoundedExecutor(THREAD_NAME, concurrency, concurrency * 4);
+    }
+
+    /**
+     * Report on completed runs.
+     *
+     * @param runArns           the runs
+     * @param junitDir          directory receiving one JUnit XML report per job
+     * @param artifactsDir      directory receiving the artifacts
+     * @param downloadArtifacts false to only write the JUnit reports
+     */
+    public void report(final List<String> runArns, final File junitDir, final File artifactsDir,
+                       final boolean downloadArtifacts) {
+
+        final List<Future<JobReport>> jobs = Lists.newArrayList();
+        final List<String> recordedRunArns = Lists.newArrayList();
+
+        for (String runArn : runArns) {
+            final Run run = api.getRun(new GetRunRequest().withArn(runArn)).getRun();
+            final File runDir = new File(artifactsDir, sanitize(run.getName() + "-" + idOf(runArn)));
+
+            // A run reported again, by a later report task, must not weigh twice in the history
+            final boolean recordDurations = history != null && !history.isRecorded(runArn);
+            if (recordDurations) {
+                recordDuration(DurationHistory.RUN, run.getName(), run.getStarted(), run.getStopped());
+                recordedRunArns.add(runArn);
+            }
+
+            for (final Job job : listJobs(run)) {
+                jobs.add(executor.submit(new Callable<JobReport>() {
+                    @Override
+                    public JobReport call() throws Exception {
+                        return collect(run, job, new File(runDir, sanitize(RunWatcher.deviceName(job))),
+                                downloadArtifacts, recordDurations);
+                    }
+                }));
+            }
+        }
+
+        final List<Future<Boolean>> downloads = Lists.newArrayList();
+        for (JobReport report : await(jobs)) {
+            final String device = RunWatcher.deviceName(report.job);
+            final File junitFile = new File(junitDir,
+                    String.format("TEST-%s.xml", sanitize(device + "-" + idOf(report.job.getArn()))));
+            JUnitReportWriter.write(junitFile, device, report.tests);
+
+            for (final Map.Entry<File, Artifact> artifact : report.artifacts.entrySet()) {
+                downloads.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return download(artifact.getValue(), artifact.getKey());
+                    }
+                }));
+            }
+        }
+        await(downloads);
+
+        if (history != null) {
+            for (String runArn : recordedRunArns) {
+                history.markRecorded(runArn);
+            }
+            history.flush();
+        }
+
+        logger.lifecycle(String.format("AWS Device Farm reports written to %s", junitDir));
+        if (downloadArtifacts) {
+            logger.lifecycle(String.format("Downloaded %d artifact(s) (%s) to %s, %d already present",
+                    downloaded.get(), TransferProgress.formatBytes(downloadedBytes.get()), artifactsDir, skipped.get()));
+        }
+    }
+
+    private JobReport collect(final Run run, final Job job, final File jobDir, final boolean downloadArtifacts,
+                              final boolean recordDurations) {
+
+        final JobReport report = new JobReport(job);
+        if (recordDurations) {
+            // By run name, naming the app, device pool and shard the jobs ran, whatever branch scheduled them
+            recordDuration(DurationHistory.JOB, SupersededRuns.nameWithoutKey(run.getName()),
+                    job.getStarted(), job.getStopped());
+        }
+
+        // Artifacts are placed at the deepest level they are listed at
+        final Set<String> seen = Sets.newHashSet();
+        // Names that sanitize alike, like those of parameterized tests, get directories of their own
+        final Set<String> suiteNames = Sets.newHashSet();
+
+        for (Suite suite : listSuites(job)) {
+            final File suiteDir = new File(jobDir, uniqueName(suiteNames, sanitize(suite.getName()), ""));
+            final List<Test> tests = listTests(suite);
+            report.tests.put(suite, tests);
+
+            if (recordDurations) {
+                recordDuration(DurationHistory.SUITE, suite.getName(), suite.getStarted(), suite.getStopped());
+                for (Test test : tests) {
+                    recordDuration(DurationHistory.TEST, suite.getName() + "#" + test.getName(),
+                            test.getStarted(), test.getStopped());
+                }
+            }
+
+            if (downloadArtifacts) {
+                final Set<String> testNames = Sets.newHashSet();
+                for (Test test : tests) {
+                    planArtifacts(report, test.getArn(),
+                            new File(suiteDir, uniqueName(testNames, sanitize(test.getName()), "")), seen);
+                }
+                planArtifacts(report, suite.getArn(), suiteDir, seen);
+            }
+        }
+
+        if (downloadArtifacts) {
+            planArtifacts(report, job.getArn(), jobDir, seen);
+        }
+
+        return report;
+    }
+
+    private void recordDuration(final String kind, final String name, final Date started, final Date stopped) {
+        if (history != null && name != null && started != null && stopped != null) {
+            history.record(kind, name, stopped.getTime() - started.getTime());
+        }
+    }
+
+    private void planArtifacts(final JobReport report, final String arn, final File directory, final Set<String> seen) {
+
+        final Set<String> names = Sets.newHashSet();
+
+        for (ArtifactCategory category : ArtifactCategory.values()) {
+            ListArtifactsRequest request = new ListArtifactsRequest().withArn(arn).withType(category);
+            do {
+                final ListArtifactsResult result = api.listArtifacts(request);
+                for (Artifact artifact : result.getArtifacts()) {
+                    if (!seen.add(artifact.getArn())) {
+                        continue;
+                    }
+
+                    final String extension = artifact.getExtension() == null ? "" : "." + artifact.getExtension();
+                    report.artifacts.put(new File(directory,
+                            uniqueName(names, sanitize(artifact.getName()), extension)), artifact);
+                }
+                request = result.getNextToken() == null ? null : new ListArtifactsRequest()
+                        .withArn(arn).withType(category).withNextToken(result.getNextToken());
+            } while (request != null);
+        }
+    }
+
+    /**
+     * @param names     names already taken, the returned one is added
+     * @param base      the name, without extension
+     * @param extension the extension with its dot, or an empty string
+     * @return the name, numbered if already taken
+     */
+    static String uniqueName(final Set<String> names, final String base, final String extension) {
+        String name = base + extension;
+        for (int i = 1; !names.add(name); i++) {
+            name = String.format("%s-%d%s", base, i, extension);
+        }
+        return name;
+    }
+
+    /**
+     * Download an artifact, streaming it straight to disk.
+     *
+     * @param artifact the artifact
+     * @param target   where to write it
+     * @return true if downloaded, false if it was already present
+     */
+    private boolean download(final Artifact artifact, final File target) throws IOException {
+
+        // The artifacts of a completed run never change, one already on disk with the same size is not downloaded
+        // again. A file of another size, truncated or left by another run, is replaced.
+        if (target.isFile()) {
+            final long size = sizeOf(artifact);
+            if (size == target.length()) {
+                skipped.incrementAndGet();
+                return false;
+            }
+            logger.info(String.format("%s has %d bytes instead of %d, downloading it again",
+                    target, target.length(), size));
+        }
+
+        final HttpGet get = new HttpGet(artifact.getUrl());
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new DeviceFarmException(String.format("Downloading %s returned %d", target.getName(), statusCode));
+            }
+
+            final HttpEntity entity = response.getEntity();
+
+            Files.createDirectories(target.getParentFile().toPath());
+            final File partial = new File(target.getParentFile(), target.getName() + ".part");
+
+            long position = 0;
+            try (InputStream in = entity.getContent();
+                 ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel out = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long transferred;
+                while ((transferred = out.transferFrom(source, position, TRANSFER_CHUNK_BYTES)) > 0) {
+                    position += transferred;
+                }
+            }
+
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            downloaded.incrementAndGet();
+            downloadedBytes.addAndGet(position);
+            return true;
+        }
+    }
+
+    /**
+     * Presigned urls only allow GET, the size is read from the Content-Range of a request for the first byte.
+     *
+     * @param artifact the artifact
+     * @return its size in bytes, -1 if unknown
+     */
+    private long sizeOf(final Artifact artifact) throws IOException {
+
+        final HttpGet get = new HttpGet(artifact.getUrl());
+        get.setHeader(HttpHeaders.RANGE, "bytes=0-0");
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_OK) {
+                // The range was ignored, the whole artifact follows: stop reading it
+                get.abort();
+                return response.getEntity() == null ? -1 : response.getEntity().getContentLength();
+            }
+
+            // bytes 0-0/1234, or bytes */0 when the artifact is empty
+            final Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+            if ((statusCode == HttpStatus.SC_PARTIAL_CONTENT
+                    || statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) && contentRange != null) {
+                final String total = contentRange.getValue().substring(contentRange.getValue().indexOf('/') + 1);
+                try {
+                    return Long.parseLong(total.trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private List<Job> listJobs(final Run run) {
+        final List<Job> jobs = Lists.newArrayList();
+        ListJobsRequest request = new ListJobsRequest().withArn(run.getArn());
+        do {
+            final ListJobsResult result = api.listJobs(request);
+            jobs.addAll(result.getJobs());
+            request = result.getNextToken() == null ? null
+                    : new ListJobsRequest().withArn(run.getArn()).withNextToken(result.getNextToken());
+        } while (request != null);
+        return jobs;
+    }
+
+    private List<Suite> listSuites(final Job job) {
+        final List<Suite> suites = Lists.newArrayList();
+        ListSuitesRequest request = new ListSuitesRequest().withArn(job.getArn());
+        do {
+            final ListSuitesResult result = api.listSuites(request);
+            suites.addAll(result.getSuites());
+            request = result.getNextToken() == null ? null
+                    : new ListSuitesRequest().withArn(job.getArn()).withNextToken(result.getNextToken());
+        } while (request != null);
+        return suites;
+    }
+
+    private List<Test> listTests(final Suite suite) {
+        final List<Test> tests = Lists.newArrayList();
+        ListTestsRequest request = new ListTestsRequest().withArn(suite.getArn());
+        do {
+            final ListTestsResult result = api.listTests(request);
+            tests.addAll(result.getTests());
+            request = result.getNextToken() == null ? null
+                    : new ListTestsRequest().withArn(suite.getArn()).withNextToken(result.getNextToken());
+        } while (request != null);
+        return tests;
+    }
+
+    private static <T> List<T> await(final List<Future<T>> futures) {
+        final List<T> results = Lists.newArrayList();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            if (e.getCause() instanceof DeviceFarmException) {
+                throw (DeviceFarmException) e.getCause();
+            }
+            throw new DeviceFarmException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeviceFarmException("Interrupted while collecting run reports", e);
+        }
+        return results;
+    }
+
+    private static String idOf(final String arn) {
+        return arn.substring(arn.lastIndexOf('/') + 1);
+    }
+
+    static String sanitize(final String name) {
+        return name == null ? "unnamed" : name.replaceAll("[^A-Za-z0-9._-]+", "_");
+    }
+
+    /**
+     * Release the download threads and HTTP connections.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.info(String.format("Error closing download HTTP client: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * What was collected for one job.
+     */
+    private static class JobReport {
+
+        private final Job job;
+        private final Map<Suite, List<Test>> tests = Maps.newLinkedHashMap();
+        private final Map<File, Artifact> artifacts = Maps.newLinkedHashMap();
+
+        private JobReport(final Job job) {
+            this.job = job;
+        }
+    }
+}
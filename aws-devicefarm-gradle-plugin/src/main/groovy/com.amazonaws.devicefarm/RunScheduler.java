@@ -0,0 +1,339 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.model.DevicePool;
+import com.amazonaws.services.devicefarm.model.DevicePoolCompatibilityResult;
+import com.amazonaws.services.devicefarm.model.ExecutionStatus;
+import com.amazonaws.services.devicefarm.model.GetAccountSettingsRequest;
+import com.amazonaws.services.devicefarm.model.GetDevicePoolCompatibilityRequest;
+import com.amazonaws.services.devicefarm.model.GetDevicePoolRequest;
+import com.amazonaws.services.devicefarm.model.GetRunRequest;
+import com.amazonaws.services.devicefarm.model.NotFoundException;
+import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.gradle.api.logging.Logger;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits runs so that the runs in flight never need more device slots than the account has, across every module
+ * and variant of the builds running in the Gradle daemon. Waiting runs are admitted by priority, then in order.
+ * A run holds its slots until it is seen completed, in-flight runs are checked while other runs wait.
+ */
+public final class RunScheduler {
+
+    private static final ConcurrentMap<String, RunScheduler> SHARED = new ConcurrentHashMap<String, RunScheduler>();
+    private static final long ACCOUNT_SETTINGS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Comparator<Ticket> ADMISSION_ORDER = new Comparator<Ticket>() {
+        @Override
+        public int compare(final Ticket a, final Ticket b) {
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>(11, ADMISSION_ORDER);
+    private final Set<Ticket> admitted = Sets.newHashSet();
+    private int usedSlots;
+
+    private int accountSlots;
+    private long accountSlotsReadAtMillis = -1;
+
+    private final Map<String, Integer> poolWeights = Maps.newHashMap();
+    private final Map<String, Long> poolWeightsReadAtMillis = Maps.newHashMap();
+
+    RunScheduler() {
+    }
+
+    /**
+     * @param scope    identifies the account, usually credentials and endpoint
+     * @param platform platform of the devices, ANDROID or IOS
+     * @return the scheduler of the daemon for the devices of this account and platform
+     */
+    public static RunScheduler shared(final String scope, final String platform) {
+        final String key = scope + "|" + platform;
+        RunScheduler scheduler = SHARED.get(key);
+        if (scheduler == null) {
+            SHARED.putIfAbsent(key, new RunScheduler());
+            scheduler = SHARED.get(key);
+        }
+        return scheduler;
+    }
+
+    /**
+     * @param api      Device Farm client
+     * @param platform platform of the devices, ANDROID or IOS
+     * @return the unmetered device slots of the account, unlimited if it has none
+     */
+    public synchronized int accountSlots(final AWSDeviceFarm api, final String platform) {
+
+        if (accountSlotsReadAtMillis < 0 || System.currentTimeMillis() - accountSlotsReadAtMillis >= ACCOUNT_SETTINGS_TTL_MILLIS) {
+            final Map<String, Integer> unmetered = api.getAccountSettings(new GetAccountSettingsRequest())
+                    .getAccountSettings().getUnmeteredDevices();
+            final Integer slots = unmetered == null ? null : unmetered.get(platform);
+            accountSlots = slots == null || slots <= 0 ? Integer.MAX_VALUE : slots;
+            accountSlotsReadAtMillis = System.currentTimeMillis();
+        }
+        return accountSlots;
+    }
+
+    /**
+     * A run takes one device slot per device it runs on: the max devices of its device selection or device pool,
+     * otherwise the devices of the pool compatible with the app.
+     *
+     * @param api     Device Farm client
+     * @param request the run to schedule
+     * @return the slots the run takes
+     */
+    public synchronized int weightOf(final AWSDeviceFarm api, final ScheduleRunRequest request) {
+
+        if (request.getDeviceSelectionConfiguration() != null) {
+            return request.getDeviceSelectionConfiguration().getMaxDevices();
+        }
+
+        final String key = request.getDevicePoolArn() + "|" + request.getAppArn();
+        final Long readAtMillis = poolWeightsReadAtMillis.get(key);
+        if (readAtMillis == null || System.currentTimeMillis() - readAtMillis >= ACCOUNT_SETTINGS_TTL_MILLIS) {
+            final DevicePool pool = api.getDevicePool(new GetDevicePoolRequest()
+                    .withArn(request.getDevicePoolArn())).getDevicePool();
+            poolWeights.put(key, pool.getMaxDevices() != null && pool.getMaxDevices() > 0
+                    ? pool.getMaxDevices() : compatibleDevices(api, request));
+            poolWeightsReadAtMillis.put(key, System.currentTimeMillis());
+        }
+        return poolWeights.get(key);
+    }
+
+    private static int compatibleDevices(final AWSDeviceFarm api, final ScheduleRunRequest request) {
+
+        final List<DevicePoolCompatibilityResult> compatible = api.getDevicePoolCompatibility(
+                new GetDevicePoolCompatibilityRequest()
+                        .withDevicePoolArn(request.getDevicePoolArn())
+                        .withAppArn(request.getAppArn())
+                        .withTest(request.getTest()))
+                .getCompatibleDevices();
+
+        int devices = 0;
+        for (DevicePoolCompatibilityResult result : compatible == null
+                ? Collections.<DevicePoolCompatibilityResult>emptyList() : compatible) {
+            if (Boolean.TRUE.equals(result.getCompatible())) {
+                devices++;
+            }
+        }
+        // The service rejects runs on a pool without compatible devices, hold a slot until it does
+        return Math.max(devices, 1);
+    }
+
+    /**
+     * @return slots held by the admitted runs
+     */
+    public synchronized int getUsedSlots() {
+        return usedSlots;
+    }
+
+    /**
+     * Wait until the run can be scheduled without exceeding the slots.
+     * A run needing more slots than there are is admitted alone.
+     *
+     * @param api      client checking whether in-flight runs completed
+     * @param slots    device slots shared by the runs
+     * @param weight   slots the run takes
+     * @param priority runs of higher priority are admitted first
+     * @param name     name of the run, for messages
+     * @param poll     how often in-flight runs are checked while waiting, its timeout bounds the wait
+     * @param logger   logger
+     * @return the admission, mark it started once scheduled and close it
+     * @throws DeviceFarmException if the wait timed out or was interrupted
+     */
+    public Ticket admit(final AWSDeviceFarm api, final int slots, final int weight, final int priority,
+                        final String name, final PollStrategy poll, final Logger logger) {
+
+        final Ticket ticket = new Ticket(name, Math.max(1, weight), priority, sequence.incrementAndGet());
+        final PollStrategy.Session session = poll.start(String.format("%d device slot(s) for run %s", ticket.weight, name));
+
+        synchronized (this) {
+            waiting.add(ticket);
+        }
+
+        try {
+            boolean logged = false;
+            while (true) {
+                final List<Ticket> inFlight;
+                synchronized (this) {
+                    if (tryAdmit(ticket, slots, session)) {
+                        return ticket;
+                    }
+                    if (!logged) {
+                        logger.lifecycle(String.format("Run %s waits for %d device slot(s), %d of %d in use, %d run(s) ahead",
+                                name, ticket.weight, usedSlots, slots, ahead(ticket)));
+                        logged = true;
+                    }
+                    // Only the first waiting run checks the runs in flight
+                    inFlight = waiting.peek() == ticket ? started() : Collections.<Ticket>emptyList();
+                }
+
+                if (releaseCompleted(api, inFlight)) {
+                    continue;
+                }
+
+                synchronized (this) {
+                    if (tryAdmit(ticket, slots, session)) {
+                        return ticket;
+                    }
+                    session.waitOn(this);
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                waiting.remove(ticket);
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private boolean tryAdmit(final Ticket ticket, final int slots, final PollStrategy.Session session) {
+
+        if (waiting.peek() != ticket || !(admitted.isEmpty() || usedSlots + ticket.weight <= slots)) {
+            return false;
+        }
+
+        waiting.poll();
+        admitted.add(ticket);
+        usedSlots += ticket.weight;
+        ticket.queuedMillis = session.getElapsedMillis();
+
+        // The next run may fit too
+        notifyAll();
+        return true;
+    }
+
+    private int ahead(final Ticket ticket) {
+        int ahead = 0;
+        for (Ticket other : waiting) {
+            if (ADMISSION_ORDER.compare(other, ticket) < 0) {
+                ahead++;
+            }
+        }
+        return ahead;
+    }
+
+    private List<Ticket> started() {
+        final List<Ticket> started = Lists.newArrayList();
+        for (Ticket ticket : admitted) {
+            if (ticket.runArn != null) {
+                started.add(ticket);
+            }
+        }
+        return started;
+    }
+
+    /**
+     * @return true if a run completed and released its slots
+     */
+    private boolean releaseCompleted(final AWSDeviceFarm api, final List<Ticket> inFlight) {
+
+        boolean released = false;
+        for (Ticket ticket : inFlight) {
+            try {
+                final String status = api.getRun(new GetRunRequest().withArn(ticket.runArn)).getRun().getStatus();
+                if (ExecutionStatus.COMPLETED.toString().equals(status)) {
+                    released |= release(ticket);
+                }
+            } catch (NotFoundException e) {
+                released |= release(ticket);
+            } catch (AmazonServiceException e) {
+                // Checked again on the next poll
+            }
+        }
+        return released;
+    }
+
+    private synchronized boolean release(final Ticket ticket) {
+        if (!admitted.remove(ticket)) {
+            return false;
+        }
+        usedSlots -= ticket.weight;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * The admission of a run. Closing it releases the slots unless the run was scheduled.
+     */
+    public final class Ticket implements Closeable {
+
+        private final String name;
+        private final int weight;
+        private final int priority;
+        private final long sequence;
+        private volatile String runArn;
+        private volatile long queuedMillis;
+
+        private Ticket(final String name, final int weight, final int priority, final long sequence) {
+            this.name = name;
+            this.weight = weight;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @param arn the scheduled run, holding the slots until it completes
+         */
+        public void started(final String arn) {
+            runArn = arn;
+        }
+
+        /**
+         * @return time spent waiting for slots
+         */
+        public long getQueuedMillis() {
+            return queuedMillis;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void close() {
+            if (runArn == null) {
+                release(this);
+            }
+        }
+    }
+}
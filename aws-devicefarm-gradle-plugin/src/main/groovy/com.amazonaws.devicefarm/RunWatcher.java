@@ -0,0 +1,193 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.ExecutionStatus;
+import com.amazonaws.services.devicefarm.model.GetRunRequest;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.ListJobsRequest;
+import com.amazonaws.services.devicefarm.model.ListJobsResult;
+import com.amazonaws.services.devicefarm.model.ListSuitesRequest;
+import com.amazonaws.services.devicefarm.model.ListSuitesResult;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gradle.api.logging.Logger;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows scheduled runs until they complete, streaming per device progress to the log.
+ * Jobs are only listed when their run changed, and suites only when their job changed.
+ */
+public class RunWatcher {
+
+    private final AWSDeviceFarm api;
+    private final Logger logger;
+    private final PollStrategy pollStrategy;
+
+    /**
+     * Last seen state of every run, job and suite, by arn.
+     */
+    private final Map<String, String> states = Maps.newHashMap();
+
+    /**
+     * @param api          Device Farm client
+     * @param logger       where progress is reported
+     * @param pollStrategy how often runs are checked, its timeout bounds the whole wait
+     */
+    public RunWatcher(final AWSDeviceFarm api, final Logger logger, final PollStrategy pollStrategy) {
+        this.api = api;
+        this.logger = logger;
+        this.pollStrategy = pollStrategy;
+    }
+
+    /**
+     * Wait for runs to complete.
+     *
+     * @param runs the runs to follow
+     * @return the completed runs, in the same order
+     */
+    public List<Run> watch(final List<Run> runs) {
+
+        final List<Run> current = Lists.newArrayList(runs);
+        final PollStrategy.Session poll = pollStrategy.start(String.format("%d run(s) to complete", runs.size()));
+
+        while (true) {
+            boolean changed = false;
+            boolean completed = true;
+
+            try {
+                for (int i = 0; i < current.size(); i++) {
+                    if (isCompleted(current.get(i))) {
+                        continue;
+                    }
+
+                    final Run run = api.getRun(new GetRunRequest().withArn(current.get(i).getArn())).getRun();
+                    current.set(i, run);
+
+                    if (hasChanged(run.getArn(), run.getStatus(), run.getResult(), run.getCounters())) {
+                        changed = true;
+                        logger.lifecycle(String.format("Run %s: %s %s", run.getName(), run.getStatus(),
+                                describe(run.getResult(), run.getCounters())));
+                        refreshJobs(run);
+                    }
+
+                    completed &= isCompleted(run);
+                }
+            } catch (AmazonServiceException e) {
+                if (!RetryUtils.isThrottlingException(e)) {
+                    throw e;
+                }
+                logger.info("Throttled while checking runs, backing off");
+                poll.throttled();
+                poll.sleep();
+                continue;
+            }
+
+            if (completed) {
+                logger.info(String.format("Runs completed after %d polls in %d ms",
+                        poll.getPolls(), poll.getElapsedMillis()));
+                return current;
+            }
+
+            if (changed) {
+                poll.progressed();
+            }
+            poll.sleep();
+        }
+    }
+
+    /**
+     * @param run a run
+     * @return true if the run finished successfully, with warnings or skipped tests at worst
+     */
+    public static boolean isSuccessful(final Run run) {
+        final String result = run.getResult();
+        return ExecutionResult.PASSED.toString().equals(result)
+                || ExecutionResult.WARNED.toString().equals(result)
+                || ExecutionResult.SKIPPED.toString().equals(result);
+    }
+
+    private static boolean isCompleted(final Run run) {
+        return ExecutionStatus.COMPLETED.toString().equals(run.getStatus());
+    }
+
+    private void refreshJobs(final Run run) {
+
+        ListJobsRequest request = new ListJobsRequest().withArn(run.getArn());
+        do {
+            final ListJobsResult result = api.listJobs(request);
+            for (Job job : result.getJobs()) {
+                if (hasChanged(job.getArn(), job.getStatus(), job.getResult(), job.getCounters())) {
+                    logger.lifecycle(String.format("  %s: %s %s", deviceName(job), job.getStatus(),
+                            describe(job.getResult(), job.getCounters())));
+                    refreshSuites(job);
+                }
+            }
+            request = result.getNextToken() == null ? null
+                    : new ListJobsRequest().withArn(run.getArn()).withNextToken(result.getNextToken());
+        } while (request != null);
+    }
+
+    private void refreshSuites(final Job job) {
+
+        ListSuitesRequest request = new ListSuitesRequest().withArn(job.getArn());
+        do {
+            final ListSuitesResult result = api.listSuites(request);
+            for (Suite suite : result.getSuites()) {
+                if (hasChanged(suite.getArn(), suite.getStatus(), suite.getResult(), suite.getCounters())) {
+                    logger.info(String.format("    %s / %s: %s %s", deviceName(job), suite.getName(),
+                            suite.getStatus(), describe(suite.getResult(), suite.getCounters())));
+                }
+            }
+            request = result.getNextToken() == null ? null
+                    : new ListSuitesRequest().withArn(job.getArn()).withNextToken(result.getNextToken());
+        } while (request != null);
+    }
+
+    private boolean hasChanged(final String arn, final String status, final String result, final Counters counters) {
+        final String state = status + "|" + result + "|" + counters;
+        return !state.equals(states.put(arn, state));
+    }
+
+    static String deviceName(final Job job) {
+        return job.getDevice() == null ? job.getName()
+                : String.format("%s (%s)", job.getDevice().getName(), job.getDevice().getOs());
+    }
+
+    private static String describe(final String result, final Counters counters) {
+
+        if (counters == null) {
+            return result == null ? "" : result;
+        }
+
+        return String.format("%s (%d passed, %d failed, %d errored, %d skipped of %d)",
+                result == null ? "" : result,
+                value(counters.getPassed()), value(counters.getFailed()), value(counters.getErrored()),
+                value(counters.getSkipped()), value(counters.getTotal()));
+    }
+
+    private static int value(final Integer counter) {
+        return counter == null ? 0 : counter;
+    }
+}
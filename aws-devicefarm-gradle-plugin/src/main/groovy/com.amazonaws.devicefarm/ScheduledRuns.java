@@ -0,0 +1,90 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Run;
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Arns of the runs scheduled by the build, one file per variant, so later tasks can report on them.
+ */
+public final class ScheduledRuns {
+
+    private static final String EXTENSION = ".txt";
+
+    private ScheduledRuns() {
+    }
+
+    /**
+     * Record the runs scheduled for a variant, replacing the previous ones.
+     *
+     * @param directory   directory holding the records
+     * @param variantName the variant
+     * @param runs        the scheduled runs
+     */
+    public static void record(final File directory, final String variantName, final List<Run> runs) {
+
+        final List<String> arns = Lists.newArrayList();
+        for (Run run : runs) {
+            if (run != null && run.getArn() != null) {
+                arns.add(run.getArn());
+            }
+        }
+
+        try {
+            Files.createDirectories(directory.toPath());
+            Files.write(new File(directory, variantName + EXTENSION).toPath(), arns, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to record scheduled runs in %s", directory), e);
+        }
+    }
+
+    /**
+     * Records of variants not scheduled by the current build are left out, they are from earlier builds.
+     *
+     * @param directory    directory holding the records
+     * @param variantNames the variants to read the runs of
+     * @return arns of the recorded runs of these variants, empty if none
+     */
+    public static List<String> read(final File directory, final Collection<String> variantNames) {
+
+        final List<String> arns = Lists.newArrayList();
+
+        for (String variantName : variantNames) {
+            final File file = new File(directory, variantName + EXTENSION);
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        arns.add(line.trim());
+                    }
+                }
+            } catch (IOException e) {
+                throw new DeviceFarmException(String.format("Unable to read scheduled runs from %s", file), e);
+            }
+        }
+
+        return arns;
+    }
+}
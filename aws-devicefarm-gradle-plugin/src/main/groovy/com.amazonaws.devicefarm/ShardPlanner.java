@@ -0,0 +1,100 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits tests into shards of similar duration.
+ * Tests are placed longest first on the least loaded shard, tests without a known duration
+ * weigh as much as the average known test.
+ */
+public final class ShardPlanner {
+
+    private ShardPlanner() {
+    }
+
+    /**
+     * @param tests     test classes or packages to split
+     * @param shards    maximum number of shards
+     * @param durations known duration of tests, in milliseconds, may be empty
+     * @return the tests of every shard, sorted, without empty shards
+     */
+    public static List<List<String>> plan(final List<String> tests, final int shards,
+                                          final Map<String, Long> durations) {
+
+        final long defaultDuration = averageDuration(tests, durations);
+
+        final List<String> ordered = Lists.newArrayList(tests);
+        // Sort by name first so that equal durations always land on the same shard
+        Collections.sort(ordered);
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(final String a, final String b) {
+                return Long.compare(duration(b, durations, defaultDuration), duration(a, durations, defaultDuration));
+            }
+        });
+
+        final int count = Math.max(1, Math.min(shards, ordered.size()));
+        final List<List<String>> plan = Lists.newArrayList();
+        final long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            plan.add(Lists.<String>newArrayList());
+        }
+
+        for (String test : ordered) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            plan.get(lightest).add(test);
+            loads[lightest] += duration(test, durations, defaultDuration);
+        }
+
+        final List<List<String>> result = Lists.newArrayList();
+        for (List<String> shard : plan) {
+            if (!shard.isEmpty()) {
+                Collections.sort(shard);
+                result.add(shard);
+            }
+        }
+        return result;
+    }
+
+    private static long averageDuration(final List<String> tests, final Map<String, Long> durations) {
+        long total = 0;
+        int known = 0;
+        for (String test : tests) {
+            final Long duration = durations.get(test);
+            if (duration != null) {
+                total += duration;
+                known++;
+            }
+        }
+        return known == 0 ? 1 : Math.max(1, total / known);
+    }
+
+    private static long duration(final String test, final Map<String, Long> durations, final long defaultDuration) {
+        final Long duration = durations.get(test);
+        return duration == null ? defaultDuration : duration;
+    }
+}
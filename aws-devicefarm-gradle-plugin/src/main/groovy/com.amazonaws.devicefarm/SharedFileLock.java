@@ -0,0 +1,84 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a file shared by the builds of several Gradle daemons, and by the threads of each daemon.
+ * A file lock alone is held by the whole JVM, so the threads of a daemon first queue on a lock of their own.
+ */
+final class SharedFileLock implements Closeable {
+
+    private static final ConcurrentMap<String, ReentrantLock> IN_PROCESS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final ReentrantLock inProcess;
+    private final RandomAccessFile file;
+    private final FileLock lock;
+
+    private SharedFileLock(final ReentrantLock inProcess, final RandomAccessFile file, final FileLock lock) {
+        this.inProcess = inProcess;
+        this.file = file;
+        this.lock = lock;
+    }
+
+    /**
+     * Wait for the lock.
+     *
+     * @param lockFile the file locked, created if needed. Keep it apart from the files it guards when those are
+     *                 replaced, a lock on a replaced file would no longer be seen by the others
+     * @return the lock, close it to release it
+     * @throws IOException if the file cannot be locked
+     */
+    static SharedFileLock acquire(final File lockFile) throws IOException {
+
+        Files.createDirectories(lockFile.getAbsoluteFile().getParentFile().toPath());
+
+        final String key = lockFile.getCanonicalPath();
+        IN_PROCESS.putIfAbsent(key, new ReentrantLock());
+        final ReentrantLock inProcess = IN_PROCESS.get(key);
+
+        inProcess.lock();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(lockFile, "rw");
+            return new SharedFileLock(inProcess, file, file.getChannel().lock());
+        } catch (IOException | RuntimeException e) {
+            if (file != null) {
+                file.close();
+            }
+            inProcess.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+            file.close();
+        } finally {
+            inProcess.unlock();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.model.ExecutionStatus;
+import com.amazonaws.services.devicefarm.model.ListRunsRequest;
+import com.amazonaws.services.devicefarm.model.ListRunsResult;
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.StopRunRequest;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.gradle.api.logging.Logger;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the runs made obsolete by a newer run of the same app and key, usually the branch being built.
+ * The key is appended to the run name, so runs scheduled without a key keep their name and are never stopped.
+ */
+public class SupersededRuns {
+
+    private static final String KEY_SEPARATOR = " #";
+
+    /**
+     * Runs are listed newest first, listing stops at the first page older than this
+     */
+    private static final long LOOKBACK_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final AWSDeviceFarm api;
+    private final Logger logger;
+
+    /**
+     * @param api    Device Farm client
+     * @param logger logger
+     */
+    public SupersededRuns(final AWSDeviceFarm api, final Logger logger) {
+        this.api = api;
+        this.logger = logger;
+    }
+
+    /**
+     * @param name name of a run
+     * @param key  the supersede key, or null
+     * @return the name of the run, tagged with the key if there is one
+     */
+    public static String nameWithKey(final String name, final String key) {
+        return key == null || key.isEmpty() ? name : name + KEY_SEPARATOR + key;
+    }
+
+    /**
+     * @param name name of a run, tagged with a key or not
+     * @return the name of the run without its key
+     */
+    public static String nameWithoutKey(final String name) {
+        final int separator = name.lastIndexOf(KEY_SEPARATOR);
+        return separator < 0 ? name : name.substring(0, separator);
+    }
+
+    /**
+     * @param run     a run of the project
+     * @param appName file name of the app
+     * @param key     the supersede key
+     * @return true if the run tests the same app with the same key
+     */
+    static boolean isSameKey(final Run run, final String appName, final String key) {
+        final String name = run.getName();
+        return name != null && name.startsWith(appName + " (Gradle)") && name.endsWith(KEY_SEPARATOR + key);
+    }
+
+    /**
+     * @param run a run
+     * @return true if the run is pending or running, and not already stopping
+     */
+    static boolean isActive(final Run run) {
+        return !ExecutionStatus.COMPLETED.toString().equals(run.getStatus())
+                && !ExecutionStatus.STOPPING.toString().equals(run.getStatus());
+    }
+
+    /**
+     * Stop the pending and running runs of the app scheduled with the same key by older builds.
+     * Only runs created before this build started and before the new runs are stopped: a newer build
+     * that scheduled first keeps its runs. Failures are logged, they never fail the build.
+     *
+     * @param project            the project
+     * @param appName            file name of the app
+     * @param key                the supersede key
+     * @param scheduled          the runs just scheduled
+     * @param buildStartedMillis when this build started
+     * @return the stopped runs
+     */
+    public List<Run> stop(final Project project, final String appName, final String key,
+                          final Collection<Run> scheduled, final long buildStartedMillis) {
+
+        final Set<String> keep = Sets.newHashSet();
+        long createdBefore = buildStartedMillis;
+        for (Run run : scheduled) {
+            keep.add(run.getArn());
+            if (run.getCreated() != null) {
+                createdBefore = Math.min(createdBefore, run.getCreated().getTime());
+            }
+        }
+
+        final List<Run> stopped = Lists.newArrayList();
+        try {
+            for (Run run : listRecentRuns(project)) {
+                if (keep.contains(run.getArn()) || !isActive(run) || !isSameKey(run, appName, key)
+                        || !isCreatedBefore(run, createdBefore)) {
+                    continue;
+                }
+                try {
+                    stopped.add(api.stopRun(new StopRunRequest().withArn(run.getArn())).getRun());
+                    logger.lifecycle(String.format("Stopped run %s superseded by this build, %s",
+                            run.getName(), run.getArn()));
+                } catch (AmazonServiceException e) {
+                    // The run may have completed meanwhile
+                    logger.warn(String.format("Unable to stop superseded run %s: %s", run.getName(), e.getMessage()));
+                }
+            }
+        } catch (AmazonServiceException e) {
+            logger.warn(String.format("Unable to list the runs superseded by this build: %s", e.getMessage()));
+        }
+        return stopped;
+    }
+
+    private static boolean isCreatedBefore(final Run run, final long millis) {
+        return run.getCreated() != null && run.getCreated().getTime() < millis;
+    }
+
+    private List<Run> listRecentRuns(final Project project) {
+
+        final long since = System.currentTimeMillis() - LOOKBACK_MILLIS;
+        final List<Run> runs = Lists.newArrayList();
+
+        String nextToken = null;
+        do {
+            final ListRunsResult result = api.listRuns(new ListRunsRequest()
+                    .withArn(project.getArn()).withNextToken(nextToken));
+            boolean recent = false;
+            for (Run run : result.getRuns()) {
+                runs.add(run);
+                recent |= run.getCreated() == null || run.getCreated().getTime() >= since;
+            }
+            nextToken = recent ? result.getNextToken() : null;
+        } while (nextToken != null);
+
+        return runs;
+    }
+}
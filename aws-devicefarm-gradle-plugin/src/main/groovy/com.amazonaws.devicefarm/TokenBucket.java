@@ -0,0 +1,81 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side rate limiter shared by the threads, and builds, calling the same account.
+ * Holds up to burst permits, refilled at a fixed rate. A throttled call empties the bucket
+ * so every caller slows down, not only the one that was throttled.
+ */
+public class TokenBucket {
+
+    private final double permitsPerSecond;
+    private final double burst;
+
+    private double permits;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond refill rate, 0 or less for no limit
+     * @param burst            maximum number of permits held
+     */
+    public TokenBucket(final double permitsPerSecond, final int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.permits = this.burst;
+    }
+
+    /**
+     * Take a permit, waiting for one if needed.
+     *
+     * @return time spent waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+
+        final long waitNanos;
+        synchronized (this) {
+            refill();
+            // Reserve the permit now, concurrent callers queue up behind it
+            permits -= 1;
+            waitNanos = permits >= 0 ? 0 : (long) (-permits / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * The service throttled a call, give up the permits held.
+     */
+    public synchronized void throttled() {
+        refill();
+        permits = Math.min(permits, 0);
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
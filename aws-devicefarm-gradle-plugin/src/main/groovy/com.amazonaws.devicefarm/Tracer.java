@@ -0,0 +1,366 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gradle.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timing spans of the upload and schedule pipeline.
+ * The span open on a thread is the parent of the spans started after it on that thread, and of the tasks
+ * wrapped with {@link #propagate(Callable)}. Helpers record their spans with {@link #child(String)}, which
+ * records nothing outside a pipeline.
+ */
+public class Tracer {
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<Span>();
+
+    private static final Span NOOP = new Span(null, 0, null, "noop", null);
+
+    private static final String METRIC_PREFIX = "devicefarm_phase_";
+
+    private final AtomicInteger ids = new AtomicInteger();
+    private final List<Span> spans = Collections.synchronizedList(Lists.<Span>newArrayList());
+
+    /**
+     * Start a span, child of the span open on this thread if it belongs to this tracer.
+     *
+     * @param name name of the phase
+     * @return the span, close it when the phase is over
+     */
+    public Span span(final String name) {
+        final Span current = CURRENT.get();
+        return start(current != null && current.tracer == this ? current : null, name);
+    }
+
+    /**
+     * @param name name of the phase
+     * @return a child of the span open on this thread, or a span recording nothing if there is none
+     */
+    public static Span child(final String name) {
+        final Span current = CURRENT.get();
+        return current == null || current.tracer == null ? NOOP : current.tracer.start(current, name);
+    }
+
+    /**
+     * @return the span open on this thread, or a span recording nothing if there is none
+     */
+    public static Span current() {
+        final Span current = CURRENT.get();
+        return current == null ? NOOP : current;
+    }
+
+    /**
+     * @param task a task run by another thread
+     * @return the task, running with the span open on this thread as its current span
+     */
+    public static <T> Callable<T> propagate(final Callable<T> task) {
+        final Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Span previous = CURRENT.get();
+                CURRENT.set(parent);
+                try {
+                    return task.call();
+                } finally {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    private Span start(final Span parent, final String name) {
+        final Span span = new Span(this, ids.incrementAndGet(), parent, name, CURRENT.get());
+        spans.add(span);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * @return every span started so far, in start order
+     */
+    public List<Span> getSpans() {
+        synchronized (spans) {
+            return Lists.newArrayList(spans);
+        }
+    }
+
+    /**
+     * Write the spans in the trace event format, readable by chrome://tracing and Perfetto.
+     *
+     * @param file the trace file
+     */
+    public void writeTrace(final File file) {
+
+        final List<Map<String, Object>> events = Lists.newArrayList();
+        final Map<String, Integer> threads = Maps.newLinkedHashMap();
+        for (Span span : getSpans()) {
+            if (!threads.containsKey(span.thread)) {
+                threads.put(span.thread, threads.size() + 1);
+                events.add(ImmutableMap.<String, Object>of("name", "thread_name", "ph", "M", "pid", 1,
+                        "tid", threads.get(span.thread), "args", ImmutableMap.of("name", span.thread)));
+            }
+
+            final Map<String, Object> args = Maps.newLinkedHashMap();
+            args.put("id", span.id);
+            args.put("parentId", span.parent == null ? null : span.parent.id);
+            args.putAll(span.getAttributes());
+
+            final Map<String, Object> event = Maps.newLinkedHashMap();
+            event.put("name", span.name);
+            event.put("ph", "X");
+            event.put("ts", TimeUnit.MILLISECONDS.toMicros(span.startEpochMillis));
+            event.put("dur", TimeUnit.NANOSECONDS.toMicros(span.getDurationNanos()));
+            event.put("pid", 1);
+            event.put("tid", threads.get(span.thread));
+            event.put("args", args);
+            events.add(event);
+        }
+
+        createParent(file);
+        try {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                    .writeValue(file, ImmutableMap.of("traceEvents", events, "displayTimeUnit", "ms"));
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write trace %s", file), e);
+        }
+    }
+
+    /**
+     * Write the totals of every phase in the Prometheus text format, for the node exporter textfile collector.
+     * Durations are summaries, numeric span attributes like bytes, retries or polls are counters.
+     *
+     * @param file the metrics file
+     */
+    public void writePrometheus(final File file) {
+
+        final SortedMap<String, Phase> phases = phases();
+        final StringBuilder out = new StringBuilder();
+
+        out.append("# HELP " + METRIC_PREFIX + "duration_seconds Time spent in the phases of the Device Farm pipeline\n");
+        out.append("# TYPE " + METRIC_PREFIX + "duration_seconds summary\n");
+        for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+            out.append(String.format(Locale.ROOT, "%sduration_seconds_sum{phase=\"%s\"} %.3f\n", METRIC_PREFIX, phase.getKey(),
+                    phase.getValue().totalNanos / 1e9));
+            out.append(String.format("%sduration_seconds_count{phase=\"%s\"} %d\n", METRIC_PREFIX, phase.getKey(),
+                    phase.getValue().count));
+        }
+
+        final SortedMap<String, SortedMap<String, Long>> counters = new TreeMap<String, SortedMap<String, Long>>();
+        for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+            for (Map.Entry<String, Long> counter : phase.getValue().counters.entrySet()) {
+                if (!counters.containsKey(counter.getKey())) {
+                    counters.put(counter.getKey(), new TreeMap<String, Long>());
+                }
+                counters.get(counter.getKey()).put(phase.getKey(), counter.getValue());
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, Long>> counter : counters.entrySet()) {
+            final String metric = METRIC_PREFIX + counter.getKey().replaceAll("[^A-Za-z0-9_]", "_") + "_total";
+            out.append(String.format("# TYPE %s counter\n", metric));
+            for (Map.Entry<String, Long> value : counter.getValue().entrySet()) {
+                out.append(String.format("%s{phase=\"%s\"} %d\n", metric, value.getKey(), value.getValue()));
+            }
+        }
+
+        createParent(file);
+        try {
+            Files.write(file.toPath(), out.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write metrics %s", file), e);
+        }
+    }
+
+    /**
+     * Log a table of the time spent per phase.
+     *
+     * @param logger the logger
+     */
+    public void logSummary(final Logger logger) {
+        logger.lifecycle(String.format("%-32s %6s %10s %10s %12s %8s %6s",
+                "Device Farm phase", "count", "total ms", "max ms", "bytes", "retries", "polls"));
+        for (Map.Entry<String, Phase> entry : phases().entrySet()) {
+            final Phase phase = entry.getValue();
+            logger.lifecycle(String.format("%-32s %6d %10d %10d %12s %8s %6s", entry.getKey(), phase.count,
+                    TimeUnit.NANOSECONDS.toMillis(phase.totalNanos), TimeUnit.NANOSECONDS.toMillis(phase.maxNanos),
+                    orDash(phase.counters.get("bytes")), orDash(phase.counters.get("retries")),
+                    orDash(phase.counters.get("polls"))));
+        }
+    }
+
+    private static String orDash(final Long value) {
+        return value == null ? "-" : value.toString();
+    }
+
+    private SortedMap<String, Phase> phases() {
+        final SortedMap<String, Phase> phases = new TreeMap<String, Phase>();
+        for (Span span : getSpans()) {
+            if (!phases.containsKey(span.name)) {
+                phases.put(span.name, new Phase());
+            }
+            phases.get(span.name).add(span);
+        }
+        return phases;
+    }
+
+    private static void createParent(final File file) {
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DeviceFarmException(String.format("Unable to create report directory %s", directory));
+        }
+    }
+
+    /**
+     * Totals of the spans of a phase.
+     */
+    private static class Phase {
+
+        private int count;
+        private long totalNanos;
+        private long maxNanos;
+        private final SortedMap<String, Long> counters = new TreeMap<String, Long>();
+
+        void add(final Span span) {
+            count++;
+            totalNanos += span.getDurationNanos();
+            maxNanos = Math.max(maxNanos, span.getDurationNanos());
+            if (span.getAttributes().containsKey("error")) {
+                increment("errors", 1);
+            }
+            for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+                if (attribute.getValue() instanceof Number) {
+                    increment(attribute.getKey(), ((Number) attribute.getValue()).longValue());
+                }
+            }
+        }
+
+        private void increment(final String counter, final long value) {
+            counters.put(counter, (counters.containsKey(counter) ? counters.get(counter) : 0L) + value);
+        }
+    }
+
+    /**
+     * A timed phase, with attributes like bytes sent, retries or polls.
+     */
+    public static class Span implements Closeable {
+
+        private final Tracer tracer;
+        private final int id;
+        private final Span parent;
+        private final String name;
+        private final Span previous;
+        private final String thread = Thread.currentThread().getName();
+        private final long startEpochMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Object> attributes = Maps.newLinkedHashMap();
+        private volatile long durationNanos = -1;
+
+        private Span(final Tracer tracer, final int id, final Span parent, final String name, final Span previous) {
+            this.tracer = tracer;
+            this.id = id;
+            this.parent = parent;
+            this.name = name;
+            this.previous = previous;
+        }
+
+        /**
+         * @param key   name of the attribute
+         * @param value its value, numbers are summed up per phase in the metrics
+         * @return this span
+         */
+        public synchronized Span set(final String key, final Object value) {
+            if (tracer != null) {
+                attributes.put(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * @param key   name of a numeric attribute
+         * @param delta added to its value
+         * @return this span
+         */
+        public synchronized Span add(final String key, final long delta) {
+            if (tracer != null) {
+                final Object value = attributes.get(key);
+                attributes.put(key, (value instanceof Number ? ((Number) value).longValue() : 0L) + delta);
+            }
+            return this;
+        }
+
+        /**
+         * @param error why the phase failed
+         */
+        public Span fail(final Throwable error) {
+            return set("error", error.getClass().getSimpleName());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized Map<String, Object> getAttributes() {
+            return Maps.newLinkedHashMap(attributes);
+        }
+
+        /**
+         * @return duration of the phase, up to now if it is still open
+         */
+        public long getDurationNanos() {
+            return durationNanos >= 0 ? durationNanos : System.nanoTime() - startNanos;
+        }
+
+        /**
+         * End the phase, its parent becomes the current span again.
+         */
+        @Override
+        public void close() {
+            if (tracer == null || durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+            if (CURRENT.get() == this) {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import org.gradle.api.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the bytes sent for one artifact, periodically logging throughput and estimated time left.
+ */
+public class TransferProgress {
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String name;
+    private final long totalBytes;
+    private final Logger logger;
+
+    private long startNanos;
+    private long lastReportNanos;
+    private long transferredBytes;
+    private long elapsedNanos;
+
+    /**
+     * @param name       name of the artifact, used in messages
+     * @param totalBytes size of the artifact
+     * @param logger     where progress is reported
+     */
+    public TransferProgress(final String name, final long totalBytes, final Logger logger) {
+        this.name = name;
+        this.totalBytes = totalBytes;
+        this.logger = logger;
+        start();
+    }
+
+    /**
+     * (Re)start the transfer.
+     */
+    public synchronized void start() {
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        transferredBytes = 0;
+        elapsedNanos = 0;
+    }
+
+    /**
+     * @param bytes number of bytes just sent
+     */
+    public synchronized void transferred(final long bytes) {
+
+        transferredBytes += bytes;
+
+        final long now = System.nanoTime();
+        elapsedNanos = now - startNanos;
+
+        if (now - lastReportNanos >= REPORT_INTERVAL_NANOS && transferredBytes < totalBytes) {
+            lastReportNanos = now;
+            final double bytesPerSecond = getBytesPerSecond();
+            final long etaSeconds = bytesPerSecond > 0
+                    ? (long) ((totalBytes - transferredBytes) / bytesPerSecond) : -1;
+            logger.lifecycle(String.format("Uploading %s: %d%% (%s of %s) at %s/s, %s left",
+                    name, transferredBytes * 100 / Math.max(1, totalBytes),
+                    formatBytes(transferredBytes), formatBytes(totalBytes), formatBytes((long) bytesPerSecond),
+                    etaSeconds < 0 ? "unknown time" : etaSeconds + "s"));
+        }
+    }
+
+    /**
+     * @return bytes sent so far
+     */
+    public synchronized long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * @return time between the start of the transfer and the last chunk sent
+     */
+    public synchronized long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return average throughput of the transfer
+     */
+    public synchronized double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : transferredBytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @param bytes a number of bytes
+     * @return human readable size
+     */
+    static String formatBytes(final long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
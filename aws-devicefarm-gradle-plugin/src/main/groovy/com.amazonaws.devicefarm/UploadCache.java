@@ -0,0 +1,192 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Persistent record of successful uploads, keyed by artifact content, upload type and project.
+ * Lets the uploader reuse an existing upload instead of sending identical bytes again.
+ * The file is shared by every build using the same directory, each change is merged into it under a lock.
+ */
+public class UploadCache {
+
+    private static final String CACHE_FILE_NAME = "upload-cache.properties";
+    private static final String LOCK_FILE_NAME = CACHE_FILE_NAME + ".lock";
+
+    private final File cacheFile;
+    private final Properties entries = new Properties();
+    private boolean loaded = false;
+
+    /**
+     * @param directory directory holding the cache file, created on first write
+     */
+    public UploadCache(final File directory) {
+        this.cacheFile = new File(directory, CACHE_FILE_NAME);
+    }
+
+    /**
+     * Compute the cache key of an artifact.
+     *
+     * @param file       the artifact
+     * @param project    the project it is uploaded to
+     * @param uploadType the upload type
+     * @return cache key
+     */
+    public String keyFor(final File file, final Project project, final UploadType uploadType) {
+        return String.format("%s|%s|%s", project.getArn(), uploadType, digest(file));
+    }
+
+    /**
+     * Key of an artifact without a cache, from its path, size and modification time, so the file is not read.
+     *
+     * @param file       the artifact
+     * @param project    the project it is uploaded to
+     * @param uploadType the upload type
+     * @return key identifying the artifact file, upload type and project
+     */
+    public static String fileKey(final File file, final Project project, final UploadType uploadType) {
+        return String.format("%s|%s|%s|%d|%d", project.getArn(), uploadType, file.getAbsolutePath(),
+                file.length(), file.lastModified());
+    }
+
+    /**
+     * @param key cache key
+     * @return the upload arn recorded for this key, or null if none
+     */
+    public synchronized String get(final String key) {
+        load();
+        return entries.getProperty(key);
+    }
+
+    /**
+     * Record a successful upload.
+     *
+     * @param key       cache key
+     * @param uploadArn arn of the upload
+     */
+    public synchronized void put(final String key, final String uploadArn) {
+        update(key, uploadArn);
+    }
+
+    /**
+     * Forget an upload that can no longer be reused.
+     *
+     * @param key cache key
+     */
+    public synchronized void remove(final String key) {
+        update(key, null);
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        read();
+    }
+
+    private void read() {
+
+        entries.clear();
+        if (!cacheFile.isFile()) {
+            return;
+        }
+
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            entries.load(in);
+        } catch (IOException e) {
+            // A corrupt cache only costs a re-upload
+            entries.clear();
+        }
+    }
+
+    /**
+     * Apply one change to the entries on disk, which other builds may have changed since they were loaded.
+     *
+     * @param key       cache key
+     * @param uploadArn the new upload arn, or null to remove the entry
+     */
+    private void update(final String key, final String uploadArn) {
+
+        final File directory = cacheFile.getParentFile();
+        try (SharedFileLock ignored = SharedFileLock.acquire(new File(directory, LOCK_FILE_NAME))) {
+            read();
+            loaded = true;
+            final Object previous = uploadArn == null ? entries.remove(key) : entries.setProperty(key, uploadArn);
+            if (!Objects.equals(previous, uploadArn)) {
+                store(directory);
+            }
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write upload cache %s", cacheFile), e);
+        }
+    }
+
+    private void store(final File directory) throws IOException {
+
+        // Write then move so concurrent builds never read a partial file
+        final Path tmp = Files.createTempFile(directory.toPath(), CACHE_FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                entries.store(out, "AWS Device Farm upload cache");
+            }
+            Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * SHA-256 of the file content, hex encoded.
+     *
+     * @param file the file
+     * @return hex digest
+     */
+    static String digest(final File file) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new DeviceFarmException(e);
+        }
+
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to read %s", file), e);
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
+}
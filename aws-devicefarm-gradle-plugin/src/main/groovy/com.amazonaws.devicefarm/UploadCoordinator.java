@@ -0,0 +1,191 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.devicefarm.model.Upload;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent uploads of the same artifact to the same project into a single one, across every module
+ * and variant of the builds running in the Gradle daemon. The first caller uploads, the others wait for its
+ * upload and share it. Only uploads in progress are tracked, finished ones are found through the upload cache.
+ * Sharing does not change how an upload fails: when the leader is interrupted, for instance because its own
+ * module failed, the callers waiting for it upload themselves instead of failing with it.
+ */
+public final class UploadCoordinator {
+
+    private static final UploadCoordinator SHARED = new UploadCoordinator();
+
+    private final ConcurrentMap<String, FutureTask<Upload>> inFlight = new ConcurrentHashMap<String, FutureTask<Upload>>();
+
+    UploadCoordinator() {
+    }
+
+    /**
+     * @return the coordinator of the daemon
+     */
+    public static UploadCoordinator shared() {
+        return SHARED;
+    }
+
+    /**
+     * Upload, or join the upload of the same artifact already in progress.
+     *
+     * @param key    identifies the artifact content, upload type and project
+     * @param upload makes the upload, only called if none is in progress
+     * @return the flight, the caller uploaded if it is the leader
+     */
+    public Flight join(final String key, final Callable<Upload> upload) {
+        final Flight flight = new Flight(this, key, upload);
+        flight.leadOrFollow();
+        return flight;
+    }
+
+    /**
+     * @return the upload, failing with {@link LeaderInterruptedException} if the thread making it is interrupted
+     */
+    private static FutureTask<Upload> newTask(final Callable<Upload> upload) {
+        return new FutureTask<Upload>(new Callable<Upload>() {
+            @Override
+            public Upload call() throws Exception {
+                try {
+                    return upload.call();
+                } catch (Exception e) {
+                    if (Thread.currentThread().isInterrupted() || isInterruption(e)) {
+                        throw new LeaderInterruptedException(e);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private static boolean isInterruption(final Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof ClosedByInterruptException
+                    || cause instanceof AbortedException
+                    || cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Failure of an upload whose thread was interrupted, the callers that joined it upload again.
+     */
+    private static class LeaderInterruptedException extends Exception {
+
+        LeaderInterruptedException(final Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * An upload in progress and whether the caller is the one making it.
+     */
+    public static class Flight {
+
+        private final UploadCoordinator coordinator;
+        private final String key;
+        private final Callable<Upload> call;
+        private Future<Upload> upload;
+        private boolean leader;
+
+        private Flight(final UploadCoordinator coordinator, final String key, final Callable<Upload> call) {
+            this.coordinator = coordinator;
+            this.key = key;
+            this.call = call;
+        }
+
+        private void leadOrFollow() {
+
+            final FutureTask<Upload> task = newTask(call);
+            while (true) {
+                final FutureTask<Upload> existing = coordinator.inFlight.putIfAbsent(key, task);
+                if (existing == null) {
+                    break;
+                }
+                if (!existing.isDone()) {
+                    upload = existing;
+                    leader = false;
+                    return;
+                }
+                // Finished but not removed yet by its leader
+                if (coordinator.inFlight.replace(key, existing, task)) {
+                    break;
+                }
+            }
+
+            try {
+                task.run();
+            } finally {
+                coordinator.inFlight.remove(key, task);
+            }
+            upload = task;
+            leader = true;
+        }
+
+        /**
+         * @return true if this caller made the upload, false if it joined another one
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Wait for the upload. When the leader was interrupted, the caller uploads again instead.
+         *
+         * @return the upload once processed
+         * @throws DeviceFarmException if the upload failed
+         */
+        public Upload await() {
+            while (true) {
+                try {
+                    return upload.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof LeaderInterruptedException) {
+                        if (!leader) {
+                            leadOrFollow();
+                            continue;
+                        }
+                        throw rethrow(e.getCause().getCause());
+                    }
+                    throw rethrow(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DeviceFarmException("Interrupted while waiting for an upload", e);
+                }
+            }
+        }
+
+        private static RuntimeException rethrow(final Throwable cause) {
+            if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            }
+            return new DeviceFarmException(cause);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Records the ranges of large uploads already received, so an interrupted build resumes where it stopped.
+ * One file per artifact, deleted once its upload is complete.
+ */
+public class UploadJournal {
+
+    private static final String ARN = "arn";
+    private static final String URL = "url";
+    private static final String LENGTH = "length";
+    private static final String RANGE_SIZE = "rangeSize";
+    private static final String COMPLETED = "completed";
+
+    private final File directory;
+
+    /**
+     * @param directory directory holding the journal files, created on first write
+     */
+    public UploadJournal(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param key key of the artifact
+     * @return the journaled upload, or null if none
+     */
+    public synchronized Entry get(final String key) {
+
+        final File file = fileOf(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            final Set<Integer> completed = new TreeSet<Integer>();
+            for (String range : Splitter.on(',').omitEmptyStrings().split(properties.getProperty(COMPLETED, ""))) {
+                completed.add(Integer.valueOf(range));
+            }
+            return new Entry(properties.getProperty(ARN), properties.getProperty(URL),
+                    Long.parseLong(properties.getProperty(LENGTH)), Long.parseLong(properties.getProperty(RANGE_SIZE)),
+                    completed);
+        } catch (IOException | RuntimeException e) {
+            // A corrupt journal only costs a restart from the first range
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Start journaling an upload, forgetting any previous one of the artifact.
+     *
+     * @param key       key of the artifact
+     * @param arn       arn of the upload
+     * @param url       url receiving the ranges
+     * @param length    size of the artifact
+     * @param rangeSize size of the ranges
+     */
+    public synchronized void start(final String key, final String arn, final String url, final long length,
+                                   final long rangeSize) {
+        store(key, new Entry(arn, url, length, rangeSize, Collections.<Integer>emptySet()));
+    }
+
+    /**
+     * Record a range received by the upload url.
+     *
+     * @param key   key of the artifact
+     * @param range index of the range
+     */
+    public synchronized void completed(final String key, final int range) {
+        final Entry entry = get(key);
+        if (entry != null) {
+            final Set<Integer> completed = new TreeSet<Integer>(entry.getCompleted());
+            completed.add(range);
+            store(key, new Entry(entry.getArn(), entry.getUrl(), entry.getLength(), entry.getRangeSize(), completed));
+        }
+    }
+
+    /**
+     * Forget the upload of an artifact, once complete or no longer usable.
+     *
+     * @param key key of the artifact
+     */
+    public synchronized void remove(final String key) {
+        fileOf(key).delete();
+    }
+
+    private void store(final String key, final Entry entry) {
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DeviceFarmException(String.format("Unable to create upload journal directory %s", directory));
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(ARN, entry.getArn());
+        properties.setProperty(URL, entry.getUrl());
+        properties.setProperty(LENGTH, Long.toString(entry.getLength()));
+        properties.setProperty(RANGE_SIZE, Long.toString(entry.getRangeSize()));
+        properties.setProperty(COMPLETED, Joiner.on(',').join(entry.getCompleted()));
+
+        // Write then rename so an interrupted build never leaves a partial file
+        final File file = fileOf(key);
+        final File tmp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, "AWS Device Farm upload journal");
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write upload journal %s", file), e);
+        }
+
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new DeviceFarmException(String.format("Unable to write upload journal %s", file));
+            }
+        }
+    }
+
+    private File fileOf(final String key) {
+        return new File(directory, DigestUtils.sha256Hex(key) + ".properties");
+    }
+
+    /**
+     * An upload waiting for some of its ranges.
+     */
+    public static class Entry {
+
+        private final String arn;
+        private final String url;
+        private final long length;
+        private final long rangeSize;
+        private final Set<Integer> completed;
+
+        Entry(final String arn, final String url, final long length, final long rangeSize,
+              final Set<Integer> completed) {
+            this.arn = arn;
+            this.url = url;
+            this.length = length;
+            this.rangeSize = rangeSize;
+            this.completed = Collections.unmodifiableSet(completed);
+        }
+
+        public String getArn() {
+            return arn;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getRangeSize() {
+            return rangeSize;
+        }
+
+        /**
+         * @return indexes of the ranges already received
+         */
+        public Set<Integer> getCompleted() {
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Per artifact transfer statistics of a build, written as JSON to the build reports.
+ */
+public class UploadReport {
+
+    private final List<Entry> entries = Lists.newArrayList();
+
+    /**
+     * @param entry statistics of one artifact
+     */
+    public synchronized void add(final Entry entry) {
+        entries.add(entry);
+    }
+
+    /**
+     * @return statistics recorded so far
+     */
+    public synchronized List<Entry> getEntries() {
+        return Lists.newArrayList(entries);
+    }
+
+    /**
+     * Write the report, replacing any previous one.
+     *
+     * @param file the report file
+     */
+    public void writeTo(final File file) {
+
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DeviceFarmException(String.format("Unable to create report directory %s", directory));
+        }
+
+        try {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, getEntries());
+        } catch (IOException e) {
+            throw new DeviceFarmException(String.format("Unable to write upload report %s", file), e);
+        }
+    }
+
+    /**
+     * Statistics of a single artifact.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final String uploadType;
+        private final long bytes;
+        private final boolean cached;
+        private final long transferMillis;
+        private final double bytesPerSecond;
+        private final int polls;
+        private final long processingMillis;
+
+        public Entry(final String name, final String uploadType, final long bytes, final boolean cached,
+                     final long transferMillis, final double bytesPerSecond,
+                     final int polls, final long processingMillis) {
+            this.name = name;
+            this.uploadType = uploadType;
+            this.bytes = bytes;
+            this.cached = cached;
+            this.transferMillis = transferMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            this.polls = polls;
+            this.processingMillis = processingMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUploadType() {
+            return uploadType;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public boolean isCached() {
+            return cached;
+        }
+
+        public long getTransferMillis() {
+            return transferMillis;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public int getPolls() {
+            return polls;
+        }
+
+        public long getProcessingMillis() {
+            return processingMillis;
+        }
+    }
+}
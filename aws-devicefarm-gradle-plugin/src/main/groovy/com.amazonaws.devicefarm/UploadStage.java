@@ -0,0 +1,165 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Uploads all artifacts of a run concurrently.
+ * Artifacts are submitted up front, then awaited together; the first failure cancels the rest.
+ * The stages of every module and variant of the daemon share one pool, so the concurrency limit is global.
+ */
+public class UploadStage {
+
+    private static final String THREAD_NAME = "devicefarm-upload";
+
+    private static ThreadPoolExecutor sharedExecutor;
+
+    private final DeviceFarmUploader uploader;
+    private final Project project;
+    private final CompletionService<Upload> completionService;
+    private final List<Future<Upload>> futures = Lists.newArrayList();
+
+    /**
+     * @param uploader      the uploader
+     * @param project       the project to upload to
+     * @param concurrency   maximum number of artifacts uploaded at once in the daemon
+     * @param queueCapacity maximum number of artifacts waiting for an upload thread, fixed by the first stage
+     */
+    public UploadStage(final DeviceFarmUploader uploader, final Project project,
+                       final int concurrency, final int queueCapacity) {
+        this.uploader = uploader;
+        this.project = project;
+        this.completionService = new ExecutorCompletionService<Upload>(sharedExecutor(concurrency, queueCapacity));
+    }
+
+    /**
+     * @return the pool of the daemon, sized to the concurrency configured last
+     */
+    private static synchronized ThreadPoolExecutor sharedExecutor(final int concurrency, final int queueCapacity) {
+
+        if (sharedExecutor == null) {
+            sharedExecutor = DeviceFarmExecutors.newBoundedExecutor(THREAD_NAME, concurrency, queueCapacity);
+            return sharedExecutor;
+        }
+
+        // The core size may never exceed the maximum size, even in between
+        final int threads = Math.max(1, concurrency);
+        if (threads > sharedExecutor.getMaximumPoolSize()) {
+            sharedExecutor.setMaximumPoolSize(threads);
+            sharedExecutor.setCorePoolSize(threads);
+        } else {
+            sharedExecutor.setCorePoolSize(threads);
+            sharedExecutor.setMaximumPoolSize(threads);
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Start uploading an artifact.
+     *
+     * @param file       the artifact
+     * @param uploadType the upload type
+     * @return pending upload, resolve it with {@link #get(Future)} after {@link #await()}
+     */
+    public Future<Upload> submit(final File file, final UploadType uploadType) {
+
+        // The upload spans are children of the span of the caller
+        final Future<Upload> future = completionService.submit(Tracer.propagate(new Callable<Upload>() {
+            @Override
+            public Upload call() throws Exception {
+                return uploader.upload(file, project, uploadType);
+            }
+        }));
+
+        futures.add(future);
+        return future;
+    }
+
+    /**
+     * Wait for every submitted upload to complete.
+     * As soon as one fails the remaining uploads are cancelled and the failure is rethrown.
+     */
+    public void await() {
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                final Future<Upload> done = completionService.take();
+                try {
+                    done.get();
+                } catch (ExecutionException e) {
+                    cancelAll();
+                    throw asDeviceFarmException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll();
+            Thread.currentThread().interrupt();
+            throw new DeviceFarmException("Interrupted while waiting for uploads", e);
+        }
+    }
+
+    /**
+     * @param future an upload returned by {@link #submit(File, UploadType)}
+     * @return the completed upload, or null if future is null
+     */
+    public Upload get(final Future<Upload> future) {
+
+        if (future == null) {
+            return null;
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw asDeviceFarmException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeviceFarmException("Interrupted while waiting for uploads", e);
+        }
+    }
+
+    /**
+     * Abandon the stage, cancelling every upload still in progress.
+     */
+    public void cancel() {
+        cancelAll();
+    }
+
+    private void cancelAll() {
+        for (Future<Upload> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static DeviceFarmException asDeviceFarmException(final Throwable cause) {
+        if (cause instanceof DeviceFarmException) {
+            return (DeviceFarmException) cause;
+        }
+        return new DeviceFarmException(cause);
+    }
+}
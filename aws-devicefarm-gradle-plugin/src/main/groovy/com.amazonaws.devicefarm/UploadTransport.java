@@ -0,0 +1,43 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import java.io.IOException;
+
+/**
+ * Moves artifact bytes to the url returned by CreateUpload.
+ * A transport accepting byte ranges lets large artifacts be sent as parallel ranges, each retried and resumed alone.
+ */
+public interface UploadTransport {
+
+    /**
+     * @param url the upload url
+     * @return true if the url accepts byte ranges
+     */
+    boolean acceptsRanges(String url);
+
+    /**
+     * Send a file or a byte range of it.
+     *
+     * @param url         the upload url
+     * @param contentType content type of the upload
+     * @param entity      the bytes to send
+     * @param md5         base64 MD5 of the bytes, checked by the receiver, or null
+     * @return true once the url holds the whole file
+     * @throws IOException         if sending failed and may succeed if tried again
+     * @throws DeviceFarmException if sending can not succeed
+     */
+    boolean put(String url, String contentType, ProgressFileEntity entity, String md5) throws IOException;
+}
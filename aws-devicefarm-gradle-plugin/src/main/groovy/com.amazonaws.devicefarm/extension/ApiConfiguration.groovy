@@ -0,0 +1,57 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Retries and rate limiting of the Device Farm API calls
+ */
+class ApiConfiguration {
+
+    /**
+     * Times a call is tried before the build fails
+     */
+    int maxAttempts = 8
+
+    /**
+     * Smallest delay before a retry
+     */
+    long baseDelayMillis = 250
+
+    /**
+     * Largest delay before a retry
+     */
+    long maxDelayMillis = 20000
+
+    /**
+     * Calls per second allowed to every build of the Gradle daemon using the same account, 0 disables the limit
+     */
+    double requestsPerSecond = 10
+
+    /**
+     * Calls allowed at once after an idle period
+     */
+    int burst = 20
+
+    //These methods make the '=' optional when configuring the plugin
+    void maxAttempts(int val) { maxAttempts = val }
+
+    void baseDelayMillis(long val) { baseDelayMillis = val }
+
+    void maxDelayMillis(long val) { maxDelayMillis = val }
+
+    void requestsPerSecond(double val) { requestsPerSecond = val }
+
+    void burst(int val) { burst = val }
+}
@@ -15,6 +15,7 @@
 package com.amazonaws.devicefarm.extension
 
 import com.amazonaws.services.devicefarm.model.TestType
+import com.amazonaws.services.devicefarm.model.UploadType
 
 /**
  * Any configured test types must implement
@@ -55,5 +56,42 @@ abstract class ConfiguredTest {
         return null;
     }
 
+    String getTestSpecArn() {
+        if (this instanceof CustomMode) {
+            return ((CustomMode) this).getTestSpecArn();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return number of runs the tests are split across, 1 if this test cannot be sharded
+     */
+    int getShards() {
+        if (this instanceof HasShards) {
+            return Math.max(1, ((HasShards) this).getShards());
+        }
+
+        return 1;
+    }
+
+    /**
+     * @return packages holding the test classes to shard, empty for any package
+     */
+    List<String> getShardPackages() {
+        if (this instanceof HasShards) {
+            return ((HasShards) this).getShardPackages();
+        }
+
+        return [];
+    }
+
+    /**
+     * @return upload type of the testSpecs matching this test type, or null if there is none
+     */
+    String getTestSpecUploadType() {
+        UploadType.values().find { it.toString() == "${testType}_TEST_SPEC".toString() }?.toString()
+    }
+
 
 }
@@ -21,5 +21,12 @@ trait CustomMode {
 
     String testSpecName
 
+    /**
+     * Arn of the testSpec, skips looking it up by name
+     */
+    String testSpecArn
+
     void testSpecName(String val) { testSpecName = val }
+
+    void testSpecArn(String val) { testSpecArn = val }
 }
@@ -18,6 +18,11 @@ import org.gradle.api.Project
 
 class DeviceFarmExtension {
 
+    private static final String PLUGIN_DIR = "devicefarm"
+
+    private static final String REFRESH_METADATA_PROPERTY = "devicefarm.refreshMetadata"
+    private static final String LOCAL_PROPERTY = "devicefarm.local"
+
     private final Project project
 
     /**
@@ -31,6 +36,18 @@ class DeviceFarmExtension {
      */
     String devicePool = "Top Devices"
 
+    /**
+     * [Optional] Names of several device pools to test on, one run is scheduled per pool.
+     * Takes precedence over devicePool when not empty.
+     */
+    List<String> devicePools = []
+
+    /**
+     * [Optional] Rules picking the devices to test on from the device catalog, one run on the selected devices.
+     * Takes precedence over devicePool and devicePools when set.
+     */
+    DeviceSelectionRules deviceSelection
+
     /**
      * You must have a subscription to set this to false
      */
@@ -79,6 +96,51 @@ class DeviceFarmExtension {
      */
     DeviceState deviceState = new DeviceState()
 
+    /**
+     * Artifact upload configuration
+     */
+    UploadConfiguration uploads = new UploadConfiguration()
+
+    /**
+     * Caching of project, device pool and test spec lookups
+     */
+    MetadataConfiguration metadata = new MetadataConfiguration()
+
+    /**
+     * What happens after runs are scheduled
+     */
+    ResultsConfiguration results = new ResultsConfiguration()
+
+    /**
+     * Admission of runs against the device slots of the account
+     */
+    SchedulingConfiguration scheduling
+
+    /**
+     * Cancellation of the runs superseded by a newer build
+     */
+    SupersedeConfiguration supersede = new SupersedeConfiguration()
+
+    /**
+     * Durations recorded from finished runs
+     */
+    HistoryConfiguration history = new HistoryConfiguration()
+
+    /**
+     * Retries and rate limiting of the API calls
+     */
+    ApiConfiguration api = new ApiConfiguration()
+
+    /**
+     * Timing of the upload and schedule phases
+     */
+    TracingConfiguration tracing = new TracingConfiguration()
+
+    /**
+     * Local stand-in for Device Farm
+     */
+    LocalConfiguration local = new LocalConfiguration()
+
     /**
      * The configured test to run, 'instrumentation' test is default
      * as it tests the bundled androidTest apk
@@ -87,14 +149,30 @@ class DeviceFarmExtension {
 
     DeviceFarmExtension(final Project project) {
         this.project = project;
+        this.scheduling = new SchedulingConfiguration(project);
     }
 
     boolean isValid() {
         projectName != null &&
-                authentication.valid &&
+                (authentication.valid || isLocalMode()) &&
                 test != null && test.valid
     }
 
+    void devicePools(String... names) { devicePools = names as List }
+
+    /**
+     * @return names of the device pools to schedule runs on
+     */
+    List<String> getDevicePoolNames() {
+        devicePools ? devicePools : [devicePool]
+    }
+
+    void deviceSelection(final Closure closure) {
+        DeviceSelectionRules rules = new DeviceSelectionRules()
+        project.configure rules, closure
+        deviceSelection = rules
+    }
+
     void executionTimeoutMinutes(int i) { executionTimeoutMinutes = i }
 
     void videoRecording(String onOff) { videoRecording = OnOffConfiguration.valueOf(onOff).bool }
@@ -124,6 +202,127 @@ class DeviceFarmExtension {
         project.configure(deviceState, closure);
     }
 
+    void uploads(final Closure closure) {
+        project.configure(uploads, closure)
+    }
+
+    void metadata(final Closure closure) {
+        project.configure(metadata, closure)
+    }
+
+    void results(final Closure closure) {
+        project.configure(results, closure)
+    }
+
+    void scheduling(final Closure closure) {
+        project.configure(scheduling, closure)
+    }
+
+    void supersede(final Closure closure) {
+        project.configure(supersede, closure)
+    }
+
+    void history(final Closure closure) {
+        project.configure(history, closure)
+    }
+
+    void api(final Closure closure) {
+        project.configure(api, closure)
+    }
+
+    void tracing(final Closure closure) {
+        project.configure(tracing, closure)
+    }
+
+    void local(final Closure closure) {
+        project.configure(local, closure)
+    }
+
+    /**
+     * @return true to talk to the local stand-in instead of AWS, also set with -Pdevicefarm.local
+     */
+    boolean isLocalMode() {
+        local.enabled || project.hasProperty(LOCAL_PROPERTY)
+    }
+
+    /**
+     * @return true if cached lookups must be ignored, also set with -Pdevicefarm.refreshMetadata
+     */
+    boolean isRefreshMetadata() {
+        metadata.refresh || project.hasProperty(REFRESH_METADATA_PROPERTY)
+    }
+
+    /**
+     * @return directory of the project the plugin is applied to
+     */
+    File getProjectDir() {
+        project.projectDir
+    }
+
+    /**
+     * @return file holding the metadata cache snapshot
+     */
+    File getMetadataSnapshotFile() {
+        new File(project.gradle.gradleUserHomeDir, "${PLUGIN_DIR}/metadata-cache.properties")
+    }
+
+    /**
+     * @return directory holding the device catalog snapshots, one per account
+     */
+    File getDeviceCatalogDir() {
+        new File(project.gradle.gradleUserHomeDir, "${PLUGIN_DIR}/device-catalog")
+    }
+
+    /**
+     * @return file holding the durations recorded for the Device Farm project
+     */
+    File getDurationHistoryFile() {
+        new File(project.gradle.gradleUserHomeDir,
+                "${PLUGIN_DIR}/history/${projectName.replaceAll('[^A-Za-z0-9._-]+', '_')}.tsv")
+    }
+
+    /**
+     * @return the extra data zip, the prebuilt one or the one built from deviceState.extraData, null if none
+     */
+    File getExtraDataZipFile() {
+        deviceState.extraDataZipFile ?: (deviceState.extraData != null ? builtExtraDataZipFile : null)
+    }
+
+    /**
+     * @return zip built from deviceState.extraData
+     */
+    File getBuiltExtraDataZipFile() {
+        new File(project.buildDir, "${PLUGIN_DIR}/extra-data.zip")
+    }
+
+    /**
+     * @return directory holding the reports written by the plugin
+     */
+    File getReportsDir() {
+        new File(project.buildDir, "reports/${PLUGIN_DIR}")
+    }
+
+    /**
+     * @return directory recording the runs scheduled by this build, per variant
+     */
+    File getScheduledRunsDir() {
+        new File(project.buildDir, "${PLUGIN_DIR}/runs")
+    }
+
+    /**
+     * @return directory receiving the JUnit XML reports of the runs
+     */
+    File getTestResultsDir() {
+        new File(project.buildDir, "test-results/${PLUGIN_DIR}")
+    }
+
+    /**
+     * @return directory holding the upload cache
+     */
+    File getUploadCacheDir() {
+        uploads.cacheDir ?: new File(project.gradle.gradleUserHomeDir, PLUGIN_DIR)
+    }
+
     void fuzz(final Closure closure) {
         FuzzTest fuzzTest = new FuzzTest()
         project.configure fuzzTest, closure
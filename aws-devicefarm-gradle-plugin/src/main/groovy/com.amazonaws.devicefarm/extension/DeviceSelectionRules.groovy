@@ -0,0 +1,81 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Rules picking the devices to test on from the device catalog, instead of a pre-created device pool.
+ * Matching devices are ranked by availability, highly available devices first.
+ */
+class DeviceSelectionRules {
+
+    /**
+     * ANDROID or IOS
+     */
+    String platform = "ANDROID"
+
+    /**
+     * Oldest OS version allowed, ex: '8.0'. null allows any
+     */
+    String minOsVersion
+
+    /**
+     * Newest OS version allowed, '10' allows every 10.x version. null allows any
+     */
+    String maxOsVersion
+
+    /**
+     * PHONE or TABLET, null allows both
+     */
+    String formFactor
+
+    /**
+     * Manufacturers allowed, empty allows any
+     */
+    List<String> manufacturers = []
+
+    /**
+     * Maximum number of devices to test on
+     */
+    int maxDevices = 5
+
+    /**
+     * Also pick busy devices when there are not enough available ones. Runs may queue until they free up
+     */
+    boolean allowBusy = true
+
+    //These methods make the '=' optional when configuring the plugin
+    void platform(String val) { platform = val }
+
+    void minOsVersion(String val) { minOsVersion = val }
+
+    void maxOsVersion(String val) { maxOsVersion = val }
+
+    void formFactor(String val) { formFactor = val }
+
+    void manufacturers(String... names) { manufacturers = names as List }
+
+    void maxDevices(int val) { maxDevices = val }
+
+    void allowBusy(String onOff) { allowBusy = OnOffConfiguration.valueOf(onOff).bool }
+
+    @Override
+    String toString() {
+        [platform ? "platform ${platform}" : null,
+         minOsVersion ? "OS >= ${minOsVersion}" : null,
+         maxOsVersion ? "OS <= ${maxOsVersion}" : null,
+         formFactor ? "form factor ${formFactor}" : null,
+         manufacturers ? "manufacturer in ${manufacturers.join(', ')}" : null].findAll().join(', ') ?: "any device"
+    }
+}
@@ -24,6 +24,11 @@ import org.gradle.api.file.FileCollection
 class DeviceState {
 
     File extraDataZipFile
+
+    /**
+     * Directory or files zipped by the plugin as extra data, ignored when extraDataZipFile is set
+     */
+    def extraData
     List<File> auxiliaryApps = Collections.emptyList()
     def wifiOn = true;
     def bluetoothOn = true;
@@ -38,6 +43,8 @@ class DeviceState {
     //These methods make the '=' optional when configuring the plugin
     void extraDataZipFile(File val) { extraDataZipFile = val }
 
+    void extraData(Object val) { extraData = val }
+
     void auxiliaryApps(FileCollection val) { auxiliaryApps = val as List }
 
     void wifi(String onOff) { wifiOn = OnOffConfiguration.valueOf(onOff).bool }
@@ -0,0 +1,35 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Marks tests that can be split across several runs
+ */
+trait HasShards {
+
+    /**
+     * Number of runs the tests are split across, on every device pool
+     */
+    int shards = 1
+
+    /**
+     * Packages holding the test classes to shard, when no filter lists them
+     */
+    List<String> shardPackages = []
+
+    void shards(int val) { shards = val }
+
+    void shardPackages(String... val) { shardPackages = val.toList() }
+}
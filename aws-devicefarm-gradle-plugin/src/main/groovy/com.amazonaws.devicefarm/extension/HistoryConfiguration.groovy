@@ -0,0 +1,57 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Durations recorded from finished runs, used to balance shards and size the job timeout
+ */
+class HistoryConfiguration {
+
+    /**
+     * Record durations when reporting on runs and use them when scheduling
+     */
+    boolean enabled = true
+
+    /**
+     * Set the job timeout from the p99 job duration instead of only suggesting it
+     */
+    boolean autoTimeout = false
+
+    /**
+     * Factor applied to the p99 job duration to get the job timeout
+     */
+    double timeoutMargin = 1.5
+
+    /**
+     * Most recent samples kept per test, device or run
+     */
+    int maxSamples = 50
+
+    /**
+     * Job samples of a run needed before its timeout is derived from them, 1 at least
+     */
+    int minSamples = 5
+
+    //These methods make the '=' optional when configuring the plugin
+    void enabled(String onOff) { enabled = OnOffConfiguration.valueOf(onOff).bool }
+
+    void autoTimeout(String onOff) { autoTimeout = OnOffConfiguration.valueOf(onOff).bool }
+
+    void timeoutMargin(double val) { timeoutMargin = val }
+
+    void maxSamples(int val) { maxSamples = val }
+
+    void minSamples(int val) { minSamples = val }
+}
@@ -17,7 +17,7 @@ package com.amazonaws.devicefarm.extension
 import com.amazonaws.services.devicefarm.model.TestType
 import com.amazonaws.services.devicefarm.model.UploadType
 
-class InstrumentationTest extends ConfiguredTest implements TestPackageProvider, HasFilter, CustomMode {
+class InstrumentationTest extends ConfiguredTest implements TestPackageProvider, HasFilter, CustomMode, HasShards {
 
     {
         testType = TestType.INSTRUMENTATION
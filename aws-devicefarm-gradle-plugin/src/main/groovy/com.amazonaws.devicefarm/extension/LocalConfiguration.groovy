@@ -0,0 +1,85 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Local stand-in for Device Farm and S3, to try or measure the build without AWS
+ */
+class LocalConfiguration {
+
+    /**
+     * Talk to the local stand-in instead of AWS, also set with -Pdevicefarm.local
+     */
+    boolean enabled = false
+
+    /**
+     * Added to every request
+     */
+    long latencyMillis = 50
+
+    /**
+     * Fraction of Device Farm requests failing with a server error
+     */
+    double failureRate = 0
+
+    /**
+     * Fraction of Device Farm requests throttled
+     */
+    double throttleRate = 0
+
+    /**
+     * Fraction of uploads to S3 failing
+     */
+    double uploadFailureRate = 0
+
+    /**
+     * Time an upload takes to be processed
+     */
+    long processingMillis = 2000
+
+    /**
+     * Time a run takes to complete
+     */
+    int runSeconds = 30
+
+    /**
+     * Devices of every device pool
+     */
+    int devices = 2
+
+    /**
+     * Tests run on every device
+     */
+    int tests = 10
+
+    //These methods make the '=' optional when configuring the plugin
+    void enabled(String onOff) { enabled = OnOffConfiguration.valueOf(onOff).bool }
+
+    void latencyMillis(long val) { latencyMillis = val }
+
+    void failureRate(double val) { failureRate = val }
+
+    void throttleRate(double val) { throttleRate = val }
+
+    void uploadFailureRate(double val) { uploadFailureRate = val }
+
+    void processingMillis(long val) { processingMillis = val }
+
+    void runSeconds(int val) { runSeconds = val }
+
+    void devices(int val) { devices = val }
+
+    void tests(int val) { tests = val }
+}
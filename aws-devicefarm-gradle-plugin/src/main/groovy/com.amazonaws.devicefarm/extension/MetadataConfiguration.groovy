@@ -0,0 +1,57 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Caching of project, device pool and test spec lookups, and of the device catalog
+ */
+class MetadataConfiguration {
+
+    /**
+     * How long a resolved name stays valid, 0 disables the cache
+     */
+    int ttlMinutes = 60
+
+    /**
+     * How long the device catalog stays valid before every device is listed again
+     */
+    int deviceCatalogTtlHours = 24
+
+    /**
+     * How long the availability of a device stays valid, only the devices matching the selection rules are refreshed
+     */
+    int deviceAvailabilityTtlMinutes = 5
+
+    /**
+     * Persist resolved names under the Gradle user home so new daemons start warm
+     */
+    boolean snapshot = false
+
+    /**
+     * Ignore cached names for this build
+     */
+    boolean refresh = false
+
+    //These methods make the '=' optional when configuring the plugin
+    void ttlMinutes(int val) { ttlMinutes = val }
+
+    void deviceCatalogTtlHours(int val) { deviceCatalogTtlHours = val }
+
+    void deviceAvailabilityTtlMinutes(int val) { deviceAvailabilityTtlMinutes = val }
+
+    void snapshot(String onOff) { snapshot = OnOffConfiguration.valueOf(onOff).bool }
+
+    void refresh(boolean val) { refresh = val }
+}
@@ -0,0 +1,57 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Status polling parameters
+ */
+class PollingConfiguration {
+
+    /**
+     * Delay before the second status check
+     */
+    long initialDelayMillis = 1000
+
+    /**
+     * Growth factor applied to the delay after every check
+     */
+    double multiplier = 1.5
+
+    /**
+     * Upper bound of the delay between two checks
+     */
+    long maxDelayMillis = 15000
+
+    /**
+     * Fraction of the delay randomly added or removed, between 0 and 1
+     */
+    double jitter = 0.2
+
+    /**
+     * Give up waiting after this many minutes
+     */
+    int timeoutMinutes = 30
+
+    //These methods make the '=' optional when configuring the plugin
+    void initialDelayMillis(long val) { initialDelayMillis = val }
+
+    void multiplier(double val) { multiplier = val }
+
+    void maxDelayMillis(long val) { maxDelayMillis = val }
+
+    void jitter(double val) { jitter = val }
+
+    void timeoutMinutes(int val) { timeoutMinutes = val }
+}
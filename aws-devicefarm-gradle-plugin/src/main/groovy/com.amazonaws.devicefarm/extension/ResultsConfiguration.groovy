@@ -0,0 +1,53 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+import org.gradle.util.ConfigureUtil
+
+/**
+ * What happens after runs are scheduled
+ */
+class ResultsConfiguration {
+
+    /**
+     * Wait for the runs to complete, failing the build if any of them fails
+     */
+    boolean waitForCompletion = false
+
+    /**
+     * How the runs are polled, the timeout bounds the whole wait
+     */
+    PollingConfiguration polling = new PollingConfiguration(
+            initialDelayMillis: 10000, maxDelayMillis: 60000, timeoutMinutes: 180)
+
+    /**
+     * Download the artifacts (logs, screenshots, videos...) of the runs when reporting
+     */
+    boolean downloadArtifacts = true
+
+    /**
+     * Maximum number of jobs listed or artifacts downloaded at once when reporting
+     */
+    int downloadConcurrency = 4
+
+    //These methods make the '=' optional when configuring the plugin
+    void waitForCompletion(String onOff) { waitForCompletion = OnOffConfiguration.valueOf(onOff).bool }
+
+    void downloadArtifacts(String onOff) { downloadArtifacts = OnOffConfiguration.valueOf(onOff).bool }
+
+    void downloadConcurrency(int downloadConcurrency) { this.downloadConcurrency = downloadConcurrency }
+
+    void polling(final Closure closure) { ConfigureUtil.configure(closure, polling) }
+}
@@ -0,0 +1,67 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+import org.gradle.api.Project
+
+/**
+ * Admission of runs against the device slots of the account, shared by every module of the build
+ */
+class SchedulingConfiguration {
+
+    /**
+     * Hold runs back until enough device slots are free, instead of scheduling them at once
+     */
+    boolean slotAware = false
+
+    /**
+     * Device slots shared by the runs, 0 reads the unmetered device slots of the account
+     */
+    int maxSlots = 0
+
+    /**
+     * Slots taken by every run, 0 takes one per device of the run: the max devices of the device selection or
+     * of the device pool, otherwise the devices of the pool compatible with the app
+     */
+    int slotsPerRun = 0
+
+    /**
+     * Runs of modules with a higher priority are admitted first
+     */
+    int priority = 0
+
+    /**
+     * How often runs in flight are checked while runs wait, the timeout bounds the wait of a run
+     */
+    PollingConfiguration polling = new PollingConfiguration(
+            initialDelayMillis: 10000, maxDelayMillis: 60000, timeoutMinutes: 120)
+
+    private final Project project
+
+    SchedulingConfiguration(final Project project) {
+        this.project = project
+    }
+
+    //These methods make the '=' optional when configuring the plugin
+    void slotAware(String onOff) { slotAware = OnOffConfiguration.valueOf(onOff).bool }
+
+    void maxSlots(int val) { maxSlots = val }
+
+    void slotsPerRun(int val) { slotsPerRun = val }
+
+    void priority(int val) { priority = val }
+
+    void polling(final Closure closure) { project.configure(polling, closure) }
+}
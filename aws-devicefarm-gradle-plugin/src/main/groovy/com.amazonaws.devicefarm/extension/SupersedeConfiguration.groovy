@@ -0,0 +1,30 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Stopping the runs made obsolete by a newer build of the same branch
+ */
+class SupersedeConfiguration {
+
+    /**
+     * Runs of the app scheduled with the same key stop the older ones still pending or running, ex: the branch name.
+     * The key is appended to the run name. null disables the cancellation
+     */
+    String key
+
+    //These methods make the '=' optional when configuring the plugin
+    void key(String val) { key = val }
+}
@@ -0,0 +1,36 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+/**
+ * Timing of the phases of the upload and schedule pipeline
+ */
+class TracingConfiguration {
+
+    /**
+     * Write the phase spans to reports/devicefarm/trace.json and their totals to reports/devicefarm/metrics.prom
+     */
+    boolean enabled = true
+
+    /**
+     * Also print a table of the time spent per phase when the build finishes
+     */
+    boolean summary = false
+
+    //These methods make the '=' optional when configuring the plugin
+    void enabled(String onOff) { enabled = OnOffConfiguration.valueOf(onOff).bool }
+
+    void summary(String onOff) { summary = OnOffConfiguration.valueOf(onOff).bool }
+}
@@ -0,0 +1,124 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.extension
+
+import org.gradle.util.ConfigureUtil
+
+/**
+ * Artifact upload configuration
+ */
+class UploadConfiguration {
+
+    /**
+     * Reuse a previous upload when the same artifact was already uploaded to the project
+     */
+    boolean cache = true
+
+    /**
+     * Directory holding the upload cache
+     * null == devicefarm directory under the Gradle user home
+     */
+    File cacheDir
+
+    /**
+     * Maximum number of artifacts uploaded at the same time, by every module and variant of the Gradle daemon
+     */
+    int concurrency = 4
+
+    /**
+     * Maximum number of artifacts waiting for an upload thread before submission slows down
+     */
+    int queueCapacity = 16
+
+    /**
+     * How the processing status of an upload is polled
+     */
+    PollingConfiguration polling = new PollingConfiguration()
+
+    /**
+     * Maximum number of HTTP connections kept open to S3
+     */
+    int maxConnections = 8
+
+    /**
+     * Timeout when opening a connection to S3
+     */
+    int connectTimeoutMillis = 10000
+
+    /**
+     * Timeout between two packets of an S3 transfer
+     */
+    int socketTimeoutMillis = 60000
+
+    /**
+     * Times the transfer of an artifact, or of one of its ranges, is tried before the upload fails
+     */
+    int maxAttempts = 5
+
+    /**
+     * Send large artifacts in ranges when the upload url accepts them. The presigned S3 urls of AWS Device Farm
+     * only take whole files, so this is off by default and always on with the local stand-in
+     */
+    boolean ranges = false
+
+    /**
+     * Artifacts larger than this are sent in ranges when the upload url accepts them, in megabytes
+     */
+    int rangeThresholdMegabytes = 64
+
+    /**
+     * Size of the ranges in megabytes
+     */
+    int rangeSizeMegabytes = 16
+
+    /**
+     * Maximum number of ranges of an artifact sent at the same time
+     */
+    int rangeConcurrency = 4
+
+    /**
+     * Journal ranged uploads so the next build resumes an interrupted one, requires the upload cache
+     */
+    boolean resume = true
+
+    //These methods make the '=' optional when configuring the plugin
+    void cache(String onOff) { cache = OnOffConfiguration.valueOf(onOff).bool }
+
+    void cacheDir(File val) { cacheDir = val }
+
+    void concurrency(int val) { concurrency = val }
+
+    void queueCapacity(int val) { queueCapacity = val }
+
+    void polling(final Closure closure) { ConfigureUtil.configure(closure, polling) }
+
+    void maxConnections(int val) { maxConnections = val }
+
+    void connectTimeoutMillis(int val) { connectTimeoutMillis = val }
+
+    void socketTimeoutMillis(int val) { socketTimeoutMillis = val }
+
+    void maxAttempts(int val) { maxAttempts = val }
+
+    void ranges(String onOff) { ranges = OnOffConfiguration.valueOf(onOff).bool }
+
+    void rangeThresholdMegabytes(int val) { rangeThresholdMegabytes = val }
+
+    void rangeSizeMegabytes(int val) { rangeSizeMegabytes = val }
+
+    void rangeConcurrency(int val) { rangeConcurrency = val }
+
+    void resume(String onOff) { resume = OnOffConfiguration.valueOf(onOff).bool }
+}
@@ -0,0 +1,781 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.local;
+
+import com.amazonaws.devicefarm.DeviceFarmException;
+import com.amazonaws.devicefarm.DeviceFarmExecutors;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for AWS Device Farm and the S3 upload urls it hands out, to try or measure builds offline.
+ * It implements the Device Farm operations used by the plugin over the same JSON protocol, with configurable
+ * latency and injected failures. Uploads are processed and runs complete after configurable delays,
+ * every run passes on simulated devices.
+ */
+public class LocalDeviceFarm {
+
+    private static final String TARGET_PREFIX = "DeviceFarm_20150623.";
+    private static final String ARN_PREFIX = "arn:aws:devicefarm:us-west-2:000000000000:";
+    private static final String DEVICE_ARN_PREFIX = "arn:aws:devicefarm:us-west-2::device:";
+    private static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+    private static final String UPLOAD_PATH = "/upload/";
+    private static final String ARTIFACT_PATH = "/artifact/";
+    private static final int THREADS = 16;
+    private static final int PAGE_SIZE = 50;
+    private static final int RESUME_INCOMPLETE = 308;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private static final Map<Settings, LocalDeviceFarm> SHARED = Maps.newHashMap();
+    /**
+     * Settings last used by each project, a stand-in is stopped once no project uses its settings
+     */
+    private static final Map<String, Settings> OWNERS = Maps.newHashMap();
+
+    private final Settings settings;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Random random = new Random();
+    private final AtomicInteger ids = new AtomicInteger();
+    // Arns never repeat across stand-ins, so caches keyed by arn cannot confuse them
+    private final String instance = Integer.toHexString(new Random().nextInt());
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final Map<String, Map<String, Object>> projects = Maps.newLinkedHashMap();
+    private final Map<String, Map<String, Object>> devicePools = Maps.newLinkedHashMap();
+    private final Map<String, Map<String, Object>> devices = Maps.newLinkedHashMap();
+    private final Map<String, LocalUpload> uploads = Maps.newLinkedHashMap();
+    private final Map<String, LocalRun> runs = Maps.newLinkedHashMap();
+    private int unmeteredDevices = 5;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Start a stand-in on a free local port.
+     *
+     * @param settings behaviour of the stand-in
+     * @throws IOException if the server cannot be started
+     */
+    public LocalDeviceFarm(final Settings settings) throws IOException {
+        this.settings = settings;
+        this.executor = DeviceFarmExecutors.newBoundedExecutor("devicefarm-local", THREADS, THREADS * 16);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", new Handler());
+        this.server.start();
+
+        seedDevice("Google Pixel 3", "Google", "ANDROID", "10", "PHONE", "HIGHLY_AVAILABLE");
+        seedDevice("Google Pixel 2", "Google", "ANDROID", "9", "PHONE", "AVAILABLE");
+        seedDevice("Samsung Galaxy S9", "Samsung", "ANDROID", "9", "PHONE", "BUSY");
+        seedDevice("Samsung Galaxy Tab S4", "Samsung", "ANDROID", "8.1.0", "TABLET", "HIGHLY_AVAILABLE");
+        seedDevice("OnePlus 6T", "OnePlus", "ANDROID", "9", "PHONE", "HIGHLY_AVAILABLE");
+        seedDevice("Motorola Moto G6", "Motorola", "ANDROID", "8.0.0", "PHONE", "AVAILABLE");
+        seedDevice("Apple iPhone XS", "Apple", "IOS", "12.1", "PHONE", "HIGHLY_AVAILABLE");
+        seedDevice("Apple iPad Air 2", "Apple", "IOS", "12.0", "TABLET", "AVAILABLE");
+    }
+
+    /**
+     * Projects with the same settings share a stand-in. When the settings of a project change,
+     * the stand-in of its previous settings is stopped unless another project still uses them.
+     *
+     * @param owner    identifies the project using the stand-in
+     * @param settings behaviour of the stand-in
+     * @return the stand-in of these settings, started once per Gradle daemon
+     */
+    public static LocalDeviceFarm shared(final String owner, final Settings settings) {
+        synchronized (SHARED) {
+            final Settings previous = OWNERS.put(owner, settings);
+            if (previous != null && !previous.equals(settings) && !OWNERS.containsValue(previous)) {
+                final LocalDeviceFarm stale = SHARED.remove(previous);
+                if (stale != null) {
+                    stale.stop();
+                }
+            }
+
+            LocalDeviceFarm local = SHARED.get(settings);
+            if (local == null) {
+                try {
+                    local = new LocalDeviceFarm(settings);
+                } catch (IOException e) {
+                    throw new DeviceFarmException("Unable to start the local Device Farm", e);
+                }
+                SHARED.put(settings, local);
+            }
+            return local;
+        }
+    }
+
+    /**
+     * @return url to use as the Device Farm endpoint
+     */
+    public String getEndpoint() {
+        return String.format("http://%s:%d", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    /**
+     * @return number of requests served, by operation, S3 PUT included
+     */
+    public Map<String, Integer> getRequestCounts() {
+        final Map<String, Integer> counts = Maps.newTreeMap();
+        for (Map.Entry<String, AtomicInteger> entry : requests.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return bytes received by the upload urls
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * Stop serving requests.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                final String path = exchange.getRequestURI().getPath();
+                if (path.startsWith(UPLOAD_PATH)) {
+                    handleUpload(exchange, path.substring(UPLOAD_PATH.length()));
+                } else if (path.startsWith(ARTIFACT_PATH)) {
+                    handleArtifact(exchange);
+                } else {
+                    handleOperation(exchange);
+                }
+            } catch (RuntimeException e) {
+                sendError(exchange, 500, "InternalFailure", String.valueOf(e.getMessage()));
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Takes whole files, or byte ranges with a Content-Range header answered 308 until the file is complete.
+     * A Content-MD5 header is checked like S3 does.
+     */
+    private void handleUpload(final HttpExchange exchange, final String uploadId) throws IOException {
+
+        final boolean head = "HEAD".equals(exchange.getRequestMethod());
+        count(head ? "S3.HeadObject" : "S3.PutObject");
+        delay();
+
+        final long bytes;
+        final MessageDigest md5 = newMd5();
+        try (InputStream in = new DigestInputStream(exchange.getRequestBody(), md5)) {
+            bytes = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+
+        if (!head && inject(settings.uploadFailureRate)) {
+            sendError(exchange, 503, "SlowDown", "Injected S3 failure");
+            return;
+        }
+
+        final LocalUpload upload;
+        synchronized (this) {
+            upload = uploads.get(ARN_PREFIX + "upload:" + uploadId);
+        }
+        if (upload == null || !(head || "PUT".equals(exchange.getRequestMethod()))) {
+            sendError(exchange, 404, "NoSuchUpload", "Unknown upload url");
+            return;
+        }
+
+        if (head) {
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        final String contentMd5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+        if (contentMd5 != null && !contentMd5.equals(BaseEncoding.base64().encode(md5.digest()))) {
+            sendError(exchange, 400, "BadDigest", "The Content-MD5 you specified did not match what was received");
+            return;
+        }
+
+        uploadedBytes.addAndGet(bytes);
+
+        final String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+        final Matcher range = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange);
+        if (range == null) {
+            upload.uploaded(bytes);
+        } else if (!range.matches() || Long.parseLong(range.group(2)) - Long.parseLong(range.group(1)) + 1 != bytes) {
+            sendError(exchange, 400, "InvalidRange", "Invalid Content-Range " + contentRange);
+            return;
+        } else if (!upload.received(Long.parseLong(range.group(1)), bytes, Long.parseLong(range.group(3)))) {
+            exchange.sendResponseHeaders(RESUME_INCOMPLETE, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void handleArtifact(final HttpExchange exchange) throws IOException {
+        count("S3.GetObject");
+        delay();
+
+        final byte[] artifact = "Local Device Farm artifact\n".getBytes(StandardCharsets.UTF_8);
+
+        // Only the bytes=first-last form of S3 ranged GETs is understood
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher != null && matcher.matches()) {
+            final int first = Integer.parseInt(matcher.group(1));
+            final int last = Math.min(Integer.parseInt(matcher.group(2)), artifact.length - 1);
+            if (first > last) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + artifact.length);
+                send(exchange, 416, "text/plain", new byte[0]);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range",
+                    String.format("bytes %d-%d/%d", first, last, artifact.length));
+            send(exchange, 206, "text/plain", Arrays.copyOfRange(artifact, first, last + 1));
+            return;
+        }
+
+        send(exchange, 200, "text/plain", artifact);
+    }
+
+    private void handleOperation(final HttpExchange exchange) throws IOException {
+
+        final String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+        final String operation = target != null && target.startsWith(TARGET_PREFIX)
+                ? target.substring(TARGET_PREFIX.length()) : String.valueOf(target);
+        count(operation);
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> request;
+        try (InputStream in = exchange.getRequestBody()) {
+            final byte[] body = ByteStreams.toByteArray(in);
+            request = body.length == 0 ? Collections.<String, Object>emptyMap() : mapper.readValue(body, Map.class);
+        }
+
+        delay();
+
+        if (inject(settings.throttleRate)) {
+            sendError(exchange, 400, "ThrottlingException", "Injected throttling");
+            return;
+        }
+        if (inject(settings.failureRate)) {
+            sendError(exchange, 500, "ServiceAccountException", "Injected failure");
+            return;
+        }
+
+        final Object response;
+        try {
+            synchronized (this) {
+                response = dispatch(operation, request, baseUrl(exchange));
+            }
+        } catch (InvalidOperationException e) {
+            sendError(exchange, 400, "InvalidOperationException", e.getMessage());
+            return;
+        }
+
+        if (response == null) {
+            sendError(exchange, 400, "NotFoundException", String.format("%s: resource not found", operation));
+            return;
+        }
+        send(exchange, 200, CONTENT_TYPE, mapper.writeValueAsBytes(response));
+    }
+
+    /**
+     * @return the response, or null if the requested resource does not exist
+     */
+    private Object dispatch(final String operation, final Map<String, Object> request, final String baseUrl) {
+
+        final String arn = (String) request.get("arn");
+
+        switch (operation) {
+            case "GetAccountSettings":
+                return ImmutableMap.of("accountSettings", json("awsAccountNumber", "000000000000",
+                        "unmeteredDevices", ImmutableMap.of("ANDROID", unmeteredDevices, "IOS", unmeteredDevices)));
+            case "ListProjects":
+                return page("projects", Lists.newArrayList(projects.values()), request);
+            case "ListDevicePools":
+                return page("devicePools", poolsOf(arn), request);
+            case "GetDevicePool":
+                return devicePools.containsKey(arn) ? ImmutableMap.of("devicePool", devicePools.get(arn)) : null;
+            case "GetDevicePoolCompatibility":
+                return devicePools.containsKey(request.get("devicePoolArn"))
+                        ? compatibility((String) request.get("appArn")) : null;
+            case "ListDevices":
+                return page("devices", devicesMatching(request.get("filters")), request);
+            case "CreateUpload":
+                return ImmutableMap.of("upload", createUpload(request, baseUrl).toJson());
+            case "GetUpload":
+                return uploads.containsKey(arn) ? ImmutableMap.of("upload", uploads.get(arn).toJson()) : null;
+            case "ListUploads":
+                return page("uploads", uploadsOf(arn, (String) request.get("type")), request);
+            case "ScheduleRun":
+                return ImmutableMap.of("run", scheduleRun(request, baseUrl).toJson());
+            case "GetRun":
+                return runs.containsKey(arn) ? ImmutableMap.of("run", runs.get(arn).toJson()) : null;
+            case "ListRuns":
+                return page("runs", runsOf(arn), request);
+            case "StopRun":
+                if (!runs.containsKey(arn)) {
+                    return null;
+                }
+                runs.get(arn).stop();
+                return ImmutableMap.of("run", runs.get(arn).toJson());
+            case "ListJobs":
+                return runs.containsKey(arn) ? page("jobs", runs.get(arn).jobs(), request) : null;
+            case "ListSuites":
+                return page("suites", runOf(arn).suites(arn), request);
+            case "ListTests":
+                return page("tests", runOf(arn).tests(arn), request);
+            case "ListArtifacts":
+                return page("artifacts", runOf(arn).artifacts(arn, (String) request.get("type")), request);
+            default:
+                throw new InvalidOperationException(String.format("%s is not supported locally", operation));
+        }
+    }
+
+    /**
+     * Split list results in pages like the service does, the next token is the offset of the next page.
+     */
+    private static Map<String, Object> page(final String key, final List<Map<String, Object>> items,
+                                            final Map<String, Object> request) {
+        final int from = request.get("nextToken") == null ? 0 : Integer.parseInt((String) request.get("nextToken"));
+        final int to = Math.min(items.size(), from + PAGE_SIZE);
+        return json(key, Lists.newArrayList(items.subList(Math.min(from, to), to)),
+                "nextToken", to < items.size() ? Integer.toString(to) : null);
+    }
+
+    private List<Map<String, Object>> poolsOf(final String projectArn) {
+        final List<Map<String, Object>> pools = Lists.newArrayList();
+        for (Map<String, Object> pool : devicePools.values()) {
+            if (((String) pool.get("arn")).startsWith(ARN_PREFIX + "devicepool:" + idOf(projectArn) + "/")) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * Every device of the platform of the app is compatible, the devices of the other platform are not.
+     */
+    private Map<String, Object> compatibility(final String appArn) {
+        final String platform = appArn != null && uploads.containsKey(appArn)
+                && uploads.get(appArn).type.startsWith("IOS") ? "IOS" : "ANDROID";
+        final List<Map<String, Object>> compatible = Lists.newArrayList();
+        final List<Map<String, Object>> incompatible = Lists.newArrayList();
+        for (Map<String, Object> device : devices.values()) {
+            final boolean matches = platform.equals(device.get("platform"));
+            (matches ? compatible : incompatible).add(json("device", device, "compatible", matches));
+        }
+        return json("compatibleDevices", compatible, "incompatibleDevices", incompatible);
+    }
+
+    /**
+     * Evaluate the EQUALS, IN and NOT_IN device filters, enough for the lookups of the plugin.
+     */
+    private List<Map<String, Object>> devicesMatching(final Object filters) {
+        final List<Map<String, Object>> result = Lists.newArrayList();
+        for (Map<String, Object> device : devices.values()) {
+            boolean matches = true;
+            for (Object filter : filters instanceof List ? (List<?>) filters : Collections.emptyList()) {
+                matches &= matches(device, (Map<?, ?>) filter);
+            }
+            if (matches) {
+                result.add(device);
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(final Map<String, Object> device, final Map<?, ?> filter) {
+        final String attribute = (String) filter.get("attribute");
+        final Object value = device.get("OS_VERSION".equals(attribute) ? "os"
+                : CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, attribute));
+        final List<?> values = (List<?>) filter.get("values");
+        switch ((String) filter.get("operator")) {
+            case "EQUALS":
+            case "IN":
+                return values.contains(value);
+            case "NOT_IN":
+                return !values.contains(value);
+            default:
+                throw new InvalidOperationException(String.format("Device filter operator %s is not supported locally",
+                        filter.get("operator")));
+        }
+    }
+
+    private List<Map<String, Object>> uploadsOf(final String projectArn, final String type) {
+        final List<Map<String, Object>> result = Lists.newArrayList();
+        for (LocalUpload upload : uploads.values()) {
+            if (upload.projectArn.equals(projectArn) && (type == null || type.equals(upload.type))) {
+                result.add(upload.toJson());
+            }
+        }
+        return result;
+    }
+
+    private List<Map<String, Object>> runsOf(final String projectArn) {
+        final List<Map<String, Object>> result = Lists.newArrayList();
+        // Newest first, like the service
+        for (LocalRun run : Lists.reverse(Lists.newArrayList(runs.values()))) {
+            if (run.projectArn.equals(projectArn)) {
+                result.add(run.toJson());
+            }
+        }
+        return result;
+    }
+
+    private LocalRun runOf(final String arn) {
+        // arn:...:job:project/run/job, the run is the second part of the resource id
+        final String[] ids = arn.substring(arn.lastIndexOf(':') + 1).split("/");
+        final LocalRun run = runs.get(ARN_PREFIX + "run:" + ids[0] + "/" + ids[1]);
+        if (run == null) {
+            throw new IllegalArgumentException("Unknown run of " + arn);
+        }
+        return run;
+    }
+
+    private LocalUpload createUpload(final Map<String, Object> request, final String baseUrl) {
+        final String projectArn = (String) request.get("projectArn");
+        final String id = idOf(projectArn) + "/" + nextId();
+        final LocalUpload upload = new LocalUpload(ARN_PREFIX + "upload:" + id, projectArn,
+                (String) request.get("name"), (String) request.get("type"), baseUrl + UPLOAD_PATH + id,
+                settings.processingMillis);
+        uploads.put(upload.arn, upload);
+        return upload;
+    }
+
+    private LocalRun scheduleRun(final Map<String, Object> request, final String baseUrl) {
+        final String projectArn = (String) request.get("projectArn");
+        if (!uploads.containsKey((String) request.get("appArn"))) {
+            throw new IllegalArgumentException("Unknown app " + request.get("appArn"));
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> test = (Map<String, Object>) request.get("test");
+        final LocalRun run = new LocalRun(ARN_PREFIX + "run:" + idOf(projectArn) + "/" + nextId(), projectArn,
+                (String) request.get("name"), test == null ? null : (String) test.get("type"),
+                baseUrl + ARTIFACT_PATH, settings);
+        runs.put(run.arn, run);
+        return run;
+    }
+
+    private String nextId() {
+        return String.format("%s%08d", instance, ids.incrementAndGet());
+    }
+
+    private static String idOf(final String arn) {
+        return arn == null ? "" : arn.substring(arn.lastIndexOf(':') + 1);
+    }
+
+    /**
+     * Make the projects and device pools the build will look up exist.
+     *
+     * @param projectName     name of the project
+     * @param devicePoolNames names of its device pools
+     */
+    public synchronized void seed(final String projectName, final List<String> devicePoolNames) {
+
+        String projectArn = null;
+        for (Map<String, Object> project : projects.values()) {
+            if (projectName.equals(project.get("name"))) {
+                projectArn = (String) project.get("arn");
+            }
+        }
+        if (projectArn == null) {
+            projectArn = seedProject(projectName);
+        }
+
+        for (String devicePoolName : devicePoolNames) {
+            boolean exists = false;
+            for (Map<String, Object> devicePool : poolsOf(projectArn)) {
+                exists |= devicePoolName.equals(devicePool.get("name"));
+            }
+            if (!exists) {
+                seedDevicePool(projectArn, devicePoolName);
+            }
+        }
+    }
+
+    /**
+     * @param name name of the new project
+     * @return its arn
+     */
+    public synchronized String seedProject(final String name) {
+        final String arn = ARN_PREFIX + "project:" + nextId();
+        projects.put(arn, json("arn", arn, "name", name, "created", System.currentTimeMillis() / 1000.0));
+        return arn;
+    }
+
+    /**
+     * @param projectArn the project
+     * @param name       name of the new device pool
+     * @return its arn
+     */
+    public synchronized String seedDevicePool(final String projectArn, final String name) {
+        return seedDevicePool(projectArn, name, null);
+    }
+
+    /**
+     * @param projectArn the project
+     * @param name       name of the new device pool
+     * @param maxDevices the most devices a run on the pool uses, or null for every device of the pool
+     * @return its arn
+     */
+    public synchronized String seedDevicePool(final String projectArn, final String name, final Integer maxDevices) {
+        final String arn = ARN_PREFIX + "devicepool:" + idOf(projectArn) + "/" + nextId();
+        devicePools.put(arn, json("arn", arn, "name", name, "type", "PRIVATE", "maxDevices", maxDevices));
+        return arn;
+    }
+
+    /**
+     * @param name         name of the new device
+     * @param manufacturer its manufacturer
+     * @param platform     ANDROID or IOS
+     * @param os           its OS version
+     * @param formFactor   PHONE or TABLET
+     * @param availability HIGHLY_AVAILABLE, AVAILABLE, BUSY or TEMPORARY_NOT_AVAILABLE
+     * @return its arn
+     */
+    public synchronized String seedDevice(final String name, final String manufacturer, final String platform,
+                                          final String os, final String formFactor, final String availability) {
+        final String arn = DEVICE_ARN_PREFIX + nextId();
+        devices.put(arn, json("arn", arn, "name", name, "manufacturer", manufacturer, "model", name,
+                "platform", platform, "os", os, "formFactor", formFactor, "availability", availability));
+        return arn;
+    }
+
+    /**
+     * @param arn          the device
+     * @param availability its new availability, or null to retire the device
+     */
+    public synchronized void setDeviceAvailability(final String arn, final String availability) {
+        if (availability == null) {
+            devices.remove(arn);
+        } else if (devices.containsKey(arn)) {
+            devices.get(arn).put("availability", availability);
+        }
+    }
+
+    /**
+     * @param count unmetered device slots of the account, per platform
+     */
+    public synchronized void setUnmeteredDevices(final int count) {
+        unmeteredDevices = count;
+    }
+
+    /**
+     * @return arns of the devices, by name
+     */
+    public synchronized Map<String, String> getDeviceArns() {
+        final Map<String, String> arns = Maps.newLinkedHashMap();
+        for (Map<String, Object> device : devices.values()) {
+            arns.put((String) device.get("name"), (String) device.get("arn"));
+        }
+        return arns;
+    }
+
+    /**
+     * @param projectArn the project
+     * @param name       name of the new upload
+     * @param type       its type
+     * @return its arn, the upload is already processed
+     */
+    public synchronized String seedUpload(final String projectArn, final String name, final String type) {
+        final String id = idOf(projectArn) + "/" + nextId();
+        final LocalUpload upload = new LocalUpload(ARN_PREFIX + "upload:" + id, projectArn, name, type, null, 0);
+        upload.uploaded(0);
+        uploads.put(upload.arn, upload);
+        return upload.arn;
+    }
+
+    private boolean inject(final double rate) {
+        synchronized (random) {
+            return rate > 0 && random.nextDouble() < rate;
+        }
+    }
+
+    private void delay() {
+        if (settings.latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(settings.latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void count(final String operation) {
+        AtomicInteger counter = requests.get(operation);
+        if (counter == null) {
+            requests.putIfAbsent(operation, new AtomicInteger());
+            counter = requests.get(operation);
+        }
+        counter.incrementAndGet();
+    }
+
+    private static String baseUrl(final HttpExchange exchange) {
+        return String.format("http://%s:%d", exchange.getLocalAddress().getHostString(),
+                exchange.getLocalAddress().getPort());
+    }
+
+    private void sendError(final HttpExchange exchange, final int status, final String type,
+                           final String message) throws IOException {
+        exchange.getResponseHeaders().add("x-amzn-ErrorType", type);
+        send(exchange, status, CONTENT_TYPE, mapper.writeValueAsBytes(json("__type", type, "message", message)));
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String contentType,
+                             final byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.getResponseHeaders().add("x-amzn-RequestId", Long.toHexString(System.nanoTime()));
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static Map<String, Object> json(final Object... keyValues) {
+        final Map<String, Object> json = Maps.newLinkedHashMap();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            if (keyValues[i + 1] != null) {
+                json.put((String) keyValues[i], keyValues[i + 1]);
+            }
+        }
+        return json;
+    }
+
+    /**
+     * A request the stand-in does not support, answered like the service answers invalid operations.
+     */
+    private static class InvalidOperationException extends RuntimeException {
+
+        InvalidOperationException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Behaviour of a stand-in. Stand-ins with equal settings are shared.
+     */
+    public static final class Settings {
+
+        private final long latencyMillis;
+        private final double failureRate;
+        private final double throttleRate;
+        private final double uploadFailureRate;
+        private final long processingMillis;
+        private final long runMillis;
+        private final int devices;
+        private final int tests;
+
+        /**
+         * @param latencyMillis     added to every request
+         * @param failureRate       fraction of API requests failing with a server error
+         * @param throttleRate      fraction of API requests throttled
+         * @param uploadFailureRate fraction of upload PUTs failing
+         * @param processingMillis  time an upload takes to be processed once uploaded
+         * @param runMillis         time a run takes to complete
+         * @param devices           devices in every device pool
+         * @param tests             tests run on every device
+         */
+        public Settings(final long latencyMillis, final double failureRate, final double throttleRate,
+                        final double uploadFailureRate, final long processingMillis, final long runMillis,
+                        final int devices, final int tests) {
+            this.latencyMillis = latencyMillis;
+            this.failureRate = failureRate;
+            this.throttleRate = throttleRate;
+            this.uploadFailureRate = uploadFailureRate;
+            this.processingMillis = processingMillis;
+            this.runMillis = runMillis;
+            this.devices = Math.max(1, devices);
+            this.tests = Math.max(1, tests);
+        }
+
+        int getDevices() {
+            return devices;
+        }
+
+        int getTests() {
+            return tests;
+        }
+
+        long getRunMillis() {
+            return runMillis;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Settings)) {
+                return false;
+            }
+            final Settings other = (Settings) o;
+            return latencyMillis == other.latencyMillis && failureRate == other.failureRate
+                    && throttleRate == other.throttleRate && uploadFailureRate == other.uploadFailureRate
+                    && processingMillis == other.processingMillis && runMillis == other.runMillis
+                    && devices == other.devices && tests == other.tests;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{latencyMillis, failureRate, throttleRate,
+                    uploadFailureRate, processingMillis, runMillis, devices, tests});
+        }
+    }
+}
@@ -0,0 +1,151 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.local;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A run of the local Device Farm. It runs for a fixed time, then every test passes on every device.
+ */
+class LocalRun {
+
+    private static final String SUITE_NAME = "com.example.LocalTest";
+
+    final String arn;
+    final String projectArn;
+    private final String name;
+    private final String type;
+    private final String artifactUrl;
+    private final LocalDeviceFarm.Settings settings;
+    private final long created = System.currentTimeMillis();
+    private volatile long stopped = -1;
+
+    LocalRun(final String arn, final String projectArn, final String name, final String type,
+             final String artifactUrl, final LocalDeviceFarm.Settings settings) {
+        this.arn = arn;
+        this.projectArn = projectArn;
+        this.name = name;
+        this.type = type;
+        this.artifactUrl = artifactUrl;
+        this.settings = settings;
+    }
+
+    void stop() {
+        if (stopped < 0 && !isCompleted()) {
+            stopped = System.currentTimeMillis();
+        }
+    }
+
+    private boolean isCompleted() {
+        return stopped >= 0 || System.currentTimeMillis() - created >= settings.getRunMillis();
+    }
+
+    private String status() {
+        if (isCompleted()) {
+            return "COMPLETED";
+        }
+        return System.currentTimeMillis() - created < settings.getRunMillis() / 10 ? "SCHEDULING" : "RUNNING";
+    }
+
+    private String result() {
+        if (stopped >= 0) {
+            return "STOPPED";
+        }
+        return isCompleted() ? "PASSED" : "PENDING";
+    }
+
+    private Map<String, Object> counters(final int total) {
+        final int passed = "PASSED".equals(result()) ? total : 0;
+        final int stoppedTests = "STOPPED".equals(result()) ? total : 0;
+        return LocalDeviceFarm.json("total", total, "passed", passed, "failed", 0, "warned", 0, "errored", 0,
+                "stopped", stoppedTests, "skipped", 0);
+    }
+
+    private Double completedAt() {
+        if (!isCompleted()) {
+            return null;
+        }
+        return (stopped >= 0 ? stopped : created + settings.getRunMillis()) / 1000.0;
+    }
+
+    Map<String, Object> toJson() {
+        return LocalDeviceFarm.json("arn", arn, "name", name, "type", type, "platform", "ANDROID_APP",
+                "status", status(), "result", result(), "created", created / 1000.0, "started", created / 1000.0,
+                "stopped", completedAt(), "totalJobs", settings.getDevices(),
+                "counters", counters(settings.getDevices() * settings.getTests()));
+    }
+
+    private String resourceId(final String kind, final String... ids) {
+        // arn:...:run:project/run becomes arn:...:kind:project/run/ids
+        final int separator = arn.lastIndexOf(":run:");
+        final StringBuilder resource = new StringBuilder(arn.substring(0, separator))
+                .append(':').append(kind).append(':').append(arn.substring(separator + ":run:".length()));
+        for (String id : ids) {
+            resource.append('/').append(id);
+        }
+        return resource.toString();
+    }
+
+    List<Map<String, Object>> jobs() {
+        final List<Map<String, Object>> jobs = Lists.newArrayList();
+        for (int device = 0; device < settings.getDevices(); device++) {
+            final String deviceName = String.format("Local Device %d", device + 1);
+            jobs.add(LocalDeviceFarm.json("arn", resourceId("job", jobId(device)), "name", deviceName,
+                    "type", type, "status", status(), "result", result(), "created", created / 1000.0,
+                    "started", created / 1000.0, "stopped", completedAt(), "counters", counters(settings.getTests()),
+                    "device", LocalDeviceFarm.json("arn", "arn:aws:devicefarm:us-west-2::device:LOCAL" + device,
+                            "name", deviceName, "manufacturer", "Local", "model", "Local", "os", "9",
+                            "platform", "ANDROID", "formFactor", "PHONE")));
+        }
+        return jobs;
+    }
+
+    List<Map<String, Object>> suites(final String jobArn) {
+        final List<Map<String, Object>> suites = Lists.newArrayList();
+        suites.add(LocalDeviceFarm.json("arn", jobArn.replace(":job:", ":suite:") + "/0", "name", SUITE_NAME,
+                "type", type, "status", status(), "result", result(), "created", created / 1000.0,
+                "started", created / 1000.0, "stopped", completedAt(), "counters", counters(settings.getTests())));
+        return suites;
+    }
+
+    List<Map<String, Object>> tests(final String suiteArn) {
+        final List<Map<String, Object>> tests = Lists.newArrayList();
+        for (int test = 0; test < settings.getTests(); test++) {
+            tests.add(LocalDeviceFarm.json("arn", suiteArn.replace(":suite:", ":test:") + "/" + test,
+                    "name", "test" + (test + 1), "type", type, "status", status(), "result", result(),
+                    "created", created / 1000.0, "started", created / 1000.0, "stopped", completedAt(),
+                    "counters", counters(1)));
+        }
+        return tests;
+    }
+
+    List<Map<String, Object>> artifacts(final String arn, final String category) {
+        final List<Map<String, Object>> artifacts = Lists.newArrayList();
+        // One log per job, once completed
+        if ("FILE".equals(category) && arn.contains(":job:") && isCompleted()) {
+            final String artifactId = arn.substring(arn.lastIndexOf(':') + 1);
+            artifacts.add(LocalDeviceFarm.json("arn", arn.replace(":job:", ":artifact:") + "/0", "name", "Logcat",
+                    "type", "DEVICE_LOG", "extension", "logcat", "url", artifactUrl + artifactId));
+        }
+        return artifacts;
+    }
+
+    private static String jobId(final int device) {
+        return String.format("%05d", device);
+    }
+}
@@ -0,0 +1,80 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.local;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An upload of the local Device Farm, processed some time after its content is received.
+ */
+class LocalUpload {
+
+    final String arn;
+    final String projectArn;
+    final String name;
+    final String type;
+    private final String url;
+    private final long processingMillis;
+    private final long created = System.currentTimeMillis();
+    private volatile long uploaded = -1;
+    private final SortedMap<Long, Long> ranges = new TreeMap<Long, Long>();
+
+    LocalUpload(final String arn, final String projectArn, final String name, final String type, final String url,
+                final long processingMillis) {
+        this.arn = arn;
+        this.projectArn = projectArn;
+        this.name = name;
+        this.type = type;
+        this.url = url;
+        this.processingMillis = processingMillis;
+    }
+
+    void uploaded(final long bytes) {
+        uploaded = System.currentTimeMillis();
+    }
+
+    /**
+     * @param offset first byte of a range
+     * @param length size of the range
+     * @param total  size of the whole file
+     * @return true once every byte of the file was received
+     */
+    synchronized boolean received(final long offset, final long length, final long total) {
+        ranges.put(offset, length);
+        long covered = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            covered = range.getKey() <= covered ? Math.max(covered, range.getKey() + range.getValue()) : covered;
+        }
+        if (covered >= total) {
+            uploaded(total);
+            return true;
+        }
+        return false;
+    }
+
+    String status() {
+        if (uploaded < 0) {
+            return "INITIALIZED";
+        }
+        return System.currentTimeMillis() - uploaded < processingMillis ? "PROCESSING" : "SUCCEEDED";
+    }
+
+    Map<String, Object> toJson() {
+        return LocalDeviceFarm.json("arn", arn, "name", name, "type", type, "status", status(), "url", url,
+                "category", "PRIVATE", "created", created / 1000.0);
+    }
+}
@@ -0,0 +1,170 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.CreateUploadRequest;
+import com.amazonaws.services.devicefarm.model.GetUploadRequest;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ArtifactTransferTest {
+
+    private static final long RANGE_SIZE = 64 * 1024;
+    private static final Logger LOGGER = Logging.getLogger(ArtifactTransferTest.class);
+
+    private LocalDeviceFarm local;
+    private AWSDeviceFarmClient api;
+    private CloseableHttpClient httpClient;
+    private UploadJournal journal;
+    private ArtifactTransfer transfer;
+    private String projectArn;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        // A third of the PUTs fail
+        local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0.3, 0, 0, 1, 1));
+        projectArn = local.seedProject("MyProject");
+
+        api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+        api.setEndpoint(local.getEndpoint());
+
+        httpClient = DeviceFarmUploader.newHttpClient(8, 10000, 60000);
+        journal = new UploadJournal(Files.createTempDirectory("journal").toFile());
+        transfer = new ArtifactTransfer(new HttpUploadTransport(httpClient), journal, 4 * RANGE_SIZE, RANGE_SIZE,
+                4, 10, new PollStrategy(1, 1.0, 1, 0, 60000), LOGGER);
+
+        final byte[] content = new byte[(int) (16 * RANGE_SIZE + 123)];
+        new Random(0).nextBytes(content);
+        file = Files.createTempFile("extra-data", ".zip").toFile();
+        Files.write(file.toPath(), content);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        transfer.close();
+        httpClient.close();
+        local.stop();
+        file.delete();
+    }
+
+    @Test
+    public void sendsRangesAndRetriesFailedOnes() {
+
+        final Upload upload = createUpload();
+        transfer.send(file, upload.getArn(), upload.getUrl(), upload.getContentType(), "key",
+                new TransferProgress(file.getName(), file.length(), LOGGER));
+
+        assertEquals(statusOf(upload), "SUCCEEDED");
+        assertEquals(local.getUploadedBytes(), file.length());
+        assertNull(journal.get("key"));
+    }
+
+    @Test
+    public void resumesWithTheRangesMissing() throws IOException {
+
+        final Upload upload = createUpload();
+
+        // A previous build sent the first 10 ranges before being interrupted
+        sendRanges(upload, 10);
+        final long sentBefore = local.getUploadedBytes();
+
+        assertEquals(transfer.resumable("key", file).getCompleted().size(), 10);
+        transfer.send(file, upload.getArn(), upload.getUrl(), upload.getContentType(), "key",
+                new TransferProgress(file.getName(), file.length(), LOGGER));
+
+        assertEquals(statusOf(upload), "SUCCEEDED");
+        assertEquals(local.getUploadedBytes() - sentBefore, file.length() - 10 * RANGE_SIZE);
+        assertNull(journal.get("key"));
+    }
+
+    @Test
+    public void completesWhenEveryRangeWasAlreadySent() throws IOException {
+
+        final Upload upload = createUpload();
+
+        // A previous build sent every range but stopped before removing the journal entry
+        sendRanges(upload, 17);
+        final long sentBefore = local.getUploadedBytes();
+
+        transfer.send(file, upload.getArn(), upload.getUrl(), upload.getContentType(), "key",
+                new TransferProgress(file.getName(), file.length(), LOGGER));
+
+        assertEquals(statusOf(upload), "SUCCEEDED");
+        assertEquals(local.getUploadedBytes(), sentBefore);
+        assertNull(journal.get("key"));
+    }
+
+    @Test
+    public void sendsSmallFilesWhole() throws IOException {
+
+        Files.write(file.toPath(), new byte[1000]);
+
+        final Upload upload = createUpload();
+        transfer.send(file, upload.getArn(), upload.getUrl(), upload.getContentType(), null,
+                new TransferProgress(file.getName(), file.length(), LOGGER));
+
+        assertEquals(statusOf(upload), "SUCCEEDED");
+        assertNull(local.getRequestCounts().get("S3.HeadObject"));
+    }
+
+    /**
+     * Send and journal the first ranges of the file, the way an interrupted build did.
+     */
+    private void sendRanges(final Upload upload, final int ranges) throws IOException {
+        journal.start("key", upload.getArn(), upload.getUrl(), file.length(), RANGE_SIZE);
+        final HttpUploadTransport transport = new HttpUploadTransport(httpClient);
+        for (int range = 0; range < ranges; range++) {
+            final ProgressFileEntity entity = new ProgressFileEntity(file, range * RANGE_SIZE,
+                    Math.min(RANGE_SIZE, file.length() - range * RANGE_SIZE),
+                    upload.getContentType(), new TransferProgress(file.getName(), file.length(), LOGGER));
+            while (true) {
+                try {
+                    transport.put(upload.getUrl(), upload.getContentType(), entity, null);
+                    break;
+                } catch (IOException e) {
+                    // Injected failure
+                }
+            }
+            journal.completed("key", range);
+        }
+    }
+
+    private Upload createUpload() {
+        return api.createUpload(new CreateUploadRequest().withProjectArn(projectArn).withName(file.getName())
+                .withType(UploadType.ANDROID_APP)).getUpload();
+    }
+
+    private String statusOf(final Upload upload) {
+        return api.getUpload(new GetUploadRequest().withArn(upload.getArn())).getUpload().getStatus();
+    }
+}
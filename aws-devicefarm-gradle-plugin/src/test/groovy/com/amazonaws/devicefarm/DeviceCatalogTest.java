@@ -0,0 +1,115 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.extension.DeviceSelectionRules;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.Device;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class DeviceCatalogTest {
+
+    @Test
+    public void selectsMatchingDevicesHighlyAvailableFirst() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final DeviceCatalog catalog = new DeviceCatalog(client(local), "test", 60000, 60000, null, false);
+
+            final DeviceSelectionRules rules = new DeviceSelectionRules();
+            rules.setMinOsVersion("8.1");
+            rules.setMaxOsVersion("9");
+            rules.setMaxDevices(3);
+
+            // Pixel 3 runs 10 and Moto G6 8.0.0, highly available devices come first, newest OS first
+            assertEquals(names(catalog.select(rules)), "OnePlus 6T, Samsung Galaxy Tab S4, Google Pixel 2");
+
+            rules.setAllowBusy(false);
+            rules.setMaxDevices(10);
+            assertEquals(names(catalog.select(rules)), "OnePlus 6T, Samsung Galaxy Tab S4, Google Pixel 2");
+
+            rules.setFormFactor("TABLET");
+            rules.setManufacturers(Collections.singletonList("Google"));
+            try {
+                catalog.select(rules);
+                throw new AssertionError("No device should match");
+            } catch (DeviceFarmException e) {
+                assertTrue(e.getMessage().startsWith("No device matches"));
+            }
+
+            assertEquals(local.getRequestCounts().get("ListDevices"), Integer.valueOf(1));
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void refreshesOnlyTheAvailabilityOfMatchingDevices() throws Exception {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final File snapshot = new File(Files.createTempDirectory("catalog").toFile(), "catalog.json");
+            final DeviceCatalog catalog = new DeviceCatalog(client(local), "refresh", 60000, 0, snapshot, false);
+            final Map<String, String> arns = local.getDeviceArns();
+
+            final DeviceSelectionRules rules = new DeviceSelectionRules();
+            rules.setManufacturers(Collections.singletonList("Google"));
+            assertEquals(names(catalog.select(rules)), "Google Pixel 3, Google Pixel 2");
+            assertTrue(snapshot.isFile());
+
+            local.setDeviceAvailability(arns.get("Google Pixel 3"), "BUSY");
+            local.setDeviceAvailability(arns.get("Google Pixel 2"), null);
+            Thread.sleep(5);
+            assertEquals(names(catalog.select(rules)), "Google Pixel 3");
+
+            // One full listing, then one listing of the two Google devices
+            assertEquals(local.getRequestCounts().get("ListDevices"), Integer.valueOf(2));
+
+            // A new daemon starts from the snapshot
+            final DeviceCatalog restarted = new DeviceCatalog(client(local), "other scope", 60000, 60000, snapshot, false);
+            rules.setManufacturers(Collections.singletonList("Samsung"));
+            assertEquals(names(restarted.select(rules)), "Samsung Galaxy Tab S4, Samsung Galaxy S9");
+            assertEquals(local.getRequestCounts().get("ListDevices"), Integer.valueOf(2));
+        } finally {
+            local.stop();
+        }
+    }
+
+    private static AWSDeviceFarmClient client(final LocalDeviceFarm local) {
+        final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+        api.setEndpoint(local.getEndpoint());
+        return api;
+    }
+
+    private static String names(final List<Device> devices) {
+        final StringBuilder names = new StringBuilder();
+        for (Device device : devices) {
+            names.append(names.length() == 0 ? "" : ", ").append(device.getName());
+        }
+        return names.toString();
+    }
+}
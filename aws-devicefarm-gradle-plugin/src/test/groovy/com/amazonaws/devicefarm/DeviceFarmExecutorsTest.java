@@ -0,0 +1,142 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class DeviceFarmExecutorsTest {
+
+    @Test
+    public void saturatedExecutorsMakeTheSubmitterWaitInsteadOfRunningTheTask() throws Exception {
+
+        final ThreadPoolExecutor executor = DeviceFarmExecutors.newBoundedExecutor("test-pool", 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = Collections.synchronizedList(Lists.<String>newArrayList());
+        final ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            // One task running, one waiting, the third submission has to wait for room
+            executor.submit(recording(threads, release));
+            executor.submit(recording(threads, release));
+            final Future<?> third = submitter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    executor.submit(recording(threads, release));
+                }
+            });
+
+            try {
+                third.get(200, TimeUnit.MILLISECONDS);
+                fail("The third task was submitted while the executor was saturated");
+            } catch (TimeoutException expected) {
+                // Still waiting for room in the queue
+            }
+
+            release.countDown();
+            third.get(5, TimeUnit.SECONDS);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+            assertEquals(threads.size(), 3);
+            for (String thread : threads) {
+                assertTrue(thread.startsWith("test-pool-"), thread);
+            }
+        } finally {
+            submitter.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rejectsTasksSubmittedAfterShutdown() {
+
+        final ThreadPoolExecutor executor = DeviceFarmExecutors.newBoundedExecutor("test-pool", 1, 1);
+        executor.shutdown();
+
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("A task was accepted after shutdown");
+        } catch (RejectedExecutionException expected) {
+            assertTrue(executor.getQueue().isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsWaitingTasksWhenShutDownWhileWaiting() throws Exception {
+
+        final ThreadPoolExecutor executor = DeviceFarmExecutors.newBoundedExecutor("test-pool", 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = Collections.synchronizedList(Lists.<String>newArrayList());
+        final ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(recording(threads, release));
+            executor.submit(recording(threads, release));
+            final Future<?> third = submitter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    executor.submit(recording(threads, release));
+                }
+            });
+            Thread.sleep(100);
+
+            // Interrupts the running task and drops the waiting one, which makes room for the third
+            executor.shutdownNow();
+
+            try {
+                third.get(5, TimeUnit.SECONDS);
+                fail("The third task was accepted by an executor shut down");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            release.countDown();
+            submitter.shutdownNow();
+        }
+    }
+
+    private static Runnable recording(final List<String> threads, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread().getName());
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
@@ -29,11 +29,14 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 
 
 public class DeviceFarmPluginTest {
@@ -60,6 +63,56 @@ public class DeviceFarmPluginTest {
 
     }
 
+    @Test
+    public void uploadsConfiguredAfterApplyAreUsed() throws IOException {
+
+        gradleProject.getPluginManager().apply("com.android.application");
+        gradleProject.getPluginManager().apply("devicefarm");
+
+        final DeviceFarmServer server = (DeviceFarmServer) ((AppExtension) gradleProject.getExtensions()
+                .findByName("android")).getTestServers().get(0);
+
+        // What the devicefarm block of the build script does, once the plugin is applied
+        final DeviceFarmExtension extension = (DeviceFarmExtension) gradleProject.getExtensions().findByName("devicefarm");
+        extension.setProjectName("MyProject");
+        extension.getLocal().setEnabled(true);
+        extension.getLocal().setLatencyMillis(0);
+        extension.getLocal().setProcessingMillis(0);
+        final File cacheDir = new File(gradleProject.getBuildDir(), "upload-cache");
+        extension.getUploads().setCacheDir(cacheDir);
+        extension.getUploads().getPolling().setInitialDelayMillis(10);
+
+        final File testPackage = new File(gradleProject.getBuildDir(), "app-debug-androidTest.apk");
+        Files.createDirectories(testPackage.getParentFile().toPath());
+        Files.write(testPackage.toPath(), "test package".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            server.uploadArtifacts(testPackage, null);
+        } finally {
+            server.close();
+        }
+
+        assertTrue(new File(cacheDir, "upload-cache.properties").isFile());
+    }
+
+    @Test
+    public void extraDataZipConfiguredAfterApplyIsUsed() {
+
+        gradleProject.getPluginManager().apply("com.android.application");
+        gradleProject.getPluginManager().apply("devicefarm");
+
+        // What the build script does, once the plugin is applied
+        gradleProject.setBuildDir(new File(gradleProject.getProjectDir(), "out"));
+
+        final DeviceFarmExtraDataZipTask task = (DeviceFarmExtraDataZipTask) gradleProject.getTasks()
+                .getByName(DeviceFarmPlugin.EXTRA_DATA_ZIP_TASK_NAME);
+        final DeviceFarmExtension extension = (DeviceFarmExtension) gradleProject.getExtensions().findByName("devicefarm");
+
+        assertEquals(task.getZipFile(), extension.getBuiltExtraDataZipFile());
+        assertTrue(task.getOutputs().getFiles().contains(extension.getBuiltExtraDataZipFile()));
+        assertTrue(task.getZipFile().getPath().contains(File.separator + "out" + File.separator));
+    }
+
     @Test
     public void instrumentationTest(@Injectable File testPackage, @Injectable File testedApp) throws IOException {
 
@@ -118,4 +171,47 @@ public class DeviceFarmPluginTest {
 
     }
 
+    @Test
+    public void unknownDevicePoolFailsBeforeUploading(@Injectable File testPackage, @Injectable File testedApp)
+            throws IOException {
+
+        final ListProjectsResult projectList = new ListProjectsResult();
+        projectList.setProjects(Arrays.asList(new com.amazonaws.services.devicefarm.model.Project()
+                .withName("MyProject")
+                .withArn("1234")));
+
+        final ListDevicePoolsResult devicePoolList = new ListDevicePoolsResult();
+        devicePoolList.setDevicePools(Arrays.asList(new DevicePool().withName("Top Devices").withArn("1234")));
+
+        DeviceFarmExtension extension = new DeviceFarmExtension(gradleProject);
+        extension.setProjectName("MyProject");
+        extension.setDevicePool("Top Devicse");
+
+        DeviceFarmServer server = new DeviceFarmServer(extension, loggerMock, apiMock, uploaderMock, new DeviceFarmUtils(apiMock, extension));
+
+        new Expectations() {{
+
+            apiMock.listProjects(new ListProjectsRequest());
+            result = projectList;
+
+            apiMock.listDevicePools(new ListDevicePoolsRequest().withArn("1234"));
+            result = devicePoolList;
+
+        }};
+
+        try {
+            server.uploadApks("debug", testPackage, testedApp);
+            fail("The misspelled device pool was not reported");
+        } catch (DeviceFarmException e) {
+            assertTrue(e.getMessage().contains("Top Devicse"));
+        }
+
+        new Verifications() {{
+
+            uploaderMock.upload((File) any, (com.amazonaws.services.devicefarm.model.Project) any, (UploadType) any);
+            times = 0;
+
+        }};
+    }
+
 }
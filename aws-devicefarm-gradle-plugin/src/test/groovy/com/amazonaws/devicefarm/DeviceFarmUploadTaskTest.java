@@ -0,0 +1,79 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.devicefarm.extension.AppiumTest;
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DeviceFarmUploadTaskTest {
+
+    @Test
+    public void uploadsAgainWhenOnlyTheConfiguredTestPackageChanges() throws IOException {
+
+        final Project project = ProjectBuilder.builder().build();
+        final File apk = write(project, "app-debug.apk", "app");
+        final File testApk = write(project, "app-debug-androidTest.apk", "instrumentation");
+        final File tests = write(project, "tests.zip", "appium tests");
+        final File otherTests = write(project, "other-tests.zip", "other appium tests");
+
+        final DeviceFarmExtension extension = new DeviceFarmExtension(project);
+        extension.setProjectName("MyProject");
+        final AppiumTest appium = new AppiumTest();
+        appium.setTestPackage(tests);
+        extension.setTest(appium);
+
+        final DeviceFarmUploadTask task = project.getTasks().create("devicefarmUploadArtifactsDebug",
+                DeviceFarmUploadTask.class);
+        task.setExtension(extension);
+        task.setTestedApk(apk);
+        task.setTestPackage(testApk);
+        task.setArnsFile(new File(project.getBuildDir(), "devicefarm/arns.properties"));
+
+        Set<File> inputs = task.getInputs().getFiles().getFiles();
+        assertTrue(inputs.contains(tests), inputs.toString());
+        assertEquals(task.getInputs().getProperties().get("testPackageUploadType"),
+                "APPIUM_JAVA_JUNIT_TEST_PACKAGE");
+
+        // Only the zip changes, the instrumentation apk and tested apk are the same
+        appium.setTestPackage(otherTests);
+        inputs = task.getInputs().getFiles().getFiles();
+        assertTrue(inputs.contains(otherTests), inputs.toString());
+        assertFalse(inputs.contains(tests), inputs.toString());
+
+        appium.useTestNG();
+        assertEquals(task.getInputs().getProperties().get("testPackageUploadType"),
+                "APPIUM_JAVA_TESTNG_TEST_PACKAGE");
+    }
+
+    private static File write(final Project project, final String name, final String content) throws IOException {
+        final File file = new File(project.getBuildDir(), name);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
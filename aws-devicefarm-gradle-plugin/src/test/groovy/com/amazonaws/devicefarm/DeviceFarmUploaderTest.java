@@ -0,0 +1,115 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.CreateUploadRequest;
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class DeviceFarmUploaderTest {
+
+    private LocalDeviceFarm local;
+    private AWSDeviceFarmClient api;
+    private Project project;
+    private File apk;
+    private UploadCache cache;
+    private String cacheKey;
+
+    @BeforeMethod
+    public void startLocal() throws IOException {
+        local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+        api.setEndpoint(local.getEndpoint());
+        project = new Project().withName("MyProject").withArn(local.seedProject("MyProject"));
+
+        final File dir = Files.createTempDirectory("uploader").toFile();
+        apk = new File(dir, "app.apk");
+        Files.write(apk.toPath(), new byte[4096]);
+        cache = new UploadCache(new File(dir, "cache"));
+        cacheKey = cache.keyFor(apk, project, UploadType.ANDROID_APP);
+    }
+
+    @AfterMethod
+    public void stopLocal() {
+        local.stop();
+    }
+
+    @Test
+    public void reusesCachedUploadsThatSucceeded() {
+
+        final String uploadArn = local.seedUpload(project.getArn(), "app.apk", "ANDROID_APP");
+        cache.put(cacheKey, uploadArn);
+
+        assertEquals(upload().getArn(), uploadArn);
+        assertEquals(local.getUploadedBytes(), 0);
+    }
+
+    @Test
+    public void uploadsAgainWhenTheCachedUploadWasDeleted() {
+
+        final String deletedArn = local.seedUpload(project.getArn(), "app.apk", "ANDROID_APP") + "-deleted";
+        cache.put(cacheKey, deletedArn);
+
+        final Upload upload = upload();
+
+        assertFalse(upload.getArn().equals(deletedArn));
+        assertEquals(local.getUploadedBytes(), 4096);
+        assertEquals(new UploadCache(cacheDir()).get(cacheKey), upload.getArn());
+    }
+
+    @Test
+    public void uploadsAgainWhenTheCachedUploadDidNotSucceed() {
+
+        // Created but never sent, the upload stays INITIALIZED
+        final String pendingArn = api.createUpload(new CreateUploadRequest()
+                .withProjectArn(project.getArn())
+                .withName("app.apk")
+                .withType(UploadType.ANDROID_APP)).getUpload().getArn();
+        cache.put(cacheKey, pendingArn);
+
+        final Upload upload = upload();
+
+        assertFalse(upload.getArn().equals(pendingArn));
+        assertEquals(local.getUploadedBytes(), 4096);
+        assertEquals(new UploadCache(cacheDir()).get(cacheKey), upload.getArn());
+    }
+
+    private Upload upload() {
+        try (DeviceFarmUploader uploader = new DeviceFarmUploader(api, Logging.getLogger(DeviceFarmUploaderTest.class),
+                cache, new PollStrategy(20, 1.0, 20, 0, 60000),
+                DeviceFarmUploader.newHttpClient(2, 10000, 10000))) {
+            return uploader.upload(apk, project, UploadType.ANDROID_APP);
+        }
+    }
+
+    private File cacheDir() {
+        return new File(apk.getParentFile(), "cache");
+    }
+}
@@ -0,0 +1,206 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DexTestClassScannerTest {
+
+    private static final int ACC_PUBLIC = 0x1;
+    private static final int ACC_INTERFACE = 0x200;
+    private static final int ACC_ABSTRACT = 0x400;
+
+    private static final String RUN_WITH = "org.junit.runner.RunWith";
+    private static final String TEST = "org.junit.Test";
+
+    @Test
+    public void listsTheConcreteTopLevelTestClassesOfEveryDex() throws IOException {
+
+        final byte[] first = dex(
+                new ClassDef("com.example.LoginTest", ACC_PUBLIC).withMethodsAnnotatedWith(TEST),
+                new ClassDef("com.example.BaseTest", ACC_PUBLIC | ACC_ABSTRACT).withMethodsAnnotatedWith(TEST),
+                new ClassDef("com.example.SlowTest", ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT),
+                new ClassDef("com.example.LoginTest$InnerTest", ACC_PUBLIC).withMethodsAnnotatedWith(TEST),
+                new ClassDef("com.example.LoginHelper", ACC_PUBLIC),
+                new ClassDef("com.example.ScreenshotTest", ACC_PUBLIC),
+                new ClassDef("com.example.AllSpec", ACC_PUBLIC).annotatedWith(RUN_WITH));
+        final byte[] second = dex(
+                new ClassDef("com.example.settings.SettingsTests", ACC_PUBLIC)
+                        .extending("android.test.ActivityInstrumentationTestCase2"),
+                // Inherits its test methods from a class of the other dex
+                new ClassDef("com.example.settings.CheckoutIT", ACC_PUBLIC).extending("com.example.BaseTest"),
+                new ClassDef("androidx.test.espresso.EspressoTest", ACC_PUBLIC).withMethodsAnnotatedWith(TEST));
+
+        final File apk = apk(first, second);
+
+        assertEquals(DexTestClassScanner.findTestClasses(apk, Collections.<String>emptyList()),
+                Lists.newArrayList("com.example.AllSpec", "com.example.LoginTest",
+                        "com.example.settings.CheckoutIT", "com.example.settings.SettingsTests"));
+        assertEquals(DexTestClassScanner.findTestClasses(apk, Collections.singletonList("com.example.settings")),
+                Lists.newArrayList("com.example.settings.CheckoutIT", "com.example.settings.SettingsTests"));
+    }
+
+    @Test
+    public void keepsTheTestsOfAppsUnderComGoogle() {
+
+        final List<String> anyPackage = Collections.emptyList();
+
+        assertTrue(DexTestClassScanner.isIncluded("com.google.example.app.LoginTest", anyPackage));
+        assertFalse(DexTestClassScanner.isIncluded("com.google.common.collect.ListsTest", anyPackage));
+        assertFalse(DexTestClassScanner.isIncluded(
+                "com.google.android.apps.common.testing.ui.espresso.EspressoTest", anyPackage));
+        assertFalse(DexTestClassScanner.isIncluded("org.junit.runner.RunnerTest", anyPackage));
+        assertFalse(DexTestClassScanner.isIncluded("com.google.example.app.LoginTest$Inner", anyPackage));
+    }
+
+    /**
+     * A dex holding only what the scanner reads: the header offsets, string ids, type ids,
+     * class definitions, their annotations and string data.
+     */
+    private static byte[] dex(final ClassDef... classes) {
+
+        final List<String> types = Lists.newArrayList();
+        for (ClassDef definition : classes) {
+            for (String type : new String[]{definition.name, definition.superclass,
+                    definition.classAnnotation, definition.methodAnnotation}) {
+                if (type != null && !types.contains(type)) {
+                    types.add(type);
+                }
+            }
+        }
+
+        final int count = types.size();
+        final int stringIds = 0x70;
+        final int typeIds = stringIds + count * 4;
+        final int classDefs = typeIds + count * 4;
+        final int data = classDefs + classes.length * 32;
+
+        final ByteBuffer dex = ByteBuffer.allocate(data + 4096).order(ByteOrder.LITTLE_ENDIAN);
+        dex.put("dex\n035\0".getBytes(StandardCharsets.US_ASCII));
+        dex.putInt(0x38, count).putInt(0x3C, stringIds);
+        dex.putInt(0x40, count).putInt(0x44, typeIds);
+        dex.putInt(0x60, classes.length).putInt(0x64, classDefs);
+
+        dex.position(data);
+        for (int i = 0; i < count; i++) {
+            final byte[] descriptor = ("L" + types.get(i).replace('.', '/') + ";").getBytes(StandardCharsets.UTF_8);
+            dex.putInt(stringIds + i * 4, dex.position());
+            dex.put((byte) descriptor.length).put(descriptor).put((byte) 0);
+            dex.putInt(typeIds + i * 4, i);
+        }
+
+        for (int i = 0; i < classes.length; i++) {
+            final ClassDef definition = classes[i];
+            final int classDef = classDefs + i * 32;
+            dex.putInt(classDef, types.indexOf(definition.name));
+            dex.putInt(classDef + 4, definition.flags);
+            dex.putInt(classDef + 8, types.indexOf(definition.superclass));
+
+            if (definition.classAnnotation != null || definition.methodAnnotation != null) {
+                final int classSet = annotationSet(dex, types.indexOf(definition.classAnnotation));
+                final int methodSet = annotationSet(dex, types.indexOf(definition.methodAnnotation));
+                // annotations_directory_item: class annotations, no field, one method, no parameter
+                dex.putInt(classDef + 20, dex.position());
+                dex.putInt(classSet).putInt(0).putInt(methodSet == 0 ? 0 : 1).putInt(0);
+                if (methodSet != 0) {
+                    dex.putInt(0).putInt(methodSet);
+                }
+            }
+        }
+
+        return dex.array();
+    }
+
+    /**
+     * @return offset of an annotation set holding one annotation of the type, 0 without type
+     */
+    private static int annotationSet(final ByteBuffer dex, final int type) {
+
+        if (type < 0) {
+            return 0;
+        }
+
+        // annotation_item: runtime visibility, uleb128 type index and element count
+        final int annotation = dex.position();
+        dex.put((byte) 1).put((byte) type).put((byte) 0);
+
+        while (dex.position() % 4 != 0) {
+            dex.put((byte) 0);
+        }
+        final int set = dex.position();
+        dex.putInt(1).putInt(annotation);
+        return set;
+    }
+
+    private static File apk(final byte[]... dexes) throws IOException {
+        final File apk = new File(Files.createTempDirectory("dex-scanner").toFile(), "app-androidTest.apk");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk))) {
+            zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            zip.closeEntry();
+            for (int i = 0; i < dexes.length; i++) {
+                zip.putNextEntry(new ZipEntry(i == 0 ? "classes.dex" : String.format("classes%d.dex", i + 1)));
+                zip.write(dexes[i]);
+                zip.closeEntry();
+            }
+        }
+        return apk;
+    }
+
+    private static final class ClassDef {
+
+        private final String name;
+        private final int flags;
+        private String superclass = "java.lang.Object";
+        private String classAnnotation;
+        private String methodAnnotation;
+
+        private ClassDef(final String name, final int flags) {
+            this.name = name;
+            this.flags = flags;
+        }
+
+        private ClassDef extending(final String superclass) {
+            this.superclass = superclass;
+            return this;
+        }
+
+        private ClassDef annotatedWith(final String annotation) {
+            this.classAnnotation = annotation;
+            return this;
+        }
+
+        private ClassDef withMethodsAnnotatedWith(final String annotation) {
+            this.methodAnnotation = annotation;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+public class DurationHistoryTest {
+
+    @Test
+    public void samplesSurviveAcrossInstances() throws IOException {
+
+        final File file = new File(Files.createTempDirectory("duration-history").toFile(), "project.tsv");
+
+        final DurationHistory history = DurationHistory.load(file, 50);
+        for (long i = 1; i <= 100; i++) {
+            history.record(DurationHistory.JOB, "Pixel (9)", i * 1000);
+        }
+        history.flush();
+
+        final DurationHistory loaded = DurationHistory.load(file, 50);
+        // Only the 50 most recent samples are kept
+        assertEquals(loaded.count(DurationHistory.JOB, "Pixel (9)"), 50);
+        assertEquals(loaded.percentile(DurationHistory.JOB, 0.99), Long.valueOf(100000));
+        assertEquals(loaded.percentile(DurationHistory.JOB, "Pixel (9)", 0.5), Long.valueOf(75000));
+        assertNull(loaded.percentile(DurationHistory.JOB, "Unknown", 0.5));
+    }
+
+    @Test
+    public void remembersRecordedRuns() throws IOException {
+
+        final File file = new File(Files.createTempDirectory("duration-history").toFile(), "project.tsv");
+
+        final DurationHistory history = DurationHistory.load(file, 50);
+        history.record(DurationHistory.RUN, "app.apk (Gradle)", 60000);
+        history.markRecorded("arn:run/1");
+        history.flush();
+
+        final DurationHistory loaded = DurationHistory.load(file, 50);
+        assertTrue(loaded.isRecorded("arn:run/1"));
+        assertFalse(loaded.isRecorded("arn:run/2"));
+        assertEquals(loaded.count(DurationHistory.RUN), 1);
+    }
+
+    @Test
+    public void compactionKeepsSamplesAppendedByOtherBuilds() throws IOException {
+
+        final File file = new File(Files.createTempDirectory("duration-history").toFile(), "project.tsv");
+
+        final DurationHistory first = DurationHistory.load(file, 1);
+        final DurationHistory second = DurationHistory.load(file, 1);
+
+        second.record(DurationHistory.SUITE, "com.example.OtherTest", 5000);
+        second.markRecorded("arn:run/other");
+        second.flush();
+
+        // Enough lines for the first build to compact the file, which it loaded before the second build appended
+        for (long i = 1; i <= 1200; i++) {
+            first.record(DurationHistory.JOB, "Pixel (9)", i);
+        }
+        first.flush();
+
+        final DurationHistory loaded = DurationHistory.load(file, 1);
+        assertEquals(loaded.percentile(DurationHistory.JOB, "Pixel (9)", 0.5), Long.valueOf(1200));
+        assertEquals(loaded.count(DurationHistory.SUITE, "com.example.OtherTest"), 1);
+        assertTrue(loaded.isRecorded("arn:run/other"));
+        assertTrue(Files.readAllLines(file.toPath()).size() < 10);
+    }
+
+    @Test
+    public void estimatesPackagesFromTheirSuites() {
+
+        final DurationHistory history = new DurationHistory(new File("unused"), 10);
+        history.record(DurationHistory.SUITE, "com.example.a.FirstTest", 1000);
+        history.record(DurationHistory.SUITE, "com.example.a.SecondTest", 2000);
+        history.record(DurationHistory.SUITE, "com.example.b.ThirdTest", 4000);
+
+        final Map<String, Long> estimates = history.estimate(DurationHistory.SUITE,
+                Lists.newArrayList("com.example.a", "com.example.b.ThirdTest", "com.example.c"));
+
+        assertEquals(estimates.get("com.example.a"), Long.valueOf(3000));
+        assertEquals(estimates.get("com.example.b.ThirdTest"), Long.valueOf(4000));
+        assertFalse(estimates.containsKey("com.example.c"));
+    }
+}
@@ -0,0 +1,108 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+public class JUnitReportWriterTest {
+
+    @org.testng.annotations.Test
+    public void countsAndMapsTheResultsOfEachSuite() throws Exception {
+
+        final Suite suite = new Suite().withName("com.example.LoginTest");
+        final Map<Suite, List<Test>> tests = ImmutableMap.<Suite, List<Test>>of(suite, Lists.newArrayList(
+                test("passes", ExecutionResult.PASSED, null, 1500),
+                test("fails", ExecutionResult.FAILED, "expected:<1> but was:<2>", 250),
+                test("errors", ExecutionResult.ERRORED, "Process crashed", 0),
+                test("stops", ExecutionResult.STOPPED, null, 0),
+                test("skips", ExecutionResult.SKIPPED, null, 0)));
+
+        final Element testSuite = (Element) write("Pixel 3", tests).getElementsByTagName("testsuite").item(0);
+
+        assertEquals(testSuite.getAttribute("name"), "Pixel 3 - com.example.LoginTest");
+        assertEquals(testSuite.getAttribute("tests"), "5");
+        assertEquals(testSuite.getAttribute("failures"), "1");
+        assertEquals(testSuite.getAttribute("errors"), "2");
+        assertEquals(testSuite.getAttribute("skipped"), "1");
+        assertEquals(testSuite.getAttribute("time"), "1.750");
+
+        final NodeList testCases = testSuite.getElementsByTagName("testcase");
+        assertEquals(testCases.getLength(), 5);
+        assertEquals(((Element) testCases.item(0)).getElementsByTagName("*").getLength(), 0);
+
+        final Element failure = (Element) ((Element) testCases.item(1)).getElementsByTagName("failure").item(0);
+        assertEquals(failure.getAttribute("message"), "expected:<1> but was:<2>");
+        assertEquals(failure.getTextContent(), "expected:<1> but was:<2>");
+
+        final Element error = (Element) ((Element) testCases.item(2)).getElementsByTagName("error").item(0);
+        assertEquals(error.getAttribute("type"), "ERRORED");
+        assertEquals(error.getTextContent(), "Process crashed");
+
+        final Element stopped = (Element) ((Element) testCases.item(3)).getElementsByTagName("error").item(0);
+        assertEquals(stopped.getAttribute("type"), "STOPPED");
+        assertEquals(stopped.getAttribute("message"), "");
+
+        assertEquals(((Element) testCases.item(4)).getElementsByTagName("skipped").getLength(), 1);
+    }
+
+    @org.testng.annotations.Test
+    public void escapesNamesAndMessages() throws Exception {
+
+        final String message = "<assert> \"a\" & 'b' failed\nat line 2";
+        final Map<Suite, List<Test>> tests = ImmutableMap.<Suite, List<Test>>of(
+                new Suite().withName("Suite <&>"),
+                Lists.newArrayList(test("name \"quoted\" & <tagged>", ExecutionResult.FAILED, message, 0)));
+
+        final Document report = write("Galaxy \"S9\" & <Tab>", tests);
+
+        final Element testCase = (Element) report.getElementsByTagName("testcase").item(0);
+        assertEquals(testCase.getAttribute("classname"), "Galaxy \"S9\" & <Tab>.Suite <&>");
+        assertEquals(testCase.getAttribute("name"), "name \"quoted\" & <tagged>");
+        assertEquals(testCase.getElementsByTagName("failure").item(0).getTextContent(), message);
+    }
+
+    private static Document write(final String device, final Map<Suite, List<Test>> tests) throws Exception {
+        final File file = new File(Files.createTempDirectory("junit-report").toFile(), "reports/TEST-device.xml");
+        JUnitReportWriter.write(file, device, tests);
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    private static Test test(final String name, final ExecutionResult result, final String message,
+                             final long millis) {
+        final Date started = new Date(1500000000000L);
+        return new Test()
+                .withName(name)
+                .withResult(result)
+                .withMessage(message)
+                .withStarted(started)
+                .withStopped(new Date(started.getTime() + millis));
+    }
+}
@@ -0,0 +1,133 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MetadataCacheTest {
+
+    @Test
+    public void isolatesScopes() {
+
+        final String name = unique("MyProject");
+        final MetadataCache roleA = new MetadataCache("arn:aws:iam::1:role/a|default", 60000, null, false);
+        final MetadataCache roleB = new MetadataCache("arn:aws:iam::1:role/b|default", 60000, null, false);
+
+        roleA.put(MetadataCache.PROJECT, "", name, "arn:project:a");
+
+        assertEquals(roleA.get(MetadataCache.PROJECT, "", name).getArn(), "arn:project:a");
+        assertNull(roleB.get(MetadataCache.PROJECT, "", name));
+    }
+
+    @Test
+    public void expiresEntriesAfterTheirTtl() throws InterruptedException {
+
+        final String name = unique("MyProject");
+        final MetadataCache cache = new MetadataCache("expiry", 100, null, false);
+
+        cache.put(MetadataCache.PROJECT, "", name, "arn:project");
+        assertNotNull(cache.get(MetadataCache.PROJECT, "", name));
+
+        Thread.sleep(200);
+        assertNull(cache.get(MetadataCache.PROJECT, "", name));
+    }
+
+    @Test
+    public void ignoresEntriesWhenRefreshing() {
+
+        final String name = unique("MyProject");
+        new MetadataCache("refresh", 60000, null, false).put(MetadataCache.PROJECT, "", name, "arn:project");
+
+        assertNull(new MetadataCache("refresh", 60000, null, true).get(MetadataCache.PROJECT, "", name));
+    }
+
+    @Test
+    public void scopesLookupsByCredentialsConfiguredAfterCreation() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final String name = unique("MyProject");
+            final String projectArn = local.seedProject(name);
+
+            final DeviceFarmExtension extension = new DeviceFarmExtension(ProjectBuilder.builder().build());
+            final DeviceFarmUtils utils = new DeviceFarmUtils(client(local), extension);
+
+            // The devicefarm block of the build script runs after the plugin created its lookups
+            final String roleArn = unique("arn:aws:iam::1:role/");
+            extension.getAuthentication().setRoleArn(roleArn);
+
+            assertEquals(utils.findProjectByName(name).getArn(), projectArn);
+            assertEquals(new MetadataCache(roleArn + "|default", 60000, null, false)
+                    .get(MetadataCache.PROJECT, "", name).getArn(), projectArn);
+            assertNull(new MetadataCache("default|default", 60000, null, false).get(MetadataCache.PROJECT, "", name));
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void neverCachesLocalArnsWhenLocalModeIsConfiguredAfterCreation() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final String name = unique("MyProject");
+            local.seedProject(name);
+
+            final DeviceFarmExtension extension = new DeviceFarmExtension(ProjectBuilder.builder().build());
+            final DeviceFarmUtils utils = new DeviceFarmUtils(client(local), extension);
+
+            // local { enabled "on" } in the build script, not -Pdevicefarm.local
+            extension.getLocal().setEnabled(true);
+            extension.getMetadata().setSnapshot(true);
+
+            utils.findProjectByName(name);
+
+            for (String scope : new String[]{"default|default", "local"}) {
+                assertNull(new MetadataCache(scope, 60000, null, false).get(MetadataCache.PROJECT, "", name));
+            }
+            final File snapshot = extension.getMetadataSnapshotFile();
+            assertTrue(!snapshot.exists()
+                    || !new String(Files.readAllBytes(snapshot.toPath()), StandardCharsets.ISO_8859_1).contains(name));
+        } finally {
+            local.stop();
+        }
+    }
+
+    private static String unique(final String prefix) {
+        return prefix + UUID.randomUUID();
+    }
+
+    private static AWSDeviceFarmClient client(final LocalDeviceFarm local) {
+        final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+        api.setEndpoint(local.getEndpoint());
+        return api;
+    }
+}
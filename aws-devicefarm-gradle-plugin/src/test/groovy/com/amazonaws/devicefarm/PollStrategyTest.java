@@ -0,0 +1,52 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+
+public class PollStrategyTest {
+
+    @Test
+    public void jitterStaysWithinBounds() {
+
+        final PollStrategy strategy = new PollStrategy(1000, 2.0, 8000, 0.25, 60000);
+
+        for (int i = 0; i < 100; i++) {
+            final long delay = strategy.withJitter(1000);
+            assertTrue(delay >= 750 && delay <= 1250);
+        }
+    }
+
+    @Test
+    public void sessionCountsPolls() {
+
+        final PollStrategy.Session session = new PollStrategy(1, 2.0, 4, 0.0, 60000).start("test");
+
+        session.sleep();
+        session.sleep();
+
+        assertEquals(session.getPolls(), 2);
+    }
+
+    @Test(expectedExceptions = DeviceFarmException.class)
+    public void sessionFailsPastDeadline() {
+
+        new PollStrategy(1, 2.0, 4, 0.0, 0).start("test").sleep();
+    }
+}
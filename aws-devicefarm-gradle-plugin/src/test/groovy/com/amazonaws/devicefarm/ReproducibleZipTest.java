@@ -0,0 +1,68 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class ReproducibleZipTest {
+
+    @Test
+    public void sameContentGivesSameBytes() throws IOException {
+
+        final File dir = Files.createTempDirectory("reproducible-zip").toFile();
+        final File text = writeFile(dir, "data.txt", "some text");
+        final File image = writeFile(dir, "image.png", "not really a png");
+
+        final SortedMap<String, File> entries = new TreeMap<>();
+        entries.put("data.txt", text);
+        entries.put("images/image.png", image);
+
+        final File first = new File(dir, "first.zip");
+        ReproducibleZip.write(first, entries);
+
+        assertTrue(text.setLastModified(text.lastModified() - 60000));
+        final File second = new File(dir, "second.zip");
+        ReproducibleZip.write(second, entries);
+
+        assertTrue(Files.readAllBytes(first.toPath()).length > 0);
+        assertEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+
+        try (ZipFile zip = new ZipFile(first)) {
+            assertEquals(zip.getEntry("data.txt").getMethod(), ZipEntry.DEFLATED);
+            assertEquals(zip.getEntry("images/image.png").getMethod(), ZipEntry.STORED);
+        }
+    }
+
+    private static File writeFile(final File dir, final String name, final String content) throws IOException {
+        final File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+        return file;
+    }
+}
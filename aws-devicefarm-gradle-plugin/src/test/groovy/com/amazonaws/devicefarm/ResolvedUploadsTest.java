@@ -0,0 +1,83 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Project;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ResolvedUploadsTest {
+
+    private static final Project PROJECT = new Project().withName("My Project").withArn("arn:aws:devicefarm:us-west-2:1:project:p");
+
+    @Test
+    public void readsWhatItWrote() throws IOException {
+
+        final File file = new File(Files.createTempDirectory("resolved-uploads").toFile(), "debug.properties");
+        new ResolvedUploads(PROJECT, "app-debug.apk", "arn:app", "arn:tests", "arn:spec", "arn:data",
+                Lists.newArrayList("arn:aux1", "arn:aux2")).writeTo(file);
+
+        final ResolvedUploads read = ResolvedUploads.readFrom(file);
+        assertEquals(read.getProject().getName(), "My Project");
+        assertEquals(read.getProject().getArn(), PROJECT.getArn());
+        assertEquals(read.getAppName(), "app-debug.apk");
+        assertEquals(read.getAppArn(), "arn:app");
+        assertEquals(read.getTestPackageArn(), "arn:tests");
+        assertEquals(read.getTestSpecArn(), "arn:spec");
+        assertEquals(read.getExtraDataArn(), "arn:data");
+        assertEquals(read.getAuxAppArns(), Lists.newArrayList("arn:aux1", "arn:aux2"));
+        assertEquals(read.getUploadArns(), Lists.newArrayList("arn:app", "arn:tests", "arn:data", "arn:aux1", "arn:aux2"));
+    }
+
+    @Test
+    public void readsMissingOptionalArnsAsNull() throws IOException {
+
+        final File file = new File(Files.createTempDirectory("resolved-uploads").toFile(), "debug.properties");
+        new ResolvedUploads(PROJECT, "app-debug.apk", "arn:app", null, null, null,
+                Collections.<String>emptyList()).writeTo(file);
+
+        final ResolvedUploads read = ResolvedUploads.readFrom(file);
+        assertNull(read.getTestPackageArn());
+        assertNull(read.getTestSpecArn());
+        assertNull(read.getExtraDataArn());
+        assertEquals(read.getAuxAppArns(), Collections.<String>emptyList());
+        assertEquals(read.getUploadArns(), Collections.singletonList("arn:app"));
+    }
+
+    @Test
+    public void sameArnsGiveSameBytes() throws IOException, InterruptedException {
+
+        final File dir = Files.createTempDirectory("resolved-uploads").toFile();
+        final ResolvedUploads uploads = new ResolvedUploads(PROJECT, "app-debug.apk", "arn:app", "arn:tests", null,
+                "arn:data", Lists.newArrayList("arn:aux1"));
+
+        final File first = new File(dir, "first.properties");
+        uploads.writeTo(first);
+        // Properties.store writes the current time in a comment
+        Thread.sleep(1100);
+        final File second = new File(dir, "second.properties");
+        ResolvedUploads.readFrom(first).writeTo(second);
+
+        assertEquals(Files.readAllBytes(second.toPath()), Files.readAllBytes(first.toPath()));
+    }
+}
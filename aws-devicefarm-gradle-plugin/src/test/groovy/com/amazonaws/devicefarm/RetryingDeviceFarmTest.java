@@ -0,0 +1,113 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.CreateUploadRequest;
+import com.amazonaws.services.devicefarm.model.ListProjectsRequest;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RetryingDeviceFarmTest {
+
+    @Test
+    public void retriesThrottledAndFailedCalls() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0.2, 0.3, 0, 0, 0, 1, 1));
+        try {
+            local.seedProject("MyProject");
+            final ApiCallMetrics metrics = new ApiCallMetrics();
+            final AWSDeviceFarm api = wrap(local, new RetryPolicy(30, 1, 5), metrics);
+
+            for (int i = 0; i < 20; i++) {
+                assertEquals(api.listProjects(new ListProjectsRequest()).getProjects().size(), 1);
+            }
+
+            final ApiCallMetrics.Operation listProjects = metrics.getOperations().get("listProjects");
+            assertEquals(listProjects.getCalls(), 20);
+            assertEquals(listProjects.getFailures(), 0);
+            assertTrue(listProjects.getAttempts() > 20);
+            assertTrue(listProjects.getThrottles() > 0);
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void doesNotRepeatCreationsAfterServerErrors() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 1.0, 0, 0, 0, 0, 1, 1));
+        try {
+            final String projectArn = local.seedProject("MyProject");
+            final ApiCallMetrics metrics = new ApiCallMetrics();
+            final AWSDeviceFarm api = wrap(local, new RetryPolicy(3, 1, 5), metrics);
+
+            try {
+                api.createUpload(new CreateUploadRequest().withProjectArn(projectArn).withName("app.apk")
+                        .withType(UploadType.ANDROID_APP));
+                fail("Injected failure expected");
+            } catch (AmazonServiceException e) {
+                assertEquals(e.getStatusCode(), 500);
+            }
+            try {
+                api.listProjects(new ListProjectsRequest());
+                fail("Injected failure expected");
+            } catch (AmazonServiceException e) {
+                assertEquals(e.getStatusCode(), 500);
+            }
+
+            assertEquals(metrics.getOperations().get("createUpload").getAttempts(), 1);
+            assertEquals(metrics.getOperations().get("listProjects").getAttempts(), 3);
+            assertEquals(metrics.getOperations().get("listProjects").getFailures(), 1);
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void rateLimiterSpacesCallsOnceTheBurstIsUsed() throws InterruptedException {
+
+        final TokenBucket rateLimiter = new TokenBucket(100, 5);
+        final long start = System.nanoTime();
+        for (int i = 0; i < 25; i++) {
+            rateLimiter.acquire();
+        }
+
+        // 5 calls at once, then 20 at 10 ms intervals
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+
+    private static AWSDeviceFarm wrap(final LocalDeviceFarm local, final RetryPolicy policy,
+                                      final ApiCallMetrics metrics) {
+        final AWSDeviceFarmClient client = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"),
+                new ClientConfiguration().withMaxErrorRetry(0));
+        client.setEndpoint(local.getEndpoint());
+        return RetryingDeviceFarm.wrap(client, policy, new TokenBucket(0, 1), metrics,
+                Logging.getLogger(RetryingDeviceFarmTest.class));
+    }
+}
@@ -0,0 +1,102 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.TestType;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RunReporterTest {
+
+    @Test
+    public void downloadsAgainArtifactsWhoseSizeDiffers() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+            api.setEndpoint(local.getEndpoint());
+
+            final String project = local.seedProject("MyProject");
+            final Run run = api.scheduleRun(new ScheduleRunRequest()
+                    .withProjectArn(project)
+                    .withAppArn(local.seedUpload(project, "app.apk", "ANDROID_APP"))
+                    .withDevicePoolArn(local.seedDevicePool(project, "MyPool"))
+                    .withName("app.apk (Gradle)")
+                    .withTest(new ScheduleRunTest().withType(TestType.BUILTIN_FUZZ))).getRun();
+
+            final File reportDir = Files.createTempDirectory("run-reporter").toFile();
+            final File junitDir = new File(reportDir, "junit");
+            final File artifactsDir = new File(reportDir, "artifacts");
+
+            report(api, run, junitDir, artifactsDir);
+            final File log = findLog(artifactsDir);
+            final long size = log.length();
+            assertEquals(local.getRequestCounts().get("S3.GetObject"), Integer.valueOf(1));
+
+            // Unchanged, only its size is checked
+            report(api, run, junitDir, artifactsDir);
+            assertEquals(local.getRequestCounts().get("S3.GetObject"), Integer.valueOf(2));
+
+            // Truncated, like a file left by an interrupted build
+            try (RandomAccessFile truncated = new RandomAccessFile(log, "rw")) {
+                truncated.setLength(3);
+            }
+            report(api, run, junitDir, artifactsDir);
+            assertEquals(log.length(), size);
+            assertEquals(local.getRequestCounts().get("S3.GetObject"), Integer.valueOf(4));
+        } finally {
+            local.stop();
+        }
+    }
+
+    private static void report(final AWSDeviceFarmClient api, final Run run, final File junitDir,
+                               final File artifactsDir) throws IOException {
+        try (RunReporter reporter = new RunReporter(api, Logging.getLogger(RunReporterTest.class),
+                DeviceFarmUploader.newHttpClient(4, 10000, 10000), 4, null)) {
+            reporter.report(Collections.singletonList(run.getArn()), junitDir, artifactsDir, true);
+        }
+    }
+
+    private static File findLog(final File directory) {
+        final File[] files = directory.listFiles();
+        assertTrue(files != null, directory.toString());
+        for (File file : files) {
+            if (file.isDirectory()) {
+                final File log = findLog(file);
+                if (log != null) {
+                    return log;
+                }
+            } else if (file.getName().endsWith(".logcat")) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
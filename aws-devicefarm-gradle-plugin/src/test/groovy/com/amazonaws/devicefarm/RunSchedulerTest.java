@@ -0,0 +1,168 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
+import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.TestType;
+import com.google.common.collect.Lists;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RunSchedulerTest {
+
+    private static final Logger LOGGER = Logging.getLogger(RunSchedulerTest.class);
+    private static final long RUN_MILLIS = 500;
+
+    private LocalDeviceFarm local;
+    private AWSDeviceFarmClient api;
+    private String projectArn;
+    private String poolArn;
+    private String appArn;
+
+    @BeforeMethod
+    public void startLocal() throws IOException {
+        local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, RUN_MILLIS, 1, 1));
+        api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+        api.setEndpoint(local.getEndpoint());
+        projectArn = local.seedProject("MyProject");
+        poolArn = local.seedDevicePool(projectArn, "MyPool");
+        appArn = local.seedUpload(projectArn, "app.apk", "ANDROID_APP");
+    }
+
+    @AfterMethod
+    public void stopLocal() {
+        local.stop();
+    }
+
+    @Test
+    public void readsTheUnmeteredSlotsOfTheAccount() {
+
+        local.setUnmeteredDevices(3);
+        assertEquals(new RunScheduler().accountSlots(api, "ANDROID"), 3);
+
+        local.setUnmeteredDevices(0);
+        assertEquals(new RunScheduler().accountSlots(api, "ANDROID"), Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void weighsRunsByTheDevicesTheyRunOn() {
+
+        final RunScheduler scheduler = new RunScheduler();
+        final String limitedPoolArn = local.seedDevicePool(projectArn, "Limited", 2);
+        final String iosAppArn = local.seedUpload(projectArn, "app.ipa", "IOS_APP");
+
+        assertEquals(scheduler.weightOf(api, run(poolArn, appArn)), 6);
+        assertEquals(scheduler.weightOf(api, run(poolArn, iosAppArn)), 2);
+        assertEquals(scheduler.weightOf(api, run(limitedPoolArn, appArn)), 2);
+        assertEquals(scheduler.weightOf(api, run(null, appArn)
+                .withDeviceSelectionConfiguration(new DeviceSelectionConfiguration().withMaxDevices(3))), 3);
+    }
+
+    @Test
+    public void waitsForRunsInFlightToComplete() {
+
+        final RunScheduler scheduler = new RunScheduler();
+        schedule(scheduler, 2, 0, "first");
+        schedule(scheduler, 2, 0, "second");
+        assertEquals(scheduler.getUsedSlots(), 2);
+
+        final RunScheduler.Ticket third = schedule(scheduler, 2, 0, "third");
+        assertTrue(third.getQueuedMillis() > 0);
+        assertTrue(scheduler.getUsedSlots() <= 2);
+    }
+
+    @Test
+    public void releasesTheSlotsOfRunsNeverScheduled() {
+
+        final RunScheduler scheduler = new RunScheduler();
+        scheduler.admit(api, 1, 1, 0, "failed", poll(), LOGGER).close();
+
+        assertEquals(scheduler.getUsedSlots(), 0);
+        schedule(scheduler, 1, 0, "next");
+        assertEquals(scheduler.getUsedSlots(), 1);
+    }
+
+    @Test
+    public void admitsWaitingRunsByPriority() throws Exception {
+
+        final RunScheduler scheduler = new RunScheduler();
+        schedule(scheduler, 1, 0, "running");
+
+        final List<String> admitted = Collections.synchronizedList(Lists.<String>newArrayList());
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> low = executor.submit(scheduling(scheduler, 0, "low", admitted));
+            Thread.sleep(50);
+            final Future<?> high = executor.submit(scheduling(scheduler, 10, "high", admitted));
+            low.get();
+            high.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(admitted, Lists.newArrayList("high", "low"));
+    }
+
+    private Callable<Void> scheduling(final RunScheduler scheduler, final int priority, final String name,
+                                      final List<String> admitted) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                schedule(scheduler, 1, priority, name);
+                admitted.add(name);
+                return null;
+            }
+        };
+    }
+
+    private RunScheduler.Ticket schedule(final RunScheduler scheduler, final int slots, final int priority,
+                                         final String name) {
+        try (RunScheduler.Ticket ticket = scheduler.admit(api, slots, 1, priority, name, poll(), LOGGER)) {
+            ticket.started(api.scheduleRun(run(poolArn, appArn).withName(name)).getRun().getArn());
+            return ticket;
+        }
+    }
+
+    private ScheduleRunRequest run(final String devicePoolArn, final String runAppArn) {
+        return new ScheduleRunRequest()
+                .withProjectArn(projectArn)
+                .withAppArn(runAppArn)
+                .withDevicePoolArn(devicePoolArn)
+                .withTest(new ScheduleRunTest().withType(TestType.BUILTIN_FUZZ));
+    }
+
+    private static PollStrategy poll() {
+        return new PollStrategy(20, 1.0, 20, 0, 60000);
+    }
+}
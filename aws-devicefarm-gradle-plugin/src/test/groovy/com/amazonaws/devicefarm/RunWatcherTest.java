@@ -0,0 +1,166 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.extension.DeviceFarmExtension;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.StopRunRequest;
+import com.amazonaws.services.devicefarm.model.TestType;
+import org.gradle.api.logging.Logging;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RunWatcherTest {
+
+    @Test
+    public void passesRunsWithWarningsOrSkippedTestsAtWorst() {
+        for (ExecutionResult result : new ExecutionResult[]{
+                ExecutionResult.PASSED, ExecutionResult.WARNED, ExecutionResult.SKIPPED}) {
+            assertTrue(RunWatcher.isSuccessful(new Run().withResult(result)), result.toString());
+        }
+        for (ExecutionResult result : new ExecutionResult[]{ExecutionResult.FAILED, ExecutionResult.ERRORED,
+                ExecutionResult.STOPPED, ExecutionResult.PENDING}) {
+            assertFalse(RunWatcher.isSuccessful(new Run().withResult(result)), result.toString());
+        }
+        assertFalse(RunWatcher.isSuccessful(new Run()));
+    }
+
+    @Test
+    public void listsTheRunsThatDidNotPassWithTheirConsoleUrls() {
+
+        final DeviceFarmUtils utils = new DeviceFarmUtils(null,
+                new DeviceFarmExtension(ProjectBuilder.builder().build()));
+        final Run passed = new Run().withName("app.apk (Gradle) [shard 1/3]").withResult(ExecutionResult.PASSED)
+                .withArn("arn:aws:devicefarm:us-west-2:123456789012:run:MyProject/run1");
+        final Run failed = new Run().withName("app.apk (Gradle) [shard 2/3]").withResult(ExecutionResult.FAILED)
+                .withArn("arn:aws:devicefarm:us-west-2:123456789012:run:MyProject/run2");
+        final Run stopped = new Run().withName("app.apk (Gradle) [shard 3/3]").withResult(ExecutionResult.STOPPED)
+                .withArn("arn:aws:devicefarm:us-west-2:123456789012:run:MyProject/run3");
+
+        assertNull(DeviceFarmServer.failureMessage(Collections.singletonList(passed), utils));
+        assertEquals(DeviceFarmServer.failureMessage(Arrays.asList(passed, failed, stopped), utils),
+                "AWS Device Farm run(s) did not pass: "
+                        + "app.apk (Gradle) [shard 2/3] (FAILED): "
+                        + "https://console.aws.amazon.com/devicefarm/home?#/projects/MyProject/runs/run2, "
+                        + "app.apk (Gradle) [shard 3/3] (STOPPED): "
+                        + "https://console.aws.amazon.com/devicefarm/home?#/projects/MyProject/runs/run3");
+    }
+
+    @Test
+    public void pollsUntilEveryRunCompletes() throws InterruptedException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 500, 2, 1));
+        try {
+            final AWSDeviceFarmClient api = client(local, new ClientConfiguration());
+            final List<Run> scheduled = Arrays.asList(schedule(api, local), schedule(api, local));
+            api.stopRun(new StopRunRequest().withArn(scheduled.get(1).getArn()));
+
+            final List<Run> completed = watcher(api, new PollStrategy(20, 1.0, 20, 0, 60000)).watch(scheduled);
+
+            assertEquals(completed.size(), 2);
+            assertEquals(completed.get(0).getArn(), scheduled.get(0).getArn());
+            assertEquals(completed.get(0).getStatus(), "COMPLETED");
+            assertEquals(completed.get(0).getResult(), "PASSED");
+            assertEquals(completed.get(1).getResult(), "STOPPED");
+
+            // Runs are polled until they complete, their jobs only when they changed
+            final Map<String, Integer> requests = local.getRequestCounts();
+            assertTrue(requests.get("GetRun") > 3, requests.toString());
+            assertTrue(requests.get("ListJobs") <= 4, requests.toString());
+            assertTrue(requests.get("ListSuites") <= 2 * requests.get("ListJobs"), requests.toString());
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void backsOffWhenThrottled() throws InterruptedException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0.2, 0, 0, 300, 1, 1));
+        try {
+            final Run run = schedule(client(local, new ClientConfiguration()), local);
+
+            // Throttling errors reach the watcher instead of being retried by the client
+            final AWSDeviceFarmClient api = client(local, new ClientConfiguration().withMaxErrorRetry(0));
+            final List<Run> completed = watcher(api, new PollStrategy(10, 1.0, 10, 0, 60000))
+                    .watch(Collections.singletonList(run));
+
+            assertEquals(completed.get(0).getResult(), "PASSED");
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void givesUpOnceThePollingTimesOut() throws InterruptedException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 600000, 1, 1));
+        try {
+            final AWSDeviceFarmClient api = client(local, new ClientConfiguration());
+            final Run run = schedule(api, local);
+
+            try {
+                watcher(api, new PollStrategy(10, 1.0, 10, 0, 100)).watch(Collections.singletonList(run));
+                fail("The run never completes");
+            } catch (DeviceFarmException e) {
+                assertTrue(e.getMessage().startsWith("Timed out"), e.getMessage());
+            }
+        } finally {
+            local.stop();
+        }
+    }
+
+    private static AWSDeviceFarmClient client(final LocalDeviceFarm local, final ClientConfiguration configuration) {
+        final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"),
+                configuration);
+        api.setEndpoint(local.getEndpoint());
+        return api;
+    }
+
+    private static RunWatcher watcher(final AWSDeviceFarmClient api, final PollStrategy pollStrategy) {
+        return new RunWatcher(api, Logging.getLogger(RunWatcherTest.class), pollStrategy);
+    }
+
+    private static Run schedule(final AWSDeviceFarmClient api, final LocalDeviceFarm local)
+            throws InterruptedException {
+        final String project = local.seedProject("MyProject");
+        // Creation times of consecutive runs must differ
+        Thread.sleep(10);
+        return api.scheduleRun(new ScheduleRunRequest()
+                .withProjectArn(project)
+                .withAppArn(local.seedUpload(project, "app.apk", "ANDROID_APP"))
+                .withDevicePoolArn(local.seedDevicePool(project, "MyPool"))
+                .withName("app.apk (Gradle)")
+                .withTest(new ScheduleRunTest().withType(TestType.BUILTIN_FUZZ))).getRun();
+    }
+}
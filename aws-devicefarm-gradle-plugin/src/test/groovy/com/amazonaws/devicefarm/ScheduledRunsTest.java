@@ -0,0 +1,80 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Run;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ScheduledRunsTest {
+
+    @Test
+    public void readsTheRunsOfTheGivenVariants() throws IOException {
+
+        final File directory = new File(Files.createTempDirectory("scheduled-runs").toFile(), "runs");
+
+        ScheduledRuns.record(directory, "debug", Lists.newArrayList(run("arn:run/1"), null, run("arn:run/2")));
+        ScheduledRuns.record(directory, "release", Lists.newArrayList(run("arn:run/3")));
+
+        assertEquals(ScheduledRuns.read(directory, Lists.newArrayList("debug", "release")),
+                Lists.newArrayList("arn:run/1", "arn:run/2", "arn:run/3"));
+    }
+
+    @Test
+    public void leavesOutTheRunsOfVariantsNotScheduledByTheBuild() throws IOException {
+
+        final File directory = Files.createTempDirectory("scheduled-runs").toFile();
+
+        // Recorded by an earlier build
+        ScheduledRuns.record(directory, "release", Lists.newArrayList(run("arn:run/old")));
+        ScheduledRuns.record(directory, "debug", Lists.newArrayList(run("arn:run/1")));
+
+        assertEquals(ScheduledRuns.read(directory, Collections.singletonList("debug")),
+                Lists.newArrayList("arn:run/1"));
+        assertTrue(ScheduledRuns.read(directory, Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void replacesTheRunsOfAVariantScheduledAgain() throws IOException {
+
+        final File directory = Files.createTempDirectory("scheduled-runs").toFile();
+
+        ScheduledRuns.record(directory, "debug", Lists.newArrayList(run("arn:run/1"), run("arn:run/2")));
+        ScheduledRuns.record(directory, "debug", Lists.newArrayList(run("arn:run/3")));
+
+        assertEquals(ScheduledRuns.read(directory, Collections.singletonList("debug")),
+                Lists.newArrayList("arn:run/3"));
+    }
+
+    @Test
+    public void readsNothingBeforeAnyRunIsRecorded() throws IOException {
+
+        final File directory = new File(Files.createTempDirectory("scheduled-runs").toFile(), "missing");
+
+        assertTrue(ScheduledRuns.read(directory, Collections.singletonList("debug")).isEmpty());
+    }
+
+    private static Run run(final String arn) {
+        return new Run().withArn(arn);
+    }
+}
@@ -0,0 +1,55 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class ShardPlannerTest {
+
+    @Test
+    public void balancesUnknownDurationsByCount() {
+        final List<List<String>> plan = ShardPlanner.plan(Lists.newArrayList("a", "b", "c", "d", "e"), 2,
+                Collections.<String, Long>emptyMap());
+
+        assertEquals(plan.size(), 2);
+        assertEquals(plan.get(0).size() + plan.get(1).size(), 5);
+        assertEquals(Math.abs(plan.get(0).size() - plan.get(1).size()), 1);
+    }
+
+    @Test
+    public void balancesKnownDurations() {
+        final List<List<String>> plan = ShardPlanner.plan(Lists.newArrayList("slow", "a", "b", "c"), 2,
+                ImmutableMap.of("slow", 300L, "a", 100L, "b", 100L, "c", 100L));
+
+        assertEquals(plan.size(), 2);
+        assertEquals(plan.get(0), Lists.newArrayList("slow"));
+        assertEquals(plan.get(1), Lists.newArrayList("a", "b", "c"));
+    }
+
+    @Test
+    public void neverCreatesEmptyShards() {
+        final List<List<String>> plan = ShardPlanner.plan(Lists.newArrayList("a", "b"), 5,
+                Collections.<String, Long>emptyMap());
+
+        assertEquals(plan.size(), 2);
+    }
+}
@@ -0,0 +1,119 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.local.LocalDeviceFarm;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.GetRunRequest;
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.TestType;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class SupersededRunsTest {
+
+    @Test
+    public void keepsTheRunNameWithoutKey() {
+        assertEquals(SupersededRuns.nameWithKey("app.apk (Gradle)", null), "app.apk (Gradle)");
+        assertEquals(SupersededRuns.nameWithKey("app.apk (Gradle) [shard 1/2]", "main"),
+                "app.apk (Gradle) [shard 1/2] #main");
+    }
+
+    @Test
+    public void stopsOnlyActiveRunsOfTheSameAppAndKey() throws IOException, InterruptedException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 600000, 1, 1));
+        try {
+            final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+            api.setEndpoint(local.getEndpoint());
+
+            final Project project = new Project().withName("MyProject").withArn(local.seedProject("MyProject"));
+            final String pool = local.seedDevicePool(project.getArn(), "MyPool");
+            final String app = local.seedUpload(project.getArn(), "app.apk", "ANDROID_APP");
+
+            final Run superseded = schedule(api, project, pool, app, "app.apk (Gradle) #main");
+            final Run otherBranch = schedule(api, project, pool, app, "app.apk (Gradle) #feature/main");
+            final Run otherApp = schedule(api, project, pool, app, "other.apk (Gradle) #main");
+            final Run withoutKey = schedule(api, project, pool, app, "app.apk (Gradle)");
+            final long buildStarted = System.currentTimeMillis();
+            final Run newest = schedule(api, project, pool, app, "app.apk (Gradle) #main");
+
+            final List<Run> stopped = new SupersededRuns(api, Logging.getLogger(SupersededRunsTest.class))
+                    .stop(project, "app.apk", "main", Collections.singletonList(newest), buildStarted);
+
+            assertEquals(stopped.size(), 1);
+            assertEquals(stopped.get(0).getArn(), superseded.getArn());
+            assertEquals(resultOf(api, superseded), "STOPPED");
+            for (Run run : new Run[]{otherBranch, otherApp, withoutKey, newest}) {
+                assertEquals(resultOf(api, run), "PENDING");
+            }
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void keepsTheRunsOfANewerBuildThatScheduledFirst() throws IOException, InterruptedException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 600000, 1, 1));
+        try {
+            final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+            api.setEndpoint(local.getEndpoint());
+
+            final Project project = new Project().withName("MyProject").withArn(local.seedProject("MyProject"));
+            final String pool = local.seedDevicePool(project.getArn(), "MyPool");
+            final String app = local.seedUpload(project.getArn(), "app.apk", "ANDROID_APP");
+
+            // The build of the older push starts first but is slower to schedule
+            final long olderBuildStarted = System.currentTimeMillis();
+            Thread.sleep(10);
+            final Run newer = schedule(api, project, pool, app, "app.apk (Gradle) #main");
+            final Run older = schedule(api, project, pool, app, "app.apk (Gradle) #main");
+
+            final SupersededRuns supersededRuns = new SupersededRuns(api, Logging.getLogger(SupersededRunsTest.class));
+            assertEquals(supersededRuns.stop(project, "app.apk", "main",
+                    Collections.singletonList(older), olderBuildStarted).size(), 0);
+            assertEquals(resultOf(api, newer), "PENDING");
+        } finally {
+            local.stop();
+        }
+    }
+
+    private static Run schedule(final AWSDeviceFarmClient api, final Project project, final String pool,
+                                final String app, final String name) throws InterruptedException {
+        // Creation times of consecutive runs must differ
+        Thread.sleep(10);
+        return api.scheduleRun(new ScheduleRunRequest()
+                .withProjectArn(project.getArn())
+                .withAppArn(app)
+                .withDevicePoolArn(pool)
+                .withName(name)
+                .withTest(new ScheduleRunTest().withType(TestType.BUILTIN_FUZZ))).getRun();
+    }
+
+    private static String resultOf(final AWSDeviceFarmClient api, final Run run) {
+        return api.getRun(new GetRunRequest().withArn(run.getArn())).getRun().getResult();
+    }
+}
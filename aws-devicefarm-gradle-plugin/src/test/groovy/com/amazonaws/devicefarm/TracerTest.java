@@ -0,0 +1,93 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TracerTest {
+
+    @Test
+    public void spansNestAcrossThreads() throws Exception {
+
+        final Tracer tracer = new Tracer();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Tracer.Span root = tracer.span("uploadArtifacts")) {
+            executor.submit(Tracer.propagate(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try (Tracer.Span upload = Tracer.child("upload").set("bytes", 100L)) {
+                        try (Tracer.Span ignored = Tracer.child("transfer")) {
+                            Tracer.current().add("retries", 1).add("retries", 1);
+                        }
+                        assertSame(Tracer.current(), upload);
+                    }
+                    return null;
+                }
+            })).get();
+            assertSame(Tracer.current(), root);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<Tracer.Span> spans = tracer.getSpans();
+        assertEquals(spans.size(), 3);
+        assertEquals(spans.get(1).getName(), "upload");
+        assertEquals(spans.get(2).getAttributes().get("retries"), 2L);
+
+        // Nothing is recorded outside a pipeline
+        try (Tracer.Span ignored = Tracer.child("orphan").set("bytes", 1L)) {
+            assertTrue(ignored.getAttributes().isEmpty());
+        }
+        assertEquals(tracer.getSpans().size(), 3);
+    }
+
+    @Test
+    public void writesPhaseTotalsForPrometheus() throws Exception {
+
+        final Tracer tracer = new Tracer();
+        try (Tracer.Span ignored = tracer.span("schedule")) {
+            for (int i = 0; i < 2; i++) {
+                try (Tracer.Span api = Tracer.child("api.scheduleRun")) {
+                    api.add("attempts", 2).add("throttles", 1);
+                }
+            }
+            Tracer.child("api.listRuns").fail(new DeviceFarmException("failed")).close();
+        }
+
+        final File directory = Files.createTempDirectory("tracer").toFile();
+        final File metrics = new File(directory, "metrics.prom");
+        tracer.writePrometheus(metrics);
+        tracer.writeTrace(new File(directory, "trace.json"));
+
+        final String text = new String(Files.readAllBytes(metrics.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text.contains("devicefarm_phase_duration_seconds_count{phase=\"api.scheduleRun\"} 2\n"));
+        assertTrue(text.contains("devicefarm_phase_attempts_total{phase=\"api.scheduleRun\"} 4\n"));
+        assertTrue(text.contains("devicefarm_phase_throttles_total{phase=\"api.scheduleRun\"} 2\n"));
+        assertTrue(text.contains("devicefarm_phase_errors_total{phase=\"api.listRuns\"} 1\n"));
+        assertTrue(new File(directory, "trace.json").length() > 0);
+    }
+}
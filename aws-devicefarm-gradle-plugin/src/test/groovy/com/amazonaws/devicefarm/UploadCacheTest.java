@@ -0,0 +1,100 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+
+public class UploadCacheTest {
+
+    private final Project project = new Project().withName("MyProject").withArn("arn:project");
+
+    @Test
+    public void entriesSurviveAcrossInstances() throws IOException {
+
+        final File dir = Files.createTempDirectory("upload-cache").toFile();
+        final File apk = writeFile(dir, "app.apk", "apk content");
+
+        final UploadCache cache = new UploadCache(dir);
+        final String key = cache.keyFor(apk, project, UploadType.ANDROID_APP);
+        assertNull(cache.get(key));
+
+        cache.put(key, "arn:upload");
+
+        assertEquals(new UploadCache(dir).get(key), "arn:upload");
+    }
+
+    @Test
+    public void changesOfOtherBuildsAreKept() throws IOException {
+
+        final File dir = Files.createTempDirectory("upload-cache").toFile();
+
+        final UploadCache first = new UploadCache(dir);
+        final UploadCache second = new UploadCache(dir);
+        assertNull(first.get("app"));
+        assertNull(second.get("test"));
+
+        // Each build loaded the cache before the other one wrote to it
+        second.put("test", "arn:upload:test");
+        first.put("app", "arn:upload:app");
+        second.put("extra", "arn:upload:extra");
+        first.remove("extra");
+
+        final UploadCache loaded = new UploadCache(dir);
+        assertEquals(loaded.get("app"), "arn:upload:app");
+        assertEquals(loaded.get("test"), "arn:upload:test");
+        assertNull(loaded.get("extra"));
+        for (String name : dir.list()) {
+            assertFalse(name.endsWith(".tmp"), name);
+        }
+    }
+
+    @Test
+    public void keyDependsOnContentAndType() throws IOException {
+
+        final File dir = Files.createTempDirectory("upload-cache").toFile();
+        final UploadCache cache = new UploadCache(dir);
+
+        final File first = writeFile(dir, "first.apk", "same");
+        final File second = writeFile(dir, "second.apk", "same");
+        final File changed = writeFile(dir, "changed.apk", "changed");
+
+        assertEquals(cache.keyFor(first, project, UploadType.ANDROID_APP),
+                cache.keyFor(second, project, UploadType.ANDROID_APP));
+        assertFalse(cache.keyFor(first, project, UploadType.ANDROID_APP)
+                .equals(cache.keyFor(changed, project, UploadType.ANDROID_APP)));
+        assertFalse(cache.keyFor(first, project, UploadType.ANDROID_APP)
+                .equals(cache.keyFor(first, project, UploadType.EXTERNAL_DATA)));
+    }
+
+    private static File writeFile(final File dir, final String name, final String content) throws IOException {
+        final File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,147 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Upload;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class UploadCoordinatorTest {
+
+    @Test
+    public void concurrentUploadsOfTheSameArtifactShareOneUpload() throws Exception {
+
+        final UploadCoordinator coordinator = new UploadCoordinator();
+        final AtomicInteger uploads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Callable<Upload> upload = new Callable<Upload>() {
+            @Override
+            public Upload call() throws Exception {
+                uploads.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new Upload().withArn("arn:upload");
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<UploadCoordinator.Flight> leader = executor.submit(join(coordinator, "key", upload));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            final UploadCoordinator.Flight follower = coordinator.join("key", upload);
+            assertFalse(follower.isLeader());
+
+            release.countDown();
+            assertTrue(leader.get().isLeader());
+            assertSame(follower.await(), leader.get().await());
+            assertEquals(uploads.get(), 1);
+
+            // Finished uploads are not shared
+            assertTrue(coordinator.join("key", upload).isLeader());
+            assertEquals(uploads.get(), 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failuresReachEveryWaiter() {
+
+        final UploadCoordinator coordinator = new UploadCoordinator();
+        final UploadCoordinator.Flight flight = coordinator.join("key", new Callable<Upload>() {
+            @Override
+            public Upload call() {
+                throw new DeviceFarmException("Upload failed");
+            }
+        });
+
+        try {
+            flight.await();
+            fail("The upload failure must be thrown");
+        } catch (DeviceFarmException e) {
+            assertEquals(e.getMessage(), "Upload failed");
+        }
+    }
+
+    @Test
+    public void followersUploadThemselvesWhenTheLeaderIsInterrupted() throws Exception {
+
+        final UploadCoordinator coordinator = new UploadCoordinator();
+        final AtomicInteger uploads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<UploadCoordinator.Flight> leader = executor.submit(join(coordinator, "key",
+                new Callable<Upload>() {
+                    @Override
+                    public Upload call() throws Exception {
+                        uploads.incrementAndGet();
+                        started.countDown();
+                        // Until the module of the leader fails and interrupts it
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                        return new Upload().withArn("arn:leader");
+                    }
+                }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final UploadCoordinator.Flight follower = coordinator.join("key", new Callable<Upload>() {
+            @Override
+            public Upload call() {
+                uploads.incrementAndGet();
+                return new Upload().withArn("arn:follower");
+            }
+        });
+        assertFalse(follower.isLeader());
+
+        executor.shutdownNow();
+
+        assertEquals(follower.await().getArn(), "arn:follower");
+        assertTrue(follower.isLeader());
+        assertEquals(uploads.get(), 2);
+
+        try {
+            leader.get().await();
+            fail("The leader was interrupted");
+        } catch (DeviceFarmException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+    }
+
+    private static Callable<UploadCoordinator.Flight> join(final UploadCoordinator coordinator, final String key,
+                                                           final Callable<Upload> upload) {
+        return new Callable<UploadCoordinator.Flight>() {
+            @Override
+            public UploadCoordinator.Flight call() {
+                return coordinator.join(key, upload);
+            }
+        };
+    }
+}
@@ -0,0 +1,165 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm;
+
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class UploadStageTest {
+
+    private final Project project = new Project().withName("MyProject").withArn("arn:project");
+
+    @Test
+    public void waitsForEveryUpload() {
+
+        final UploadStage stage = new UploadStage(new StubUploader(null, false), project, 2, 2);
+        final Future<Upload> app = stage.submit(new File("app.apk"), UploadType.ANDROID_APP);
+        final Future<Upload> tests = stage.submit(new File("tests.apk"), UploadType.INSTRUMENTATION_TEST_PACKAGE);
+
+        stage.await();
+
+        assertEquals(stage.get(app).getArn(), "arn:upload:app.apk");
+        assertEquals(stage.get(tests).getArn(), "arn:upload:tests.apk");
+    }
+
+    @Test
+    public void theFirstFailureCancelsTheOtherUploads() throws InterruptedException {
+
+        final StubUploader uploader = new StubUploader("broken.apk", true);
+        final UploadStage stage = new UploadStage(uploader, project, 4, 4);
+        stage.submit(new File("app.apk"), UploadType.ANDROID_APP);
+        stage.submit(new File("extra.zip"), UploadType.EXTERNAL_DATA);
+        stage.submit(new File("broken.apk"), UploadType.INSTRUMENTATION_TEST_PACKAGE);
+
+        try {
+            stage.await();
+            fail("The failed upload was not reported");
+        } catch (DeviceFarmException e) {
+            assertEquals(e.getMessage(), "Unable to upload broken.apk");
+        }
+
+        assertTrue(uploader.interrupted.await(5, TimeUnit.SECONDS), "The other uploads are still running");
+    }
+
+    @Test
+    public void cancelStopsTheUploadsInProgress() throws InterruptedException {
+
+        final StubUploader uploader = new StubUploader(null, true);
+        final UploadStage stage = new UploadStage(uploader, project, 2, 2);
+        stage.submit(new File("app.apk"), UploadType.ANDROID_APP);
+        stage.submit(new File("tests.apk"), UploadType.INSTRUMENTATION_TEST_PACKAGE);
+        assertTrue(uploader.started.await(5, TimeUnit.SECONDS));
+
+        stage.cancel();
+
+        assertTrue(uploader.interrupted.await(5, TimeUnit.SECONDS), "The uploads are still running");
+    }
+
+    @Test
+    public void theStagesOfEveryModuleShareTheConcurrencyLimit() {
+
+        final CountingUploader uploader = new CountingUploader();
+        final UploadStage app = new UploadStage(uploader, project, 1, 2);
+        final UploadStage library = new UploadStage(uploader, project, 1, 2);
+        app.submit(new File("app.apk"), UploadType.ANDROID_APP);
+        app.submit(new File("app-tests.apk"), UploadType.INSTRUMENTATION_TEST_PACKAGE);
+        library.submit(new File("library.apk"), UploadType.ANDROID_APP);
+        library.submit(new File("library-tests.apk"), UploadType.INSTRUMENTATION_TEST_PACKAGE);
+
+        app.await();
+        library.await();
+
+        assertEquals(uploader.uploads.get(), 4);
+        assertEquals(uploader.maxRunning.get(), 1);
+    }
+
+    /**
+     * Records how many uploads run at once.
+     */
+    private static class CountingUploader extends DeviceFarmUploader {
+
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final AtomicInteger uploads = new AtomicInteger();
+
+        CountingUploader() {
+            super(null, Logging.getLogger(UploadStageTest.class), null, PollStrategy.defaults(), null, null);
+        }
+
+        @Override
+        public Upload upload(final File file, final Project project, final UploadType uploadType) {
+            final int now = running.incrementAndGet();
+            int max;
+            do {
+                max = maxRunning.get();
+            } while (now > max && !maxRunning.compareAndSet(max, now));
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new DeviceFarmException("Interrupted", e);
+            } finally {
+                running.decrementAndGet();
+            }
+            uploads.incrementAndGet();
+            return new Upload().withArn("arn:upload:" + file.getName()).withName(file.getName());
+        }
+    }
+
+    /**
+     * Fails the upload of one artifact once the two others started, those wait until interrupted when blocking.
+     */
+    private static class StubUploader extends DeviceFarmUploader {
+
+        private final String failing;
+        private final CountDownLatch release;
+        private final CountDownLatch started = new CountDownLatch(2);
+        private final CountDownLatch interrupted = new CountDownLatch(2);
+
+        StubUploader(final String failing, final boolean blocking) {
+            super(null, Logging.getLogger(UploadStageTest.class), null, PollStrategy.defaults(), null, null);
+            this.failing = failing;
+            this.release = new CountDownLatch(blocking ? 1 : 0);
+        }
+
+        @Override
+        public Upload upload(final File file, final Project project, final UploadType uploadType) {
+            try {
+                if (file.getName().equals(failing)) {
+                    started.await(5, TimeUnit.SECONDS);
+                    throw new DeviceFarmException(String.format("Unable to upload %s", file.getName()));
+                }
+                started.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new DeviceFarmException("Interrupted", e);
+            }
+            return new Upload().withArn("arn:upload:" + file.getName()).withName(file.getName());
+        }
+    }
+}
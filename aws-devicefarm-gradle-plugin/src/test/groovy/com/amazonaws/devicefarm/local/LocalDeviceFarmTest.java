@@ -0,0 +1,193 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package com.amazonaws.devicefarm.local;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.devicefarm.DeviceFarmUploader;
+import com.amazonaws.devicefarm.DeviceFarmUtils;
+import com.amazonaws.devicefarm.MetadataCache;
+import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
+import com.amazonaws.services.devicefarm.model.DeviceFilter;
+import com.amazonaws.services.devicefarm.model.DeviceFilterAttribute;
+import com.amazonaws.services.devicefarm.model.DevicePool;
+import com.amazonaws.services.devicefarm.model.GetRunRequest;
+import com.amazonaws.services.devicefarm.model.ListDevicePoolsRequest;
+import com.amazonaws.services.devicefarm.model.ListDevicesRequest;
+import com.amazonaws.services.devicefarm.model.ListJobsRequest;
+import com.amazonaws.services.devicefarm.model.ListNetworkProfilesRequest;
+import com.amazonaws.services.devicefarm.model.ListProjectsRequest;
+import com.amazonaws.services.devicefarm.model.Project;
+import com.amazonaws.services.devicefarm.model.RuleOperator;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.TestType;
+import com.amazonaws.services.devicefarm.model.Upload;
+import com.amazonaws.services.devicefarm.model.UploadType;
+import org.gradle.api.logging.Logging;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+
+public class LocalDeviceFarmTest {
+
+    @Test
+    public void uploadsAndRunsAgainstTheStandIn() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 2, 3));
+        try {
+            local.seed("MyProject", Collections.singletonList("MyPool"));
+
+            final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+            api.setEndpoint(local.getEndpoint());
+
+            final Project project = api.listProjects(new ListProjectsRequest()).getProjects().get(0);
+            assertEquals(project.getName(), "MyProject");
+
+            final File apk = Files.createTempFile("app", ".apk").toFile();
+            Files.write(apk.toPath(), new byte[4096]);
+
+            final Upload upload;
+            try (DeviceFarmUploader uploader = new DeviceFarmUploader(api, Logging.getLogger(LocalDeviceFarmTest.class))) {
+                upload = uploader.upload(apk, project, UploadType.ANDROID_APP);
+            }
+            assertEquals(local.getUploadedBytes(), 4096);
+
+            final DevicePool pool = api.listDevicePools(new ListDevicePoolsRequest().withArn(project.getArn()))
+                    .getDevicePools().get(0);
+            final Run run = api.scheduleRun(new ScheduleRunRequest()
+                    .withProjectArn(project.getArn())
+                    .withAppArn(upload.getArn())
+                    .withDevicePoolArn(pool.getArn())
+                    .withName("MyRun")
+                    .withTest(new ScheduleRunTest().withType(TestType.BUILTIN_FUZZ))).getRun();
+
+            // Runs complete at once with these settings
+            final Run completed = api.getRun(new GetRunRequest().withArn(run.getArn())).getRun();
+            assertEquals(completed.getResult(), "PASSED");
+            assertEquals(completed.getCounters().getTotal(), Integer.valueOf(6));
+            assertEquals(api.listJobs(new ListJobsRequest().withArn(run.getArn())).getJobs().size(), 2);
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void pagesThroughLongLists() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final Project project = new Project().withName("MyProject").withArn(local.seedProject("MyProject"));
+            for (int i = 0; i < 120; i++) {
+                local.seedDevicePool(project.getArn(), "pool-" + i);
+            }
+
+            final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"));
+            api.setEndpoint(local.getEndpoint());
+            final DeviceFarmUtils utils = new DeviceFarmUtils(api, null, new MetadataCache("test", 0, null, false));
+
+            assertEquals(utils.getDevicePools(project).size(), 120);
+            assertEquals(utils.findDevicePoolByName(project, "pool-119").getName(), "pool-119");
+            assertEquals(local.getRequestCounts().get("ListDevicePools"), Integer.valueOf(6));
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void answersUnsupportedRequestsAsInvalidOperations() throws IOException {
+
+        final LocalDeviceFarm local = new LocalDeviceFarm(new LocalDeviceFarm.Settings(0, 0, 0, 0, 0, 0, 1, 1));
+        try {
+            final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"),
+                    new ClientConfiguration().withMaxErrorRetry(0));
+            api.setEndpoint(local.getEndpoint());
+            final String projectArn = local.seedProject("MyProject");
+
+            try {
+                api.listNetworkProfiles(new ListNetworkProfilesRequest().withArn(projectArn));
+                fail("An unsupported operation succeeded");
+            } catch (AmazonServiceException e) {
+                assertEquals(e.getStatusCode(), 400);
+                assertEquals(e.getErrorCode(), "InvalidOperationException");
+            }
+
+            try {
+                api.listDevices(new ListDevicesRequest().withFilters(new DeviceFilter()
+                        .withAttribute(DeviceFilterAttribute.OS_VERSION)
+                        .withOperator(RuleOperator.GREATER_THAN)
+                        .withValues("9")));
+                fail("An unsupported device filter succeeded");
+            } catch (AmazonServiceException e) {
+                assertEquals(e.getStatusCode(), 400);
+                assertEquals(e.getErrorCode(), "InvalidOperationException");
+            }
+        } finally {
+            local.stop();
+        }
+    }
+
+    @Test
+    public void stopsSharedStandInsOnceNoProjectUsesTheirSettings() {
+
+        // Settings and projects of their own, stand-ins are shared by the whole JVM
+        final LocalDeviceFarm.Settings first = new LocalDeviceFarm.Settings(1, 0, 0, 0, 0, 0, 3, 7);
+        final LocalDeviceFarm.Settings second = new LocalDeviceFarm.Settings(1, 0, 0, 0, 0, 0, 4, 7);
+
+        final LocalDeviceFarm app = LocalDeviceFarm.shared("/work/app", first);
+        final LocalDeviceFarm library = LocalDeviceFarm.shared("/work/library", first);
+        LocalDeviceFarm changed = null;
+        try {
+            assertSame(library, app);
+
+            // The library still uses the first settings
+            changed = LocalDeviceFarm.shared("/work/app", second);
+            assertNotSame(changed, app);
+            assertSame(LocalDeviceFarm.shared("/work/library", first), app);
+            listProjects(app);
+
+            // No project uses them anymore
+            assertSame(LocalDeviceFarm.shared("/work/library", second), changed);
+            try {
+                listProjects(app);
+                fail("The stand-in of the previous settings still answers");
+            } catch (AmazonClientException expected) {
+                // Stopped
+            }
+            listProjects(changed);
+        } finally {
+            (changed == null ? app : changed).stop();
+        }
+    }
+
+    private static void listProjects(final LocalDeviceFarm local) {
+        final AWSDeviceFarmClient api = new AWSDeviceFarmClient(new BasicAWSCredentials("local", "local"),
+                new ClientConfiguration().withMaxErrorRetry(0));
+        api.setEndpoint(local.getEndpoint());
+        api.listProjects(new ListProjectsRequest());
+    }
+}